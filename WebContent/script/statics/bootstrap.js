@@ -13,7 +13,7 @@
         loaded : []
     };
     /**
-     * loads the javascript and css files in sequence
+     * loads the javascript and css files of the manifest, each once the resources it depends on are loaded
      * @private
      */
     var loadResources = function(resourceLocations) {
@@ -38,6 +38,7 @@
                 resourceStatus.added.push(resourceLocations[index]['id']);
                 var resource;
                 switch (resourceLocations[index]['type']) {
+                case 'application/javascript':
                 case 'text/javascript':
                     resource = document.createElement('script');
                     resource.setAttribute('type', resourceLocations[index]['type']);
@@ -65,33 +66,22 @@
             }
         }
     };
-    loadResources([
-    // load the common scripts
-    {
-        'id' : 'script-common-all',
-        'src' : 'script/statics-all.js',
-        'type' : 'text/javascript',
-        'depends-on' : [ 'templates-common-all' ]
-    },
-    // load the dwr public api scripts
-    {
-        'id' : 'dwr-public-all',
-        'src' : 'script/dwr-public.js',
-        'type' : 'text/javascript',
-        'depends-on' : []
-    },
-    // load the common styles
-    {
-        'id' : 'style-common-all',
-        'src' : 'styles/statics-all.css',
-        'type' : 'text/css',
-        'depends-on' : []
-    },
-    // load the common templates
-    {
-        'id' : 'templates-common-all',
-        'src' : 'templates/statics-all.js',
-        'type' : 'text/javascript',
-        'depends-on' : []
-    } ]);
+    /**
+     * loads the manifest of the merged files generated by the server: the url, type, hash and dependencies of every resource. The page
+     * response announces the same resources with preload headers, so they are already downloading while the manifest loads
+     * @private
+     */
+    var loadManifest = function() {
+        var request = new XMLHttpRequest();
+        request.open('GET', 'teapot-manifest.json', true);
+        request.onload = function() {
+            if (request.status != 200) {
+                document.getElementById("load-message").innerHTML = 'the resource manifest could not be loaded: ' + request.status;
+                return;
+            }
+            loadResources(JSON.parse(request.responseText)['resources']);
+        };
+        request.send();
+    };
+    loadManifest();
 })();
\ No newline at end of file
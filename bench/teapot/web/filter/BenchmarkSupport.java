@@ -0,0 +1,116 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Helpers shared by the benchmarks: the project web content used as realistic input, and temporary copies of it. The web content is looked up
+ * in the directory given by the <i>teapot.webContent</i> system property, and in <i>WebContent</i> otherwise. The servlet objects driving the
+ * {@link CompilerFilter} are the ones of {@link TestSupport}, so <i>bench/</i> is compiled together with <i>test/</i>.
+ */
+final class BenchmarkSupport {
+    /**
+     * the compilation level parameter value standing for no compilation level
+     */
+    static final String NONE = "NONE"; //$NON-NLS-1$
+
+    /**
+     * Copies the directory tree
+     * @param source the directory to copy
+     * @param target the directory to copy to
+     * @throws IOException if copying fails
+     */
+    static void copyTree(final Path source, final Path target)
+    throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+            throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+            throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Finds the files under the directory having the extension, in a stable order
+     * @param directory the directory to search
+     * @param extension the file extension, including the dot
+     * @return the sorted paths of the files found
+     * @throws IOException if the directory cannot be read
+     */
+    static List<Path> findFiles(final Path directory, final String extension)
+    throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (file.toString().endsWith(extension)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Initializes a compiler filter for the web root. The web root gets a compiler configuration merging all scripts into
+     * <i>script/all.js</i>
+     * @param webRoot the local path of the context root, holding a copy of the web content
+     * @param compilationLevel the compilation level parameter. {@link #NONE} for no compilation level
+     * @return the initialized filter
+     * @throws Exception if the filter cannot be initialized
+     */
+    static CompilerFilter initFilter(final Path webRoot, final String compilationLevel)
+    throws Exception {
+        final String levelAttribute = BenchmarkSupport.NONE.equals(compilationLevel) ? "" : " compilation-level=\"" + compilationLevel + '"'; //$NON-NLS-1$ //$NON-NLS-2$
+        return TestSupport.initFilter(webRoot, "disk-cache-size=\"0\"", //$NON-NLS-1$
+            String.format("\t<scripts mergedir=\"script\" basedir=\"script\"%s>%n" //$NON-NLS-1$
+            + "\t\t<to-file>%n\t\t\t<name>all.js</name>%n\t\t\t<include>statics/**.js</include>%n" //$NON-NLS-1$
+            + "\t\t\t<include>teapot/**.js</include>%n\t\t</to-file>%n\t</scripts>", levelAttribute)); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the compilation level of the parameter value
+     * @param compilationLevel the compilation level parameter
+     * @return the compilation level. null for {@link #NONE}
+     */
+    static CompilationLevel toCompilationLevel(final String compilationLevel) {
+        return BenchmarkSupport.NONE.equals(compilationLevel) ? null : CompilationLevel.valueOf(compilationLevel);
+    }
+
+    /**
+     * Returns the project web content directory
+     * @return the web content directory
+     */
+    static Path webContent() {
+        return Paths.get(System.getProperty("teapot.webContent", "WebContent")).toAbsolutePath(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Private constructor for the utility class
+     */
+    private BenchmarkSupport() {
+        // no instances
+    }
+}
@@ -0,0 +1,168 @@
+package teapot.web.filter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CompilerFilter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, FilterChain)} against mock servlet
+ * objects, for requests served from memory and for the first request of a merged file, which compiles it. Every trial works on its own copy of
+ * the project web content.
+ */
+@Fork(1)
+public class CompilerFilterBenchmark {
+    /**
+     * A filter compiling a fresh copy of the web content on the first request of every iteration
+     */
+    @State(Scope.Benchmark)
+    public static class FirstRequest {
+        /**
+         * the compilation level. {@link BenchmarkSupport#NONE} for no compilation level
+         */
+        @Param({ BenchmarkSupport.NONE, "WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS" })
+        public String          level;
+        /**
+         * the filter under measurement
+         */
+        private CompilerFilter filter;
+        /**
+         * the copy of the web content
+         */
+        private Path           webRoot;
+
+        /**
+         * Copies the web content and initializes a new filter, which has not compiled anything yet
+         * @throws Exception if the filter cannot be initialized
+         */
+        @Setup(Level.Iteration)
+        public void setUp()
+        throws Exception {
+            this.webRoot = Files.createTempDirectory("teapot-benchmark"); //$NON-NLS-1$
+            BenchmarkSupport.copyTree(BenchmarkSupport.webContent(), this.webRoot);
+            this.filter = BenchmarkSupport.initFilter(this.webRoot, this.level);
+        }
+
+        /**
+         * Destroys the filter and deletes the copy of the web content
+         * @throws Exception if the copy cannot be deleted
+         */
+        @TearDown(Level.Iteration)
+        public void tearDown()
+        throws Exception {
+            this.filter.destroy();
+            TestSupport.deleteTree(this.webRoot);
+        }
+    }
+
+    /**
+     * A filter which has compiled the merged file already
+     */
+    @State(Scope.Benchmark)
+    public static class Served {
+        /**
+         * the compilation level. {@link BenchmarkSupport#NONE} for no compilation level, in which case every request compiles again
+         */
+        @Param({ BenchmarkSupport.NONE, "SIMPLE_OPTIMIZATIONS" })
+        public String          level;
+        /**
+         * the filter under measurement
+         */
+        private CompilerFilter filter;
+        /**
+         * the copy of the web content
+         */
+        private Path           webRoot;
+
+        /**
+         * Copies the web content, initializes the filter and compiles the merged file with a first request
+         * @throws Exception if the filter cannot be initialized or the compilation fails
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        throws Exception {
+            this.webRoot = Files.createTempDirectory("teapot-benchmark"); //$NON-NLS-1$
+            BenchmarkSupport.copyTree(BenchmarkSupport.webContent(), this.webRoot);
+            this.filter = BenchmarkSupport.initFilter(this.webRoot, this.level);
+            this.filter.doFilter(TestSupport.request(CompilerFilterBenchmark.MERGED_FILE), new TestSupport.Response().proxy,
+                TestSupport.failingChain());
+        }
+
+        /**
+         * Destroys the filter and deletes the copy of the web content
+         * @throws Exception if the copy cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown()
+        throws Exception {
+            this.filter.destroy();
+            TestSupport.deleteTree(this.webRoot);
+        }
+    }
+
+    /**
+     * the context relative path of the merged file requested
+     */
+    static final String                     MERGED_FILE  = "script/all.js"; //$NON-NLS-1$
+    /**
+     * the filter chain of all requests. No benchmarked request may reach it
+     */
+    private static final FilterChain        CHAIN        = TestSupport.failingChain();
+    /**
+     * a request accepting gzip
+     */
+    private static final HttpServletRequest GZIP_REQUEST = TestSupport.request(CompilerFilterBenchmark.MERGED_FILE,
+        new String[] { "Accept-Encoding", "gzip, deflate" }); //$NON-NLS-1$ //$NON-NLS-2$
+
+    /**
+     * Serves the first request of the merged file, which compiles it
+     * @param state the filter which has not compiled the merged file
+     * @return the size of the response body
+     * @throws Exception if the request fails
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public int firstRequest(final FirstRequest state)
+    throws Exception {
+        final TestSupport.Response response = new TestSupport.Response();
+        state.filter.doFilter(CompilerFilterBenchmark.GZIP_REQUEST, response.proxy, CompilerFilterBenchmark.CHAIN);
+        return response.body.size();
+    }
+
+    /**
+     * Serves a request of the compiled merged file
+     * @param state the filter which has compiled the merged file
+     * @return the size of the response body
+     * @throws Exception if the request fails
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public int servedRequest(final Served state)
+    throws Exception {
+        final TestSupport.Response response = new TestSupport.Response();
+        state.filter.doFilter(CompilerFilterBenchmark.GZIP_REQUEST, response.proxy, CompilerFilterBenchmark.CHAIN);
+        return response.body.size();
+    }
+}
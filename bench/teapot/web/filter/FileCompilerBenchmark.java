@@ -0,0 +1,121 @@
+package teapot.web.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Measures the compilers for every compilation level on the project web content: all scripts (including Three.js and jQuery), all
+ * stylesheets and all templates. The compilation cache is not used
+ * @see FileCompiler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileCompilerBenchmark {
+    /**
+     * the compilation level. {@link BenchmarkSupport#NONE} for no compilation level
+     */
+    @Param({ BenchmarkSupport.NONE, "WHITESPACE_ONLY", "SIMPLE_OPTIMIZATIONS", "ADVANCED_OPTIMIZATIONS" })
+    public String            level;
+    /**
+     * the compilation level of the parameter
+     */
+    private CompilationLevel compilationLevel;
+    /**
+     * the merged file written by the compilations
+     */
+    private File             mergedFile;
+    /**
+     * the script files of the web content
+     */
+    private List<Path>       scripts;
+    /**
+     * the stylesheet files of the web content
+     */
+    private List<Path>       styles;
+    /**
+     * the template files of the web content
+     */
+    private List<Path>       templates;
+
+    /**
+     * Compiles all scripts into one file
+     * @return the merged file
+     * @throws IOException if the compilation fails
+     */
+    @Benchmark
+    public File compileJS()
+    throws IOException {
+        FileCompiler.compileJS(this.scripts, this.mergedFile, this.compilationLevel);
+        return this.mergedFile;
+    }
+
+    /**
+     * Compiles all stylesheets into one file
+     * @return the merged file
+     * @throws IOException if the compilation fails
+     */
+    @Benchmark
+    public File compileCSS()
+    throws IOException {
+        FileCompiler.compileCSS(this.styles, this.mergedFile, this.mergedFile.toPath(), this.compilationLevel, 0);
+        return this.mergedFile;
+    }
+
+    /**
+     * Compiles all templates into one file
+     * @return the merged file
+     * @throws IOException if the compilation fails
+     */
+    @Benchmark
+    public File compileTemplates()
+    throws IOException {
+        FileCompiler.compileTemplates(this.templates, this.mergedFile, this.compilationLevel);
+        return this.mergedFile;
+    }
+
+    /**
+     * Finds the input files and creates the merged file
+     * @throws IOException if the web content cannot be read
+     */
+    @Setup
+    public void setUp()
+    throws IOException {
+        final Path webContent = BenchmarkSupport.webContent();
+        this.compilationLevel = BenchmarkSupport.toCompilationLevel(this.level);
+        this.scripts = BenchmarkSupport.findFiles(webContent.resolve("script"), ".js"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.styles = BenchmarkSupport.findFiles(webContent.resolve("styles"), ".gss"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.templates = BenchmarkSupport.findFiles(webContent.resolve("templates"), ".soy"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.mergedFile = Files.createTempFile("teapot-benchmark", ".out").toFile(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Deletes the merged file
+     */
+    @TearDown
+    public void tearDown() {
+        this.mergedFile.delete();
+    }
+}
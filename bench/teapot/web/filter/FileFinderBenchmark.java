@@ -0,0 +1,95 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the search of files on large synthetic trees. The tree has ten sub directories per directory, and alternates script and stylesheet
+ * files, of which the scripts are searched
+ * @see FileFinder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileFinderBenchmark {
+    /**
+     * the number of sub directories of every directory
+     */
+    private static final int FAN_OUT = 10;
+    /**
+     * the number of files in the tree
+     */
+    @Param({ "1000", "10000", "100000" })
+    public int               fileCount;
+    /**
+     * the number of files in every directory
+     */
+    @Param({ "10", "100" })
+    public int               filesPerDirectory;
+    /**
+     * the root of the synthetic tree, used as the context root
+     */
+    private Path             contextRoot;
+
+    /**
+     * Searches all scripts in the tree with a recursive glob pattern
+     * @return the files found
+     * @throws IOException if the search fails
+     */
+    @Benchmark
+    public List<Path> findFiles()
+    throws IOException {
+        final FileFinder fileFinder = new FileFinder("FILE", true); //$NON-NLS-1$
+        fileFinder.setPattern("**.js"); //$NON-NLS-1$
+        return fileFinder.findFiles("tree", this.contextRoot.toString()); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates the synthetic tree
+     * @throws IOException if the tree cannot be created
+     */
+    @Setup
+    public void setUp()
+    throws IOException {
+        this.contextRoot = Files.createTempDirectory("teapot-benchmark"); //$NON-NLS-1$
+        final byte[] content = "var a = 1;\n".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        for (int index = 0; index < this.fileCount; index++) {
+            // the directory of a file is the path of the digits of its directory number, in base FAN_OUT
+            final StringBuilder directory = new StringBuilder("tree"); //$NON-NLS-1$
+            for (int number = index / this.filesPerDirectory; number > 0; number /= FileFinderBenchmark.FAN_OUT) {
+                directory.append('/').append(number % FileFinderBenchmark.FAN_OUT);
+            }
+            final Path parent = Files.createDirectories(this.contextRoot.resolve(directory.toString()));
+            Files.write(parent.resolve("file" + index + (0 == index % 2 ? ".js" : ".gss")), content); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+
+    /**
+     * Deletes the synthetic tree
+     * @throws IOException if the tree cannot be deleted
+     */
+    @TearDown
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.contextRoot);
+    }
+}
@@ -33,4 +33,22 @@ public class Utils {
         final String fileSeparator = Matcher.quoteReplacement(File.separator);
         return path.replaceAll("[/\\\\]+", fileSeparator).replaceAll(fileSeparator + "$|^" + fileSeparator, ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
+
+    /**
+     * Converts the bytes into a lower case hexadecimal string
+     * <p>
+     * <b>Example:</b> if the input is {0x0f, 0xa0}, the output will be &quot;0fa0&quot;
+     * </p>
+     * @param bytes the bytes to convert
+     * @return the hexadecimal string
+     */
+    public static String toHex(final byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+        final char[] hex = new char[bytes.length * 2];
+        for (int index = 0; index < bytes.length; index++) {
+            hex[index * 2] = digits[(bytes[index] >> 4) & 0x0f];
+            hex[index * 2 + 1] = digits[bytes[index] & 0x0f];
+        }
+        return new String(hex);
+    }
 }
@@ -0,0 +1,282 @@
+package teapot.web.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import teapot.common.utils.Utils;
+
+/**
+ * An immutable compiled file held in memory. Small files are kept as heap byte arrays, large files are memory mapped read only. The compressed
+ * variants of the file are created once, when the artifact is created, and are always kept on the heap.
+ * @see ArtifactCache
+ */
+class Artifact {
+    /**
+     * the content of the artifact for every available encoding. The identity content is either a heap buffer or a memory mapped buffer
+     */
+    private final Map<ContentEncoding, ByteBuffer> content;
+    /**
+     * the file type of the artifact
+     */
+    private final FileType                         fileType;
+    /**
+     * the hexadecimal SHA-256 hash of the artifact content
+     */
+    private final String                           hash;
+    /**
+     * the last time the artifact was accessed. Used for evicting the least recently used artifacts
+     */
+    private volatile long                          lastAccess;
+    /**
+     * the total size of all encodings of the artifact in bytes
+     */
+    private final long                             size;
+
+    /**
+     * Reads the compiled file into an artifact. Files larger than the mmap threshold are memory mapped, smaller files are read on the heap
+     * @param path the path of the compiled file
+     * @param fileType the file type of the compiled file
+     * @param mmapThreshold the size in bytes from which the file is memory mapped
+     * @param compressionLevel the level (1-9) used to create the compressed variants. 0 if no compressed variants are to be created
+     * @return the artifact holding the file content
+     * @throws IOException if reading the file fails
+     */
+    static Artifact fromFile(final Path path, final FileType fileType, final long mmapThreshold, final int compressionLevel)
+    throws IOException {
+        final ByteBuffer identity;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < mmapThreshold) {
+                identity = ByteBuffer.wrap(Files.readAllBytes(path));
+            } else {
+                // the mapping stays valid after the channel is closed
+                identity = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+            }
+        }
+        final Map<ContentEncoding, ByteBuffer> content = new EnumMap<>(ContentEncoding.class);
+        content.put(ContentEncoding.IDENTITY, identity);
+        if (compressionLevel > 0) {
+            Artifact.addCompressed(content, ContentEncoding.GZIP, compressionLevel);
+            Artifact.addCompressed(content, ContentEncoding.DEFLATE, compressionLevel);
+        }
+        return new Artifact(fileType, content, Artifact.hash(identity));
+    }
+
+    /**
+     * Compresses the identity content with the encoding and adds it to the content map if the compressed content is smaller
+     * @param content the content map of the artifact
+     * @param encoding the compressed encoding to create
+     * @param compressionLevel the compression level (1-9)
+     * @throws IOException if the compression fails
+     */
+    private static void addCompressed(final Map<ContentEncoding, ByteBuffer> content, final ContentEncoding encoding, final int compressionLevel)
+    throws IOException {
+        final ByteBuffer identity = content.get(ContentEncoding.IDENTITY);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(identity.remaining() / 3 + 64);
+        // GZIPOutputStream ends its own deflater when it is closed, a deflater passed to DeflaterOutputStream has to be ended by the caller
+        final Deflater deflater = ContentEncoding.GZIP == encoding ? null : new Deflater(compressionLevel);
+        try (DeflaterOutputStream out = null == deflater ? new GZIPOutputStream(compressed) {
+            {
+                // GZIPOutputStream always starts with the default level
+                this.def.setLevel(compressionLevel);
+            }
+        } : new DeflaterOutputStream(compressed, deflater)) {
+            Artifact.write(identity, out);
+        } finally {
+            if (null != deflater) {
+                deflater.end();
+            }
+        }
+        // compressing a tiny file can make it larger
+        if (compressed.size() < identity.remaining()) {
+            content.put(encoding, ByteBuffer.wrap(compressed.toByteArray()));
+        }
+    }
+
+    /**
+     * Creates the hexadecimal SHA-256 hash of the buffer without changing the buffer position
+     * @param buffer the buffer to hash
+     * @return the hexadecimal SHA-256 hash
+     */
+    private static String hash(final ByteBuffer buffer) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+            digest.update(buffer.duplicate());
+            return Utils.toHex(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the buffer to the output stream without changing the buffer position
+     * @param buffer the buffer to write
+     * @param out the output stream to write to
+     * @throws IOException if writing fails
+     */
+    private static void write(final ByteBuffer buffer, final OutputStream out)
+    throws IOException {
+        Artifact.write(buffer, out, 0, buffer.remaining());
+    }
+
+    /**
+     * Writes a part of the buffer to the output stream without changing the buffer position. Heap buffers are written from their array and
+     * memory mapped buffers through a channel, so the content is never copied as a whole
+     * @param buffer the buffer to write
+     * @param out the output stream to write to
+     * @param offset the position of the first byte to write, relative to the buffer position
+     * @param length the number of bytes to write
+     * @throws IOException if writing fails
+     */
+    private static void write(final ByteBuffer buffer, final OutputStream out, final long offset, final long length)
+    throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position() + (int) offset, (int) length);
+            return;
+        }
+        // the channel is not closed as closing it would close the output stream
+        final WritableByteChannel channel = Channels.newChannel(out);
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(duplicate.position() + (int) offset);
+        duplicate.limit(duplicate.position() + (int) length);
+        while (duplicate.hasRemaining()) {
+            channel.write(duplicate);
+        }
+    }
+
+    /**
+     * Instantiates Artifact
+     * @param fileType the file type of the artifact
+     * @param content the content of the artifact for every available encoding
+     * @param hash the hexadecimal SHA-256 hash of the artifact content
+     */
+    private Artifact(final FileType fileType, final Map<ContentEncoding, ByteBuffer> content, final String hash) {
+        this.fileType = fileType;
+        this.content = content;
+        this.hash = hash;
+        long totalSize = 0;
+        for (final ByteBuffer buffer : content.values()) {
+            totalSize += buffer.remaining();
+        }
+        this.size = totalSize;
+        this.lastAccess = System.nanoTime();
+    }
+
+    /**
+     * @return the fileType
+     * @see Artifact#fileType
+     */
+    FileType getFileType() {
+        return this.fileType;
+    }
+
+    /**
+     * Returns the strong entity tag of the artifact content in the encoding. Every encoding has its own entity tag
+     * @param encoding the content encoding
+     * @return the quoted entity tag
+     */
+    String getETag(final ContentEncoding encoding) {
+        if (ContentEncoding.IDENTITY == encoding) {
+            return '"' + this.hash + '"';
+        }
+        return '"' + this.hash + '-' + encoding.getToken() + '"';
+    }
+
+    /**
+     * @return the hash
+     * @see Artifact#hash
+     */
+    String getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @return the lastAccess
+     * @see Artifact#lastAccess
+     */
+    long getLastAccess() {
+        return this.lastAccess;
+    }
+
+    /**
+     * Returns the size of the artifact content in the encoding
+     * @param encoding the content encoding
+     * @return the size of the content in bytes
+     */
+    long getLength(final ContentEncoding encoding) {
+        return this.content.get(encoding).remaining();
+    }
+
+    /**
+     * @return the size
+     * @see Artifact#size
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns true if the artifact has compressed variants. Responses for such artifacts vary by the Accept-Encoding header
+     * @return true if the artifact has compressed variants
+     */
+    boolean isCompressed() {
+        return this.content.size() > 1;
+    }
+
+    /**
+     * Picks the encoding to send to a client. If the encoding accepted by the client is not available, the identity encoding is returned
+     * @param acceptEncoding the value of the Accept-Encoding request header. can be null
+     * @return the encoding to send
+     */
+    ContentEncoding selectEncoding(final String acceptEncoding) {
+        final ContentEncoding encoding = ContentEncoding.negotiate(acceptEncoding);
+        return this.content.containsKey(encoding) ? encoding : ContentEncoding.IDENTITY;
+    }
+
+    /**
+     * Marks the artifact as accessed now
+     */
+    void touch() {
+        this.lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Writes the artifact content in the encoding to the output stream without touching the file system
+     * @param out the output stream to write to
+     * @param encoding the content encoding to write
+     * @throws IOException if writing fails
+     */
+    void writeTo(final OutputStream out, final ContentEncoding encoding)
+    throws IOException {
+        Artifact.write(this.content.get(encoding), out);
+    }
+
+    /**
+     * Writes a byte range of the artifact content in the encoding to the output stream without touching the file system
+     * @param out the output stream to write to
+     * @param encoding the content encoding to write
+     * @param offset the position of the first byte to write
+     * @param length the number of bytes to write
+     * @throws IOException if writing fails
+     */
+    void writeTo(final OutputStream out, final ContentEncoding encoding, final long offset, final long length)
+    throws IOException {
+        Artifact.write(this.content.get(encoding), out, offset, length);
+    }
+}
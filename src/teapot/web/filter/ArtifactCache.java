@@ -0,0 +1,155 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A memory cache of compiled artifacts bounded by the total size of the cached artifacts. Lookups do not lock and do not touch the file
+ * system. When the cache grows over its budget, the least recently used artifacts are evicted. Artifacts larger than the budget are kept
+ * apart, out of the budget, so they are not read and compressed again on every request.
+ * @see Artifact
+ * @see CompilerFilter
+ */
+class ArtifactCache {
+    /**
+     * the default budget of the cache in bytes
+     */
+    static final long                             DEFAULT_CACHE_SIZE        = 64L * 1024 * 1024;
+    /**
+     * the default level used to create the compressed variants of the artifacts
+     */
+    static final int                              DEFAULT_COMPRESSION_LEVEL = 9;
+    /**
+     * the default size in bytes from which artifacts are memory mapped
+     */
+    static final long                             DEFAULT_MMAP_THRESHOLD    = 256L * 1024;
+    /**
+     * the LOG object
+     */
+    private static final Logger                   LOG                       = Logger.getLogger(ArtifactCache.class);
+    /**
+     * map of the context relative path and the cached artifact
+     */
+    private final ConcurrentMap<String, Artifact> artifacts;
+    /**
+     * the maximum total size of the cached artifacts in bytes
+     */
+    private final long                            cacheSize;
+    /**
+     * the level (1-9) used to create the compressed variants of the artifacts. 0 if no compressed variants are created
+     */
+    private final int                             compressionLevel;
+    /**
+     * the size in bytes from which artifacts are memory mapped instead of being held on the heap
+     */
+    private final long                            mmapThreshold;
+    /**
+     * map of the context relative path and the artifacts larger than the budget. They are never evicted
+     */
+    private final ConcurrentMap<String, Artifact> oversizedArtifacts;
+    /**
+     * the total size of the cached artifacts in bytes
+     */
+    private final AtomicLong                      totalSize;
+
+    /**
+     * Instantiates ArtifactCache
+     * @param cacheSize the maximum total size of the cached artifacts in bytes
+     * @param mmapThreshold the size in bytes from which artifacts are memory mapped instead of being held on the heap
+     * @param compressionLevel the level (1-9) used to create the compressed variants of the artifacts. 0 if no compressed variants are created
+     */
+    ArtifactCache(final long cacheSize, final long mmapThreshold, final int compressionLevel) {
+        this.artifacts = new ConcurrentHashMap<>();
+        this.cacheSize = cacheSize;
+        this.compressionLevel = compressionLevel;
+        this.mmapThreshold = mmapThreshold;
+        this.oversizedArtifacts = new ConcurrentHashMap<>();
+        this.totalSize = new AtomicLong();
+    }
+
+    /**
+     * Evicts the least recently used artifacts till the cache is within its budget
+     */
+    private void evict() {
+        while (this.totalSize.get() > this.cacheSize) {
+            Map.Entry<String, Artifact> eldest = null;
+            for (final Map.Entry<String, Artifact> entry : this.artifacts.entrySet()) {
+                if (null == eldest || entry.getValue().getLastAccess() < eldest.getValue().getLastAccess()) {
+                    eldest = entry;
+                }
+            }
+            if (null == eldest) {
+                return;
+            }
+            if (this.artifacts.remove(eldest.getKey(), eldest.getValue())) {
+                ArtifactCache.LOG.debug(String.format("evicting '%s' from the artifact cache", eldest.getKey())); //$NON-NLS-1$
+                this.totalSize.addAndGet(-eldest.getValue().getSize());
+            }
+        }
+    }
+
+    /**
+     * Removes the artifact of the path from the budget of the cache
+     * @param path the context relative path of the artifact
+     */
+    private void remove(final String path) {
+        final Artifact removed = this.artifacts.remove(path);
+        if (null != removed) {
+            this.totalSize.addAndGet(-removed.getSize());
+        }
+    }
+
+    /**
+     * Removes all artifacts from the cache
+     */
+    void clear() {
+        this.artifacts.clear();
+        this.oversizedArtifacts.clear();
+        this.totalSize.set(0);
+    }
+
+    /**
+     * Returns the cached artifact for the path
+     * @param path the context relative path of the artifact
+     * @return the cached artifact. null if the artifact is not cached
+     */
+    Artifact get(final String path) {
+        final Artifact artifact = this.artifacts.get(path);
+        if (null != artifact) {
+            artifact.touch();
+            return artifact;
+        }
+        return this.oversizedArtifacts.get(path);
+    }
+
+    /**
+     * Reads the compiled file into an artifact and caches it. The compressed variants of the artifact are created here, once for every
+     * compilation. Artifacts larger than the cache budget are kept out of the budget
+     * @param path the context relative path of the artifact
+     * @param file the compiled file
+     * @param fileType the file type of the compiled file
+     * @return the artifact read
+     * @throws IOException if reading the file fails
+     */
+    Artifact load(final String path, final Path file, final FileType fileType)
+    throws IOException {
+        final Artifact artifact = Artifact.fromFile(file, fileType, this.mmapThreshold, this.compressionLevel);
+        if (artifact.getSize() > this.cacheSize) {
+            ArtifactCache.LOG.warn(String.format("'%s' is larger than the artifact cache. It is kept out of the cache budget", path)); //$NON-NLS-1$
+            this.oversizedArtifacts.put(path, artifact);
+            this.remove(path);
+            return artifact;
+        }
+        this.oversizedArtifacts.remove(path);
+        final Artifact replaced = this.artifacts.put(path, artifact);
+        this.totalSize.addAndGet(artifact.getSize() - (null == replaced ? 0 : replaced.getSize()));
+        this.evict();
+        return artifact;
+    }
+}
@@ -0,0 +1,137 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes compiled artifacts to the responses. The content is written straight from the heap or memory mapped buffer of the artifact with its
+ * exact Content-Length. HEAD requests are answered with the headers only, and a single byte range of the content can be requested with the
+ * Range header, so interrupted downloads of large files can be resumed. Requests for multiple ranges are answered with the whole content
+ * @see Artifact
+ */
+class ArtifactWriter {
+    /**
+     * Checks if the entity tag matches any of the entity tags in the If-None-Match header value. Weak entity tags are compared weakly
+     * @param ifNoneMatch the value of the If-None-Match header. can be null
+     * @param eTag the entity tag of the response
+     * @return true if the entity tag matches
+     */
+    private static boolean matches(final String ifNoneMatch, final String eTag) {
+        if (null == ifNoneMatch) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) { //$NON-NLS-1$
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) { //$NON-NLS-1$
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || eTag.equals(candidate)) { //$NON-NLS-1$
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the Range header value into the byte range to send. Only single byte ranges are supported. Ranges ending after the content are
+     * shortened to the content
+     * @param range the value of the Range header. can be null
+     * @param length the length of the content
+     * @return an array of the first and the last position of the range, both inclusive. null if the whole content has to be sent, i.e. if the
+     *         header is missing, malformed or requests multiple ranges. An empty array if the range cannot be satisfied
+     */
+    static long[] parseRange(final String range, final long length) {
+        if (null == range || !range.startsWith("bytes=") || range.indexOf(',') >= 0) { //$NON-NLS-1$
+            return null;
+        }
+        final String spec = range.substring("bytes=".length()).trim(); //$NON-NLS-1$
+        final int dashIndex = spec.indexOf('-');
+        if (dashIndex < 0) {
+            return null;
+        }
+        final long first;
+        final long last;
+        try {
+            if (0 == dashIndex) {
+                // a suffix range, i.e. the last bytes of the content
+                final long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength <= 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, length - suffixLength);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dashIndex));
+                final long requestedLast = dashIndex == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dashIndex + 1));
+                if (requestedLast < first) {
+                    // a range ending before it starts is malformed
+                    return null;
+                }
+                last = Math.min(length - 1, requestedLast);
+            }
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+        if (first < 0) {
+            return null;
+        }
+        return first >= length ? new long[0] : new long[] { first, last };
+    }
+
+    /**
+     * Writes the artifact to the response, in the best encoding accepted by the client. If the client already has the artifact, as per the
+     * If-None-Match header, only the status 304 is sent. If a byte range is requested, and the If-Range header, if any, matches the entity tag
+     * of the encoding, only the range is sent with the status 206, or the status 416 if it is outside of the content
+     * @param artifact the artifact to write
+     * @param request the request to read the accepted encodings, the conditions and the range from
+     * @param response the response to write to
+     * @throws IOException if writing to the response fails
+     */
+    static void write(final Artifact artifact, final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException {
+        final ContentEncoding encoding = artifact.selectEncoding(request.getHeader("Accept-Encoding")); //$NON-NLS-1$
+        response.setContentType(artifact.getFileType().getContentType());
+        if (artifact.isCompressed()) {
+            // caches have to keep a separate copy for every encoding
+            response.addHeader("Vary", "Accept-Encoding"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        final String eTag = artifact.getETag(encoding);
+        response.setHeader("ETag", eTag); //$NON-NLS-1$
+        if (ArtifactWriter.matches(request.getHeader("If-None-Match"), eTag)) { //$NON-NLS-1$
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (ContentEncoding.IDENTITY != encoding) {
+            response.setHeader("Content-Encoding", encoding.getToken()); //$NON-NLS-1$
+        }
+        response.setHeader("Accept-Ranges", "bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+        final long length = artifact.getLength(encoding);
+        // a range is only sent if the client still has the same content. If-Range dates never match, as no Last-Modified is sent
+        final String ifRange = request.getHeader("If-Range"); //$NON-NLS-1$
+        final long[] range = null == ifRange || eTag.equals(ifRange.trim()) ? ArtifactWriter.parseRange(request.getHeader("Range"), length) //$NON-NLS-1$
+            : null;
+        long offset = 0;
+        long count = length;
+        if (null != range && 0 == range.length) {
+            response.setHeader("Content-Range", "bytes */" + length); //$NON-NLS-1$ //$NON-NLS-2$
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        } else if (null != range) {
+            offset = range[0];
+            count = range[1] - range[0] + 1;
+            response.setHeader("Content-Range", String.format("bytes %d-%d/%d", Long.valueOf(range[0]), Long.valueOf(range[1]), //$NON-NLS-1$ //$NON-NLS-2$
+                Long.valueOf(length)));
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        }
+        response.setHeader("Content-Length", Long.toString(count)); //$NON-NLS-1$
+        if ("HEAD".equals(request.getMethod())) { //$NON-NLS-1$
+            return;
+        }
+        final ServletOutputStream out = response.getOutputStream();
+        artifact.writeTo(out, encoding, offset, count);
+        out.flush();
+    }
+}
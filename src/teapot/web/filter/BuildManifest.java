@@ -0,0 +1,141 @@
+package teapot.web.filter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The manifest of the files compiled offline by the {@link CompilerCli}. Every line holds the context relative path, the file type, the content
+ * type and the hexadecimal SHA-256 hash of a compiled file, separated by tabs. Lines starting with # are comments. The manifest is written to
+ * <i>WEB-INF/teapot-manifest.txt</i> of the compiled context root and loaded by the {@link CompilerFilter} on startup, which then serves the
+ * listed files without compiling them
+ * @see CompilerCli
+ */
+class BuildManifest {
+    /**
+     * A compiled file listed in the manifest
+     */
+    static class Entry {
+        /**
+         * the file type of the compiled file
+         */
+        private final FileType fileType;
+        /**
+         * the hexadecimal SHA-256 hash of the compiled file
+         */
+        private final String   hash;
+
+        /**
+         * Instantiates Entry
+         * @param fileType the file type of the compiled file
+         * @param hash the hexadecimal SHA-256 hash of the compiled file
+         */
+        Entry(final FileType fileType, final String hash) {
+            this.fileType = fileType;
+            this.hash = hash;
+        }
+
+        /**
+         * @return the fileType
+         * @see Entry#fileType
+         */
+        FileType getFileType() {
+            return this.fileType;
+        }
+
+        /**
+         * @return the hash
+         * @see Entry#hash
+         */
+        String getHash() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * the path of the manifest, relative to the context root
+     */
+    static final String              PATH = "WEB-INF/teapot-manifest.txt"; //$NON-NLS-1$
+    /**
+     * map of the context relative paths of the compiled files and their entries, sorted by path
+     */
+    private final Map<String, Entry> entries;
+
+    /**
+     * Reads a manifest
+     * @param file the manifest file
+     * @return the manifest
+     * @throws IOException if the manifest cannot be read or is malformed
+     */
+    static BuildManifest read(final Path file)
+    throws IOException {
+        final BuildManifest manifest = new BuildManifest();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.isEmpty() || line.startsWith("#")) { //$NON-NLS-1$
+                    continue;
+                }
+                final String[] fields = line.split("\t"); //$NON-NLS-1$
+                if (4 != fields.length) {
+                    throw new IOException(String.format("Malformed line in '%s': %s", file, line)); //$NON-NLS-1$
+                }
+                try {
+                    manifest.add(fields[0], FileType.valueOf(fields[1]), fields[3]);
+                } catch (final IllegalArgumentException e) {
+                    throw new IOException(String.format("Unknown file type in '%s': %s", file, line), e); //$NON-NLS-1$
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Instantiates an empty BuildManifest
+     */
+    BuildManifest() {
+        this.entries = new TreeMap<>();
+    }
+
+    /**
+     * Adds a compiled file to the manifest
+     * @param path the context relative path of the compiled file, with forward slashes
+     * @param fileType the file type of the compiled file
+     * @param hash the hexadecimal SHA-256 hash of the compiled file
+     */
+    void add(final String path, final FileType fileType, final String hash) {
+        this.entries.put(path, new Entry(fileType, hash));
+    }
+
+    /**
+     * @return the entries, sorted by path
+     * @see BuildManifest#entries
+     */
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(this.entries);
+    }
+
+    /**
+     * Writes the manifest
+     * @param file the manifest file. Its directory is created if it does not exist
+     * @throws IOException if the manifest cannot be written
+     */
+    void write(final Path file)
+    throws IOException {
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("# path\tfile type\tcontent type\tsha-256\n"); //$NON-NLS-1$
+            for (final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                final FileType fileType = entry.getValue().getFileType();
+                writer.write(String.format("%s\t%s\t%s\t%s\n", entry.getKey(), fileType.name(), fileType.getContentType(), //$NON-NLS-1$
+                    entry.getValue().getHash()));
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The dependency graph of the merged files. The graph is validated when it is created: every dependency has to be a configured merged file and
+ * the dependencies cannot have cycles. The scheduler builds the dependencies of a merged file in topological order, each of them exactly once,
+ * and builds independent dependencies in parallel.
+ * @see CompilerBean
+ * @see ConfigHandler
+ */
+class BuildScheduler {
+    /**
+     * Builds one node of the graph
+     */
+    static interface Builder {
+        /**
+         * Builds the merged file. All dependencies of the file are built when this is called
+         * @param path the context relative path of the merged file
+         * @throws IOException if the build fails
+         */
+        void build(String path)
+        throws IOException;
+    }
+
+    /**
+     * the LOG object
+     */
+    private static final Logger             LOG = Logger.getLogger(BuildScheduler.class);
+    /**
+     * map of the context relative path of each merged file and the paths of all its dependencies, in topological order
+     */
+    private final Map<String, List<String>> buildOrders;
+    /**
+     * map of the context relative path of each merged file and the paths of its direct dependencies
+     */
+    private final Map<String, List<String>> dependencies;
+    /**
+     * the context relative paths of all merged files, in topological order
+     */
+    private final List<String>              topologicalOrder;
+
+    /**
+     * Visits the node and its dependencies depth first and adds them to the build order after their dependencies. Orders the resources of the
+     * {@link ResourceManifest} too
+     * @param path the path of the node to visit
+     * @param dependencies the direct dependencies of all nodes
+     * @param visiting the nodes on the current visit path, used to detect cycles
+     * @param buildOrder the build order to add the nodes to
+     * @throws IllegalArgumentException if the dependencies of the node have a cycle
+     */
+    static void visit(final String path, final Map<String, List<String>> dependencies, final List<String> visiting,
+        final List<String> buildOrder) {
+        if (buildOrder.contains(path)) {
+            return;
+        }
+        if (visiting.contains(path)) {
+            final List<String> cycle = new ArrayList<>(visiting.subList(visiting.indexOf(path), visiting.size()));
+            cycle.add(path);
+            throw new IllegalArgumentException("Dependency cycle: " + cycle); //$NON-NLS-1$
+        }
+        visiting.add(path);
+        for (final String dependency : dependencies.get(path)) {
+            BuildScheduler.visit(dependency, dependencies, visiting, buildOrder);
+        }
+        visiting.remove(visiting.size() - 1);
+        buildOrder.add(path);
+    }
+
+    /**
+     * Instantiates BuildScheduler and validates the dependency graph
+     * @param compilerBeanMap map of the context relative path of each merged file and its compiler bean
+     * @throws IllegalArgumentException if a dependency is not a configured merged file or the dependencies have a cycle
+     */
+    BuildScheduler(final Map<String, CompilerBean> compilerBeanMap) {
+        this.dependencies = new HashMap<>();
+        for (final Map.Entry<String, CompilerBean> entry : compilerBeanMap.entrySet()) {
+            final List<String> beanDependencies = entry.getValue().getDependencies();
+            for (final String dependency : beanDependencies) {
+                if (!compilerBeanMap.containsKey(dependency)) {
+                    throw new IllegalArgumentException(String.format("'%s' depends on '%s', which is not configured", //$NON-NLS-1$
+                        entry.getKey(), dependency));
+                }
+            }
+            this.dependencies.put(entry.getKey(), Collections.unmodifiableList(beanDependencies));
+        }
+        this.topologicalOrder = new ArrayList<>();
+        for (final String path : this.dependencies.keySet()) {
+            BuildScheduler.visit(path, this.dependencies, new ArrayList<String>(), this.topologicalOrder);
+        }
+        this.buildOrders = new HashMap<>();
+        for (final String path : this.dependencies.keySet()) {
+            final List<String> buildOrder = new ArrayList<>();
+            BuildScheduler.visit(path, this.dependencies, new ArrayList<String>(), buildOrder);
+            // the node itself is the last one in its build order
+            buildOrder.remove(buildOrder.size() - 1);
+            this.buildOrders.put(path, Collections.unmodifiableList(buildOrder));
+        }
+    }
+
+    /**
+     * Builds all dependencies of the merged file, direct and transitive, and waits for them to finish. Every dependency is built exactly once and
+     * only after all of its own dependencies are built. Dependencies which do not depend on each other are built in parallel on the executor.
+     * A build may wait for a compilation of the same file running on another thread, which may itself wait for builds queued on the executor,
+     * so the executor has to be a fork join pool if the builder blocks that way (see {@link SingleFlightCompiler}): a bounded thread pool can
+     * run out of threads and deadlock
+     * @param path the context relative path of the merged file
+     * @param builder the builder used to build each dependency
+     * @param executor the executor to run the builds on
+     * @throws IOException if any of the builds fails
+     */
+    void buildDependencies(final String path, final Builder builder, final Executor executor)
+    throws IOException {
+        final List<String> buildOrder = this.getBuildOrder(path);
+        if (buildOrder.isEmpty()) {
+            return;
+        }
+        BuildScheduler.LOG.debug(String.format("building dependencies of '%s': %s", path, buildOrder)); //$NON-NLS-1$
+        // count the dependencies every node waits for, and the nodes waiting for every node
+        final Map<String, AtomicInteger> pendingDependencies = new LinkedHashMap<>();
+        final Map<String, List<String>> dependents = new HashMap<>();
+        for (final String node : buildOrder) {
+            pendingDependencies.put(node, new AtomicInteger(this.dependencies.get(node).size()));
+            dependents.put(node, new ArrayList<String>());
+        }
+        for (final String node : buildOrder) {
+            for (final String dependency : this.dependencies.get(node)) {
+                dependents.get(dependency).add(node);
+            }
+        }
+        final CountDownLatch pending = new CountDownLatch(buildOrder.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // a node is submitted by the last of its dependencies to finish
+        final Map<String, Runnable> tasks = new HashMap<>();
+        for (final String node : buildOrder) {
+            tasks.put(node, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (null == failure.get()) {
+                            builder.build(node);
+                        }
+                    } catch (final Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        for (final String dependent : dependents.get(node)) {
+                            if (0 == pendingDependencies.get(dependent).decrementAndGet()) {
+                                executor.execute(tasks.get(dependent));
+                            }
+                        }
+                        pending.countDown();
+                    }
+                }
+            });
+        }
+        for (final Map.Entry<String, AtomicInteger> entry : pendingDependencies.entrySet()) {
+            if (0 == entry.getValue().get()) {
+                executor.execute(tasks.get(entry.getKey()));
+            }
+        }
+        try {
+            pending.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building dependencies of " + path); //$NON-NLS-1$
+        }
+        final Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else if (null != cause) {
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns all dependencies of the merged file, direct and transitive, in the order they have to be built
+     * @param path the context relative path of the merged file
+     * @return the dependencies in topological order. Empty if the path is not a merged file
+     */
+    List<String> getBuildOrder(final String path) {
+        final List<String> buildOrder = this.buildOrders.get(path);
+        return null == buildOrder ? Collections.<String> emptyList() : buildOrder;
+    }
+
+    /**
+     * Returns the merged files and all the merged files depending on them, directly or transitively, in the order they have to be built
+     * @param paths the context relative paths of the merged files
+     * @return the merged files and their dependents in topological order
+     */
+    List<String> getDependents(final Collection<String> paths) {
+        final Set<String> affected = new HashSet<>(paths);
+        final List<String> dependents = new ArrayList<>();
+        // in topological order, a file is reached only after all of its dependencies
+        for (final String path : this.topologicalOrder) {
+            if (!affected.contains(path)) {
+                for (final String dependency : this.dependencies.get(path)) {
+                    if (affected.contains(dependency)) {
+                        affected.add(path);
+                        break;
+                    }
+                }
+            }
+            if (affected.contains(path)) {
+                dependents.add(path);
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Returns the direct dependencies of the merged file
+     * @param path the context relative path of the merged file
+     * @return the direct dependencies. Empty if the path is not a merged file
+     */
+    List<String> getDependencies(final String path) {
+        final List<String> pathDependencies = this.dependencies.get(path);
+        return null == pathDependencies ? Collections.<String> emptyList() : pathDependencies;
+    }
+}
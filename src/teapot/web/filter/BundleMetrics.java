@@ -0,0 +1,156 @@
+package teapot.web.filter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The compile metrics of a merged file or an atomically compiled file. Every compilation is recorded as a whole, so the values of the last
+ * compilation are always consistent with each other
+ * @see CompileMetrics
+ */
+class BundleMetrics
+implements BundleMetricsMBean {
+    /**
+     * the number of compilations restored from the compilation cache
+     */
+    private long                   cacheHits;
+    /**
+     * the number of compilations not found in the compilation cache
+     */
+    private long                   cacheMisses;
+    /**
+     * the number of compilations
+     */
+    private long                   compileCount;
+    /**
+     * the number of failed compilations
+     */
+    private long                   failureCount;
+    /**
+     * the sample of the last compilation
+     */
+    private CompileMetrics.Sample  last;
+    /**
+     * the time the last compilation took in nanoseconds
+     */
+    private long                   lastTotalNanos;
+    /**
+     * the time all compilations took in nanoseconds
+     */
+    private long                   totalNanos;
+    /**
+     * the time all compilations spent finding, fetching and compiling the included files in nanoseconds, i.e. without waiting for the
+     * compilations of the dependencies
+     */
+    private long                   workNanos;
+
+    /**
+     * Instantiates BundleMetrics
+     */
+    BundleMetrics() {
+        this.last = new CompileMetrics.Sample(null);
+    }
+
+    @Override
+    public synchronized long getCacheHits() {
+        return this.cacheHits;
+    }
+
+    @Override
+    public synchronized long getCacheMisses() {
+        return this.cacheMisses;
+    }
+
+    @Override
+    public synchronized long getCompileCount() {
+        return this.compileCount;
+    }
+
+    @Override
+    public synchronized long getFailureCount() {
+        return this.failureCount;
+    }
+
+    @Override
+    public synchronized long getLastCompileMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.last.compileNanos);
+    }
+
+    @Override
+    public synchronized long getLastDiscoveryMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.last.discoveryNanos);
+    }
+
+    @Override
+    public synchronized long getLastErrors() {
+        return this.last.errors;
+    }
+
+    @Override
+    public synchronized long getLastFetchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.last.fetchNanos);
+    }
+
+    @Override
+    public synchronized long getLastInputBytes() {
+        return this.last.inputBytes;
+    }
+
+    @Override
+    public synchronized long getLastOutputBytes() {
+        return this.last.outputBytes;
+    }
+
+    @Override
+    public synchronized long getLastTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastTotalNanos);
+    }
+
+    @Override
+    public synchronized long getLastWarnings() {
+        return this.last.warnings;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalNanos);
+    }
+
+    /**
+     * @return the workNanos
+     * @see BundleMetrics#workNanos
+     */
+    synchronized long getWorkNanos() {
+        return this.workNanos;
+    }
+
+    /**
+     * Records a compilation
+     * @param sample the metrics collected while compiling
+     * @param elapsedNanos the time the compilation took in nanoseconds
+     * @param failed true if the compilation failed
+     */
+    synchronized void record(final CompileMetrics.Sample sample, final long elapsedNanos, final boolean failed) {
+        this.compileCount++;
+        if (failed) {
+            this.failureCount++;
+        }
+        if (Boolean.TRUE.equals(sample.cacheHit)) {
+            this.cacheHits++;
+        } else if (Boolean.FALSE.equals(sample.cacheHit)) {
+            this.cacheMisses++;
+        }
+        this.totalNanos += elapsedNanos;
+        this.workNanos += sample.discoveryNanos + sample.fetchNanos + sample.compileNanos;
+        this.lastTotalNanos = elapsedNanos;
+        this.last = sample;
+    }
+
+    /**
+     * @return the metrics of the file, in the order written by {@link CompileMetrics#writeTo(java.io.Writer)}
+     */
+    synchronized long[] toArray() {
+        return new long[] { this.getCompileCount(), this.getFailureCount(), this.getCacheHits(), this.getCacheMisses(), this.getTotalMillis(),
+            this.getLastTotalMillis(), this.getLastDiscoveryMillis(), this.getLastFetchMillis(), this.getLastCompileMillis(),
+            this.getLastInputBytes(), this.getLastOutputBytes(), this.getLastWarnings(), this.getLastErrors() };
+    }
+}
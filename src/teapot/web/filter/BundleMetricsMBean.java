@@ -0,0 +1,73 @@
+package teapot.web.filter;
+
+/**
+ * The compile metrics of a merged file or an atomically compiled file, as exposed through JMX. Times are in milliseconds, sizes in bytes. The
+ * values prefixed with last are of the last compilation
+ * @see CompileMetrics
+ */
+public interface BundleMetricsMBean {
+    /**
+     * @return the number of compilations restored from the compilation cache
+     */
+    long getCacheHits();
+
+    /**
+     * @return the number of compilations not found in the compilation cache
+     */
+    long getCacheMisses();
+
+    /**
+     * @return the number of compilations
+     */
+    long getCompileCount();
+
+    /**
+     * @return the number of failed compilations
+     */
+    long getFailureCount();
+
+    /**
+     * @return the time spent running the compilers
+     */
+    long getLastCompileMillis();
+
+    /**
+     * @return the time spent finding the included files
+     */
+    long getLastDiscoveryMillis();
+
+    /**
+     * @return the number of errors reported by the compilers
+     */
+    long getLastErrors();
+
+    /**
+     * @return the time spent fetching the files included with the HTTP protocol
+     */
+    long getLastFetchMillis();
+
+    /**
+     * @return the total size of the included files
+     */
+    long getLastInputBytes();
+
+    /**
+     * @return the size of the compiled file
+     */
+    long getLastOutputBytes();
+
+    /**
+     * @return the time the compilation took, including the discovery, the fetches and the compilers
+     */
+    long getLastTotalMillis();
+
+    /**
+     * @return the number of warnings reported by the compilers
+     */
+    long getLastWarnings();
+
+    /**
+     * @return the time all compilations took
+     */
+    long getTotalMillis();
+}
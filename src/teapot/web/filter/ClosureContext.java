@@ -0,0 +1,99 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.SourceFile;
+
+/**
+ * The state shared by all closure compilations. The default externs are unzipped from the compiler jar and read only once, and are then handed
+ * to every compilation from memory. The compiler and its options are created for every compilation, as they keep the state of a single
+ * compilation and are cheap to create compared to reading the externs.
+ * @see FileCompiler
+ */
+class ClosureContext {
+    /**
+     * the LOG object
+     */
+    private static final Logger       LOG = Logger.getLogger(ClosureContext.class);
+    /**
+     * the default externs read in memory. null till they are first used
+     */
+    private volatile List<SourceFile> externs;
+    /**
+     * the time in nanoseconds taken to read the default externs
+     */
+    private long                      externsLoadTime;
+    /**
+     * the number of compilations which reused the externs
+     */
+    private final AtomicLong          reuseCount;
+
+    /**
+     * Instantiates ClosureContext
+     */
+    ClosureContext() {
+        this.reuseCount = new AtomicLong();
+    }
+
+    /**
+     * Reads the default externs in memory
+     * @return the default externs
+     * @throws IOException if the externs cannot be read
+     */
+    private synchronized List<SourceFile> loadExterns()
+    throws IOException {
+        if (null != this.externs) {
+            return this.externs;
+        }
+        final long start = System.nanoTime();
+        final List<SourceFile> loadedExterns = new ArrayList<>();
+        for (final SourceFile extern : CommandLineRunner.getDefaultExterns()) {
+            // the externs read from the jar are read again on every access of their code
+            loadedExterns.add(SourceFile.fromCode(extern.getName(), extern.getCode()));
+        }
+        this.externsLoadTime = System.nanoTime() - start;
+        this.externs = Collections.unmodifiableList(loadedExterns);
+        ClosureContext.LOG.info(String.format("read %d default externs in %d ms", Integer.valueOf(loadedExterns.size()), //$NON-NLS-1$
+            Long.valueOf(TimeUnit.NANOSECONDS.toMillis(this.externsLoadTime))));
+        return this.externs;
+    }
+
+    /**
+     * Creates the compiler options for a compilation
+     * @param compilationLevel the compilation level
+     * @return new compiler options for the compilation level
+     */
+    CompilerOptions createOptions(final CompilationLevel compilationLevel) {
+        final CompilerOptions options = new CompilerOptions();
+        compilationLevel.setOptionsForCompilationLevel(options);
+        return options;
+    }
+
+    /**
+     * Returns the default externs for a compilation. The externs are read on the first call and shared by all later calls
+     * @return the default externs
+     * @throws IOException if the externs cannot be read
+     */
+    List<SourceFile> getExterns()
+    throws IOException {
+        final List<SourceFile> sharedExterns = this.externs;
+        if (null == sharedExterns) {
+            return this.loadExterns();
+        }
+        final long reused = this.reuseCount.incrementAndGet();
+        ClosureContext.LOG.debug(String.format("reusing the default externs. %d ms saved, %d ms saved in total", //$NON-NLS-1$
+            Long.valueOf(TimeUnit.NANOSECONDS.toMillis(this.externsLoadTime)),
+            Long.valueOf(TimeUnit.NANOSECONDS.toMillis(reused * this.externsLoadTime))));
+        return sharedExterns;
+    }
+}
@@ -0,0 +1,186 @@
+package teapot.web.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import teapot.common.utils.Utils;
+
+import com.google.common.css.compiler.commandline.ClosureCommandLineCompiler;
+import com.google.javascript.jscomp.CompilationLevel;
+import com.google.javascript.jscomp.Compiler;
+import com.google.template.soy.SoyFileSet;
+
+/**
+ * A content addressed cache of compiled files on the disk, which survives restarts of the application. A compiled file is stored under the hash
+ * of everything its content depends on: the content of the input files, the file type, the compilation level (which decides the compiler
+ * options) and the versions of the compilers. When the cache grows over its size, the least recently used files are deleted.
+ * @see FileCompiler
+ */
+class CompilationCache {
+    /**
+     * the default maximum size of the cache in bytes
+     */
+    static final long           DEFAULT_SIZE     = 256L * 1024 * 1024;
+    /**
+     * the LOG object
+     */
+    private static final Logger LOG              = Logger.getLogger(CompilationCache.class);
+    /**
+     * the versions of the compilers. A new compiler version invalidates all cached files
+     */
+    private static final String COMPILER_VERSION = String.format("closure:%s;stylesheets:%s;soy:%s", //$NON-NLS-1$
+                                                     Compiler.getReleaseVersion(),
+                                                     ClosureCommandLineCompiler.class.getPackage().getImplementationVersion(),
+                                                     SoyFileSet.class.getPackage().getImplementationVersion());
+    /**
+     * the extension of the cached files
+     */
+    private static final String EXTENSION        = ".out"; //$NON-NLS-1$
+    /**
+     * the directory holding the cached files
+     */
+    private final Path          directory;
+    /**
+     * the maximum size of the cache in bytes
+     */
+    private final long          size;
+
+    /**
+     * Creates the cache key of a compilation
+     * @param fileType the type of the compiled file
+     * @param compilationLevel the compilation level. can be null
+     * @param includedFiles the input files of the compilation, in the order they are compiled
+     * @return the hexadecimal cache key
+     * @throws IOException if an input file cannot be read
+     */
+    static String getKey(final FileType fileType, final CompilationLevel compilationLevel, final List<Path> includedFiles)
+    throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+        } catch (final NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(String.format("%s|%s|%s|%d", CompilationCache.COMPILER_VERSION, fileType, compilationLevel, //$NON-NLS-1$
+            Integer.valueOf(includedFiles.size())).getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (final Path includedFile : includedFiles) {
+            try (FileChannel channel = FileChannel.open(includedFile, StandardOpenOption.READ)) {
+                // the length keeps the boundaries of the files apart
+                digest.update(ByteBuffer.wrap(Long.toString(channel.size()).getBytes(StandardCharsets.UTF_8)));
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        return Utils.toHex(digest.digest());
+    }
+
+    /**
+     * Instantiates CompilationCache
+     * @param directory the directory holding the cached files. It is created if it does not exist
+     * @param size the maximum size of the cache in bytes
+     * @throws IOException if the directory cannot be created
+     */
+    CompilationCache(final Path directory, final long size)
+    throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.size = size;
+        CompilationCache.LOG.info(String.format("using the compilation cache in '%s'", directory)); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the least recently used files till the cache is within its size
+     * @throws IOException if the directory cannot be listed
+     */
+    private void cleanUp()
+    throws IOException {
+        final List<File> files = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, '*' + CompilationCache.EXTENSION)) {
+            for (final Path path : stream) {
+                files.add(path.toFile());
+                totalSize += path.toFile().length();
+            }
+        }
+        if (totalSize <= this.size) {
+            return;
+        }
+        // a cached file is touched every time it is used
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File first, final File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (final File file : files) {
+            if (totalSize <= this.size) {
+                break;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                CompilationCache.LOG.debug(String.format("deleting '%s' from the compilation cache", file.getName())); //$NON-NLS-1$
+                totalSize -= length;
+            }
+        }
+    }
+
+    /**
+     * Copies the cached file of the key to the output file, if there is one
+     * @param key the cache key of the compilation
+     * @param output the file to copy the cached file to
+     * @return true if the cached file was copied. false if the compilation is not cached
+     * @throws IOException if copying the file fails
+     */
+    boolean restore(final String key, final Path output)
+    throws IOException {
+        final Path cachedFile = this.directory.resolve(key + CompilationCache.EXTENSION);
+        if (!Files.isRegularFile(cachedFile)) {
+            return false;
+        }
+        Files.copy(cachedFile, output, StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(cachedFile, FileTime.fromMillis(System.currentTimeMillis()));
+        CompilationCache.LOG.debug(String.format("'%s' restored from the compilation cache", output)); //$NON-NLS-1$
+        return true;
+    }
+
+    /**
+     * Stores the compiled file under the key and deletes the least recently used files if the cache grows over its size. The file is written
+     * under a temporary name and moved in place, so concurrent readers never see a partial file
+     * @param key the cache key of the compilation
+     * @param output the compiled file
+     * @throws IOException if copying the file fails
+     */
+    void store(final String key, final Path output)
+    throws IOException {
+        final Path temporaryFile = Files.createTempFile(this.directory, key, ".tmp"); //$NON-NLS-1$
+        try {
+            Files.copy(output, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporaryFile, this.directory.resolve(key + CompilationCache.EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        this.cleanUp();
+    }
+}
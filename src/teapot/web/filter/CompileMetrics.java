@@ -0,0 +1,358 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Collects the compile metrics of every merged file and atomically compiled file. The metrics of a file are registered as a JMX MBean named
+ * <i>teapot:type=CompileMetrics,context=&lt;context path&gt;,bundle=&lt;file path&gt;</i>, and all metrics are written as plain text by the
+ * {@link MetricsServlet}. The steps of a compilation record their metrics into the sample of the thread running the compilation, which is
+ * recorded as a whole once the compilation finishes. Steps running without a sample, e.g. in benchmarks, are not recorded
+ * @see BundleMetrics
+ */
+class CompileMetrics {
+    /**
+     * The metrics collected while compiling a file. A sample is only modified by the thread running the compilation
+     */
+    static class Sample {
+        /**
+         * true if the compilation was restored from the compilation cache. null if the compilation cache was not used
+         */
+        Boolean      cacheHit;
+        /**
+         * the time spent running the compilers in nanoseconds
+         */
+        long         compileNanos;
+        /**
+         * the time spent finding the included files in nanoseconds
+         */
+        long         discoveryNanos;
+        /**
+         * the number of errors reported by the compilers
+         */
+        long         errors;
+        /**
+         * the time spent fetching the files included with the HTTP protocol in nanoseconds
+         */
+        long         fetchNanos;
+        /**
+         * the total size of the included files
+         */
+        long         inputBytes;
+        /**
+         * the size of the compiled file
+         */
+        long         outputBytes;
+        /**
+         * the sample of the compilation this compilation is nested in, i.e. of the merged file depending on the file. null if the compilation is
+         * not nested
+         */
+        final Sample previous;
+        /**
+         * the number of warnings reported by the compilers
+         */
+        long         warnings;
+
+        /**
+         * Instantiates Sample
+         * @param previous the sample of the compilation this compilation is nested in. can be null
+         */
+        Sample(final Sample previous) {
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * name of the servlet context attribute holding the metrics
+     */
+    private static final String                        ATTRIBUTE_NAME = CompileMetrics.class.getName();
+    /**
+     * the sample of the compilation running on the current thread
+     */
+    private static final ThreadLocal<Sample>           CURRENT        = new ThreadLocal<>();
+    /**
+     * the name, type and description of the metrics written as plain text, in the order of {@link BundleMetrics#toArray()}
+     */
+    private static final String[][]                    FAMILIES       = {
+        { "teapot_compilations_total", "counter", "the number of compilations" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_compilation_failures_total", "counter", "the number of failed compilations" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_cache_hits_total", "counter", "the number of compilations restored from the compilation cache" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_cache_misses_total", "counter", "the number of compilations not found in the compilation cache" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_compilation_milliseconds_total", "counter", "the time all compilations took" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_total_milliseconds", "gauge", "the time the last compilation took" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_discovery_milliseconds", "gauge", "the time the last compilation spent finding the included files" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_fetch_milliseconds", "gauge", "the time the last compilation spent fetching remote files" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_compile_milliseconds", "gauge", "the time the last compilation spent running the compilers" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_input_bytes", "gauge", "the total size of the files included by the last compilation" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_output_bytes", "gauge", "the size of the file compiled by the last compilation" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_warnings", "gauge", "the number of warnings reported by the last compilation" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        { "teapot_last_errors", "gauge", "the number of errors reported by the last compilation" } }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    /**
+     * the LOG object
+     */
+    private static final Logger                        LOG            = Logger.getLogger(CompileMetrics.class);
+    /**
+     * map of the context relative paths of the compiled files and their metrics
+     */
+    private final ConcurrentMap<String, BundleMetrics> bundleMetrics;
+    /**
+     * the context path of the application, distinguishing the MBeans of applications sharing the MBean server
+     */
+    private final String                               contextPath;
+    /**
+     * the MBean server the metrics are registered with
+     */
+    private final MBeanServer                          mBeanServer;
+
+    /**
+     * Adds to the time the current compilation spent running the compilers
+     * @param nanos the time in nanoseconds
+     */
+    static void addCompileTime(final long nanos) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.compileNanos += nanos;
+        }
+    }
+
+    /**
+     * Adds to the time the current compilation spent finding the included files
+     * @param nanos the time in nanoseconds
+     */
+    static void addDiscoveryTime(final long nanos) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.discoveryNanos += nanos;
+        }
+    }
+
+    /**
+     * Adds to the time the current compilation spent fetching the files included with the HTTP protocol
+     * @param nanos the time in nanoseconds
+     */
+    static void addFetchTime(final long nanos) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.fetchNanos += nanos;
+        }
+    }
+
+    /**
+     * Adds to the size of the files included by the current compilation
+     * @param bytes the size in bytes
+     */
+    static void addInputBytes(final long bytes) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.inputBytes += bytes;
+        }
+    }
+
+    /**
+     * Adds to the number of warnings and errors reported to the current compilation
+     * @param warnings the number of warnings
+     * @param errors the number of errors
+     */
+    static void addIssues(final int warnings, final int errors) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.warnings += warnings;
+            sample.errors += errors;
+        }
+    }
+
+    /**
+     * Returns the metrics of the application
+     * @param servletContext the servlet context of the application
+     * @return the metrics of the application. null if the {@link CompilerFilter} is not initialized
+     */
+    static CompileMetrics fromServletContext(final ServletContext servletContext) {
+        return (CompileMetrics) servletContext.getAttribute(CompileMetrics.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Escapes a label value of the plain text format
+     * @param value the label value
+     * @return the escaped label value
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    }
+
+    /**
+     * Records whether the current compilation was restored from the compilation cache
+     * @param cacheHit true if the compilation was restored
+     */
+    static void setCacheHit(final boolean cacheHit) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.cacheHit = Boolean.valueOf(cacheHit);
+        }
+    }
+
+    /**
+     * Records the size of the file compiled by the current compilation
+     * @param bytes the size in bytes
+     */
+    static void setOutputBytes(final long bytes) {
+        final Sample sample = CompileMetrics.CURRENT.get();
+        if (null != sample) {
+            sample.outputBytes = bytes;
+        }
+    }
+
+    /**
+     * Instantiates CompileMetrics
+     * @param contextPath the context path of the application
+     */
+    CompileMetrics(final String contextPath) {
+        this.contextPath = contextPath;
+        this.bundleMetrics = new ConcurrentHashMap<>();
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    }
+
+    /**
+     * Returns the name of the MBean of a compiled file
+     * @param filePath the context relative path of the compiled file
+     * @return the name of the MBean
+     * @throws JMException if the name is malformed
+     */
+    private ObjectName getObjectName(final String filePath)
+    throws JMException {
+        return new ObjectName(String.format("teapot:type=CompileMetrics,context=%s,bundle=%s", ObjectName.quote(this.contextPath), //$NON-NLS-1$
+            ObjectName.quote(filePath)));
+    }
+
+    /**
+     * Unregisters the MBeans of all compiled files
+     */
+    void close() {
+        for (final String filePath : this.bundleMetrics.keySet()) {
+            try {
+                this.mBeanServer.unregisterMBean(this.getObjectName(filePath));
+            } catch (final JMException e) {
+                CompileMetrics.LOG.warn(String.format("Error unregistering the metrics of '%s'", filePath), e); //$NON-NLS-1$
+            }
+        }
+        this.bundleMetrics.clear();
+    }
+
+    /**
+     * Returns the metrics of a compiled file. The metrics are created and registered as an MBean on the first call
+     * @param filePath the context relative path of the compiled file
+     * @return the metrics of the file
+     */
+    BundleMetrics get(final String filePath) {
+        final BundleMetrics metrics = this.bundleMetrics.get(filePath);
+        if (null != metrics) {
+            return metrics;
+        }
+        final BundleMetrics created = new BundleMetrics();
+        final BundleMetrics existing = this.bundleMetrics.putIfAbsent(filePath, created);
+        if (null != existing) {
+            return existing;
+        }
+        try {
+            this.mBeanServer.registerMBean(new StandardMBean(created, BundleMetricsMBean.class), this.getObjectName(filePath));
+        } catch (final JMException e) {
+            // the metrics are still available as plain text
+            CompileMetrics.LOG.warn(String.format("Error registering the metrics of '%s'", filePath), e); //$NON-NLS-1$
+        }
+        return created;
+    }
+
+    /**
+     * Returns the time all compilations of all files spent finding, fetching and compiling their included files. The compilations of shared
+     * dependencies are counted once, and the time spent waiting for them is not counted
+     * @return the time in nanoseconds
+     */
+    long getWorkNanos() {
+        long workNanos = 0;
+        for (final BundleMetrics metrics : this.bundleMetrics.values()) {
+            workNanos += metrics.getWorkNanos();
+        }
+        return workNanos;
+    }
+
+    /**
+     * Runs a compilation with a sample of its own and records the sample in the metrics of the compiled file. Compilations nested in the
+     * compilation, e.g. of the dependencies of a merged file, are recorded separately
+     * @param <T> the type of the compilation result
+     * @param filePath the context relative path of the compiled file
+     * @param compilation the compilation
+     * @return the result of the compilation
+     * @throws Exception if the compilation fails
+     */
+    <T> T measure(final String filePath, final Callable<T> compilation)
+    throws Exception {
+        final Sample sample = new Sample(CompileMetrics.CURRENT.get());
+        CompileMetrics.CURRENT.set(sample);
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final T result = compilation.call();
+            failed = false;
+            return result;
+        } finally {
+            final long elapsed = System.nanoTime() - start;
+            if (null == sample.previous) {
+                CompileMetrics.CURRENT.remove();
+            } else {
+                CompileMetrics.CURRENT.set(sample.previous);
+            }
+            this.get(filePath).record(sample, elapsed, failed);
+        }
+    }
+
+    /**
+     * Publishes the metrics as a servlet context attribute
+     * @param servletContext the servlet context of the application
+     */
+    void publish(final ServletContext servletContext) {
+        servletContext.setAttribute(CompileMetrics.ATTRIBUTE_NAME, this);
+    }
+
+    /**
+     * Removes the metrics from the servlet context attributes
+     * @param servletContext the servlet context of the application
+     */
+    void unpublish(final ServletContext servletContext) {
+        servletContext.removeAttribute(CompileMetrics.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Writes the metrics of all compiled files in the plain text exposition format of Prometheus, one line per metric and file, sorted by the
+     * file paths
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(final Writer writer)
+    throws IOException {
+        final Map<String, long[]> values = new TreeMap<>();
+        for (final Map.Entry<String, BundleMetrics> entry : this.bundleMetrics.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().toArray());
+        }
+        for (int index = 0; index < CompileMetrics.FAMILIES.length; index++) {
+            final String[] family = CompileMetrics.FAMILIES[index];
+            writer.write(String.format("# HELP %s %s\n# TYPE %s %s\n", family[0], family[2], family[0], family[1])); //$NON-NLS-1$
+            for (final Map.Entry<String, long[]> entry : values.entrySet()) {
+                writer.write(String.format("%s{bundle=\"%s\"} %d\n", family[0], CompileMetrics.escape(entry.getKey()), //$NON-NLS-1$
+                    Long.valueOf(entry.getValue()[index])));
+            }
+        }
+    }
+}
@@ -2,11 +2,21 @@ package teapot.web.filter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -23,36 +33,123 @@ class CompilerBean {
     /**
      * the LOG object
      */
-    private static final Logger    LOG = Logger.getLogger(CompilerBean.class);
+    private static final Logger     LOG = Logger.getLogger(CompilerBean.class);
     /**
      * base directory for the search
      */
-    private String                 baseDirectory;
+    private String                  baseDirectory;
+    /**
+     * the chunks of the merged script, in the order they are declared. Empty if the merged file is not split into chunks
+     */
+    private final List<ScriptChunk> chunks;
     /**
      * Compilation Level for the file merge
      */
-    private CompilationLevel       compilationLevel;
+    private CompilationLevel        compilationLevel;
     /**
      * dependency string passed on to the bean from xml
      */
-    private String                 dependencies;
+    private String                  dependencies;
+    /**
+     * the index of the files in the base directory
+     */
+    private DirectoryIndex          directoryIndex;
     /**
      * File type for the merger
      * @see FileType
      */
-    private final FileType         fileType;
+    private final FileType          fileType;
+    /**
+     * the size in bytes up to which the resources used by stylesheets are inlined as data uris. 0 if no resource is inlined
+     */
+    private long                    inlineThreshold;
+    /**
+     * the files included in the last merge
+     */
+    private volatile List<Path>     inputFiles;
+    /**
+     * comma separated list of the merged files the pages load before this one, without being compiled before it
+     */
+    private String                  loadAfter;
     /**
      * the directory to put the merged file in
      */
-    private String                 mergeDirectory;
+    private String                  mergeDirectory;
     /**
      * Name of the merged file to be created
      */
-    private String                 name;
+    private String                  name;
+    /**
+     * fetches the files included with the HTTP protocol. null to download them on every merge
+     */
+    private RemoteFetcher           remoteFetcher;
     /**
      * variable to store search pattern for including and excluding files<br/>
      */
-    private final List<FileFinder> searchPatterns;
+    private final List<FileFinder>  searchPatterns;
+    /**
+     * resolves the files included with the SERVER protocol
+     */
+    private ServerDispatcher        serverDispatcher;
+
+    /**
+     * Deletes the temporary files of a merge. A file which cannot be deleted is logged and left behind
+     * @param temporaryFiles the temporary files
+     */
+    private static void deleteFiles(final List<Path> temporaryFiles) {
+        for (final Path temporaryFile : temporaryFiles) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (final IOException e) {
+                CompilerBean.LOG.warn(String.format("Deleting the temporary file '%s' failed", temporaryFile), e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Checks if any of the search patterns searches the base directory
+     * @param searchPatterns the search patterns of the merged file or of a chunk
+     * @return true if any of the search patterns has the FILE protocol
+     */
+    private static boolean hasFilePatterns(final List<FileFinder> searchPatterns) {
+        for (final FileFinder searchPattern : searchPatterns) {
+            if (FileFinder.Protocol.FILE == searchPattern.getProtocol()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the files included by several chunks, or by a chunk and the merged file, into the merged file, i.e. the root chunk all chunks
+     * depend on, so that every file is compiled once
+     * @param includedFiles the files of the merged file. The shared files are added to them
+     * @param chunkFiles map of the names of the chunks and their files. The shared files are removed from them
+     */
+    private static void shareFiles(final List<Path> includedFiles, final Map<String, List<Path>> chunkFiles) {
+        final Set<Path> chunkedFiles = new HashSet<>();
+        final Set<Path> sharedFiles = new HashSet<>(includedFiles);
+        for (final List<Path> files : chunkFiles.values()) {
+            for (final Path file : files) {
+                if (!chunkedFiles.add(file)) {
+                    sharedFiles.add(file);
+                }
+            }
+        }
+        final Set<Path> rootFiles = new LinkedHashSet<>(includedFiles);
+        for (final Map.Entry<String, List<Path>> entry : chunkFiles.entrySet()) {
+            for (final Iterator<Path> iterator = entry.getValue().iterator(); iterator.hasNext();) {
+                final Path file = iterator.next();
+                if (sharedFiles.contains(file)) {
+                    CompilerBean.LOG.debug(String.format("moving '%s' of the chunk '%s' to the shared chunk", file, entry.getKey())); //$NON-NLS-1$
+                    rootFiles.add(file);
+                    iterator.remove();
+                }
+            }
+        }
+        includedFiles.clear();
+        includedFiles.addAll(rootFiles);
+    }
 
     /**
      * Constructor function. Instantiates FileMerger with values
@@ -68,6 +165,28 @@ class CompilerBean {
         this.mergeDirectory = mergeDirectory;
         this.fileType = fileType;
         this.searchPatterns = new ArrayList<>();
+        this.chunks = new ArrayList<>();
+        this.inputFiles = Collections.emptyList();
+    }
+
+    /**
+     * @return the baseDirectory
+     * @see CompilerBean#baseDirectory
+     */
+    public String getBaseDirectory() {
+        return this.baseDirectory;
+    }
+
+    /**
+     * Returns the context relative paths of the files of the chunks, next to the merged file
+     * @return the context relative paths of the files of the chunks, in the order the chunks are declared
+     */
+    public List<String> getChunkFiles() {
+        final List<String> chunkFiles = new ArrayList<>(this.chunks.size());
+        for (final ScriptChunk chunk : this.chunks) {
+            chunkFiles.add(Utils.sanitizePath(this.mergeDirectory + File.separator + chunk.getFileName(this.name)));
+        }
+        return chunkFiles;
     }
 
     /**
@@ -78,6 +197,22 @@ class CompilerBean {
         return this.compilationLevel;
     }
 
+    /**
+     * @return the fileType
+     * @see CompilerBean#fileType
+     */
+    public FileType getFileType() {
+        return this.fileType;
+    }
+
+    /**
+     * @return the inputFiles
+     * @see CompilerBean#inputFiles
+     */
+    public List<Path> getInputFiles() {
+        return this.inputFiles;
+    }
+
     /**
      * Returns the context relative merged file path
      * @return the context relative merged file path
@@ -86,6 +221,19 @@ class CompilerBean {
         return Utils.sanitizePath(this.mergeDirectory + File.separator + this.name);
     }
 
+    /**
+     * Returns true if any of the files of the bean is fetched with the SERVER protocol. Such beans can only be compiled while serving a request
+     * @return true if any of the files of the bean is fetched with the SERVER protocol
+     */
+    public boolean isServerDependent() {
+        for (final FileFinder searchPattern : this.getAllSearchPatterns()) {
+            if (FileFinder.Protocol.SERVER == searchPattern.getProtocol()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * @param baseDirectory the baseDirectory to set
      * @see CompilerBean#baseDirectory
@@ -94,6 +242,14 @@ class CompilerBean {
         this.baseDirectory = baseDirectory;
     }
 
+    /**
+     * @param directoryIndex the directoryIndex to set
+     * @see CompilerBean#directoryIndex
+     */
+    public void setDirectoryIndex(final DirectoryIndex directoryIndex) {
+        this.directoryIndex = directoryIndex;
+    }
+
     /**
      * @param mergeDirectory the mergeDirectory to set
      * @see CompilerBean#mergeDirectory
@@ -103,32 +259,217 @@ class CompilerBean {
     }
 
     /**
-     * Includes the files identified by the search pattern from aggregation
+     * @param remoteFetcher the remoteFetcher to set
+     * @see CompilerBean#remoteFetcher
+     */
+    public void setRemoteFetcher(final RemoteFetcher remoteFetcher) {
+        this.remoteFetcher = remoteFetcher;
+    }
+
+    /**
+     * @param serverDispatcher the serverDispatcher to set
+     * @see CompilerBean#serverDispatcher
+     */
+    public void setServerDispatcher(final ServerDispatcher serverDispatcher) {
+        this.serverDispatcher = serverDispatcher;
+    }
+
+    /**
+     * Includes the files identified by the search patterns from aggregation
      * @param contextPath the context path used for searching the files
-     * @param localhostUrlPrefix the localhost url prefix
-     * @throws IOException if the {@link FileFinder#findFiles(String, String, String)} throws an IOException
+     * @param searchPatterns the search patterns of the merged file or of a chunk
+     * @param temporaryFiles the list the temporary files of the urls fetched without the {@link RemoteFetcher} are added to. They have to be
+     *            deleted by the caller once merged
+     * @throws IOException if the {@link FileFinder#findFiles(String, String)} throws an IOException, or a file included with the SERVER protocol
+     *             is not dispatched yet
      * @return the list of files to be included for compilation
      */
-    private List<Path> findFilesFromPattern(final String contextPath, final String localhostUrlPrefix)
+    private List<Path> findFiles(final String contextPath, final List<FileFinder> searchPatterns, final List<Path> temporaryFiles)
     throws IOException {
-        final List<Path> fileList = new ArrayList<>();
-        List<Path> listPerIteration;
-        for (final FileFinder searchPattern : this.searchPatterns) {
-            if (searchPattern.isInclude()) {
-                listPerIteration = searchPattern.findFiles(this.baseDirectory, contextPath, localhostUrlPrefix);
-                // if the files are not in the file list, include it
-                for (final Path onePath : listPerIteration) {
-                    if (!fileList.contains(onePath)) {
-                        fileList.add(onePath);
+        // the files included by every include pattern, in the order of the patterns
+        final List<List<Path>> includedFiles = new ArrayList<>(searchPatterns.size());
+        final List<URL> remoteUrls = new ArrayList<>();
+        // the time spent fetching remote files is recorded apart from the time spent finding the local ones
+        final long start = System.nanoTime();
+        long fetchTime = 0;
+        for (final FileFinder searchPattern : searchPatterns) {
+            includedFiles.add(new ArrayList<Path>());
+            if (FileFinder.Protocol.HTTP == searchPattern.getProtocol() && searchPattern.isInclude() && null != this.remoteFetcher) {
+                remoteUrls.add(new URL(searchPattern.getFileName()));
+            } else if (FileFinder.Protocol.SERVER == searchPattern.getProtocol() && searchPattern.isInclude()) {
+                // the output of the dispatched file. no other pattern can match it
+                includedFiles.get(includedFiles.size() - 1).add(this.serverDispatcher.getFile(this.getServerPath(searchPattern)));
+            } else if (FileFinder.Protocol.HTTP == searchPattern.getProtocol() && searchPattern.isInclude()) {
+                // the fetched files are new files. no other pattern can match them
+                final long fetchStart = System.nanoTime();
+                final List<Path> fetchedFiles = searchPattern.findFiles(this.baseDirectory, contextPath);
+                temporaryFiles.addAll(fetchedFiles);
+                includedFiles.get(includedFiles.size() - 1).addAll(fetchedFiles);
+                fetchTime += System.nanoTime() - fetchStart;
+            }
+        }
+        if (!remoteUrls.isEmpty()) {
+            // fetch all remote files in parallel
+            final long fetchStart = System.nanoTime();
+            final Iterator<Path> remoteFiles = this.remoteFetcher.fetchAll(remoteUrls).iterator();
+            fetchTime += System.nanoTime() - fetchStart;
+            for (int index = 0; index < searchPatterns.size(); index++) {
+                final FileFinder searchPattern = searchPatterns.get(index);
+                if (FileFinder.Protocol.HTTP == searchPattern.getProtocol() && searchPattern.isInclude()) {
+                    includedFiles.get(index).add(remoteFiles.next());
+                }
+            }
+        }
+        // match all patterns on the indexed files in a single pass. As the patterns are applied in order, a file is included by the first include
+        // pattern matching it after the last exclude pattern matching it
+        final Path directory = Paths.get(contextPath, this.baseDirectory);
+        if (CompilerBean.hasFilePatterns(searchPatterns)) {
+            for (final Path relativePath : this.directoryIndex.getFiles(directory)) {
+                int includedBy = -1;
+                for (int index = 0; index < searchPatterns.size(); index++) {
+                    final FileFinder searchPattern = searchPatterns.get(index);
+                    if (FileFinder.Protocol.FILE != searchPattern.getProtocol() || !searchPattern.matches(relativePath)) {
+                        continue;
+                    }
+                    if (!searchPattern.isInclude()) {
+                        includedBy = -1;
+                    } else if (includedBy < 0) {
+                        includedBy = index;
                     }
                 }
-            } else {
-                listPerIteration = searchPattern.findFiles(this.baseDirectory, contextPath, localhostUrlPrefix);
-                // remove the files found
-                fileList.removeAll(listPerIteration);
+                if (includedBy >= 0) {
+                    includedFiles.get(includedBy).add(directory.resolve(relativePath));
+                }
             }
         }
-        return fileList;
+        final Set<Path> fileList = new LinkedHashSet<>();
+        for (final List<Path> files : includedFiles) {
+            fileList.addAll(files);
+        }
+        CompileMetrics.addFetchTime(fetchTime);
+        CompileMetrics.addDiscoveryTime(System.nanoTime() - start - fetchTime);
+        return new ArrayList<>(fileList);
+    }
+
+    /**
+     * Includes the files identified by the search pattern from aggregation
+     * @param contextPath the context path used for searching the files
+     * @param temporaryFiles the list the temporary files to delete once merged are added to
+     * @throws IOException if the {@link FileFinder#findFiles(String, String)} throws an IOException, or a file included with the SERVER protocol
+     *             is not dispatched yet
+     * @return the list of files to be included for compilation
+     */
+    private List<Path> findFilesFromPattern(final String contextPath, final List<Path> temporaryFiles)
+    throws IOException {
+        return this.findFiles(contextPath, this.searchPatterns, temporaryFiles);
+    }
+
+    /**
+     * Returns the search patterns of the merged file and of all its chunks
+     * @return the search patterns
+     */
+    private List<FileFinder> getAllSearchPatterns() {
+        final List<FileFinder> searchPatterns = new ArrayList<>(this.searchPatterns);
+        for (final ScriptChunk chunk : this.chunks) {
+            searchPatterns.addAll(chunk.getSearchPatterns());
+        }
+        return searchPatterns;
+    }
+
+    /**
+     * Returns the context relative path of a file included with the SERVER protocol
+     * @param searchPattern the search pattern including the file
+     * @return the context relative path, starting with a slash
+     */
+    private String getServerPath(final FileFinder searchPattern) {
+        return "/" + Utils.constructUrl(this.baseDirectory, searchPattern.getFileName()); //$NON-NLS-1$
+    }
+
+    /**
+     * Compiles the merged file and its chunks together. The chunks are not kept in the compilation cache
+     * @param contextPath the context path of the application
+     * @param includedFiles the files of the merged file
+     * @param mergedFile the merged file. The files of the chunks are written next to it
+     * @param temporaryFiles the list the temporary files to delete once merged are added to
+     * @throws IOException if file reading/writing fails
+     */
+    private void mergeChunks(final String contextPath, final List<Path> includedFiles, final File mergedFile,
+        final List<Path> temporaryFiles)
+    throws IOException {
+        final Map<String, List<Path>> chunkFiles = new LinkedHashMap<>();
+        final Set<Path> inputFiles = new LinkedHashSet<>(includedFiles);
+        for (final ScriptChunk chunk : this.chunks) {
+            final List<Path> files = this.findFiles(contextPath, chunk.getSearchPatterns(), temporaryFiles);
+            chunkFiles.put(chunk.getName(), files);
+            inputFiles.addAll(files);
+        }
+        CompilerBean.shareFiles(includedFiles, chunkFiles);
+        CompilerBean.LOG.debug(String.format("files to be compiled: %s, chunks: %s", includedFiles, chunkFiles)); //$NON-NLS-1$
+        this.inputFiles = Collections.unmodifiableList(new ArrayList<>(inputFiles));
+        FileCompiler.compileChunks(includedFiles, mergedFile, this.chunks, chunkFiles, this.compilationLevel);
+    }
+
+    /**
+     * Adds a chunk to the merged script
+     * @param chunk the chunk
+     * @throws IllegalArgumentException if a chunk of the same name is already added, or the chunk depends on a chunk not added before it
+     */
+    void addChunk(final ScriptChunk chunk) {
+        final Set<String> names = new HashSet<>();
+        for (final ScriptChunk added : this.chunks) {
+            names.add(added.getName());
+        }
+        if (null == chunk.getName() || names.contains(chunk.getName())) {
+            throw new IllegalArgumentException(String.format("'%s' has no or several chunks named '%s'", this.getMergedFile(), chunk.getName())); //$NON-NLS-1$
+        }
+        for (final String dependency : chunk.getDependencies()) {
+            if (!names.contains(dependency)) {
+                throw new IllegalArgumentException(String.format("the chunk '%s' of '%s' depends on '%s', which is not declared before it", //$NON-NLS-1$
+                    chunk.getName(), this.getMergedFile(), dependency));
+            }
+        }
+        this.chunks.add(chunk);
+    }
+
+    /**
+     * Adds a file search pattern in the compiler. File search patterns are used to search and compile the files at runtime
+     * @param fileFinder the object specifying the file finder pattern
+     */
+    void addSearchPattern(final FileFinder fileFinder) {
+        this.searchPatterns.add(fileFinder);
+    }
+
+    /**
+     * Creates a clone of the current compiler bean with values of compression, baseDir, mergeDir, fileType and inlineThreshold copied
+     * @return a new CompilerBean
+     */
+    CompilerBean createFromTemplate() {
+        final CompilerBean bean = new CompilerBean(this.compilationLevel, this.baseDirectory, this.mergeDirectory, this.fileType);
+        bean.setInlineThreshold(this.inlineThreshold);
+        return bean;
+    }
+
+    /**
+     * Returns the context relative paths of the files a chunk has to be loaded after: the merged file, i.e. the root chunk, and the files of the
+     * chunks it depends on
+     * @param chunkFile the context relative path of the file of the chunk
+     * @return the context relative paths of the files the chunk depends on. Empty if the file is not a chunk of the merged file
+     */
+    List<String> getChunkDependencies(final String chunkFile) {
+        final Map<String, String> files = new LinkedHashMap<>();
+        for (final ScriptChunk chunk : this.chunks) {
+            final String file = Utils.sanitizePath(this.mergeDirectory + File.separator + chunk.getFileName(this.name));
+            files.put(chunk.getName(), file);
+            if (file.equals(chunkFile)) {
+                final List<String> dependencies = new ArrayList<>();
+                dependencies.add(this.getMergedFile());
+                for (final String dependency : chunk.getDependencies()) {
+                    dependencies.add(files.get(dependency));
+                }
+                return dependencies;
+            }
+        }
+        return Collections.emptyList();
     }
 
     /**
@@ -136,10 +477,10 @@ class CompilerBean {
      * @return the list of path dependencies
      * @see CompilerBean#dependencies
      */
-    private List<String> pathDependencies() {
+    List<String> getDependencies() {
         final List<String> dependencyList = new ArrayList<>();
         if (null == this.dependencies) {
-            return new ArrayList<>();
+            return dependencyList;
         }
         final String[] dependencyArray = this.dependencies.split(XMLAttributes.DEPENDENCY_REGEX);
         for (final String dependency : dependencyArray) {
@@ -149,62 +490,100 @@ class CompilerBean {
     }
 
     /**
-     * Adds a file search pattern in the compiler. File search patterns are used to search and compile the files at runtime
-     * @param fileFinder the object specifying the file finder pattern
+     * Returns the merged files the pages have to load before this one: its dependencies, and the files it is loaded after without depending on
+     * them to compile
+     * @return the context relative paths of the merged files
+     * @see CompilerBean#loadAfter
      */
-    void addSearchPattern(final FileFinder fileFinder) {
-        this.searchPatterns.add(fileFinder);
+    List<String> getLoadDependencies() {
+        final List<String> loadDependencies = this.getDependencies();
+        if (null != this.loadAfter) {
+            for (final String file : this.loadAfter.split(XMLAttributes.DEPENDENCY_REGEX)) {
+                loadDependencies.add(Utils.sanitizePath(file));
+            }
+        }
+        return loadDependencies;
     }
 
     /**
-     * Creates a clone of the current compiler bean with values of compression, baseDir, mergeDir and fileType copied
-     * @return a new CompilerBean
+     * Returns the context relative paths of the files included with the SERVER protocol. They have to be dispatched by the
+     * {@link ServerDispatcher} before the bean is merged
+     * @return the context relative paths, starting with a slash
      */
-    CompilerBean createFromTemplate() {
-        return new CompilerBean(this.compilationLevel, this.baseDirectory, this.mergeDirectory, this.fileType);
+    List<String> getServerPaths() {
+        final List<String> serverPaths = new ArrayList<>();
+        for (final FileFinder searchPattern : this.getAllSearchPatterns()) {
+            if (FileFinder.Protocol.SERVER == searchPattern.getProtocol() && searchPattern.isInclude()) {
+                serverPaths.add(this.getServerPath(searchPattern));
+            }
+        }
+        return serverPaths;
     }
 
     /**
-     * Does a final aggregation of files to create a new file. Calls FileCompiler functions when required.
-     * @param compilerBeanMap the compilerBeanMap to resolve dependencies
+     * Does a final aggregation of files to create a new file. Calls FileCompiler functions when required. The dependencies of the bean have to be
+     * built before calling this function
      * @param contextPath the context path of the application
-     * @param localhostUrlPrefix the url prefix for localhost
+     * @param compilationCache the compilation cache. null if compilations are not cached
+     * @param output the stream to write the merged file to while it is written. can be null
      * @return The final merged file type
      * @see FileCompiler
+     * @see BuildScheduler
      * @throws IOException if file reading/writing fails
      */
-    FileType merge(final Map<String, CompilerBean> compilerBeanMap, final String contextPath, final String localhostUrlPrefix)
+    FileType merge(final String contextPath, final CompilationCache compilationCache, final OutputStream output)
     throws IOException {
-        // recursively resolve dependencies if there are any
-        final List<String> dependencyList = this.pathDependencies();
-        for (final String dependency : dependencyList) {
-            CompilerBean.LOG.debug("resolving dependency on :" + dependency); //$NON-NLS-1$
-            compilerBeanMap.get(dependency).merge(compilerBeanMap, contextPath, localhostUrlPrefix);
-        }
         final File mergedFile = Paths.get(contextPath, this.mergeDirectory, this.name).toFile();
         CompilerBean.LOG.debug("destination: " + mergedFile); //$NON-NLS-1$
-        mergedFile.delete();
+        // the merged file and the chunks are written into the indexed directories. they must not invalidate the listings
+        this.directoryIndex.addOutput(mergedFile.toPath());
+        for (final String chunkFile : this.getChunkFiles()) {
+            this.directoryIndex.addOutput(Paths.get(contextPath, chunkFile));
+        }
         mergedFile.getParentFile().mkdirs();
-        mergedFile.createNewFile();
-        // use the search pattern to get the list of included and excluded files
-        final List<Path> includedFiles = this.findFilesFromPattern(contextPath, localhostUrlPrefix);
-        CompilerBean.LOG.debug("files to be compiled: " + includedFiles); //$NON-NLS-1$
-        // if the debug mode is set, no compression is needed. combine all the files into one file
-        switch (this.fileType) {
-        case STYLE:
-            FileCompiler.compileCSS(includedFiles, mergedFile, this.compilationLevel);
-            break;
-        case SCRIPT:
-            FileCompiler.compileJS(includedFiles, mergedFile, this.compilationLevel);
-            break;
-        case TEMPLATE:
-            FileCompiler.compileTemplates(includedFiles, mergedFile, this.compilationLevel);
-            break;
-        default:
-            // impossible case. Do nothing here
-            break;
+        final List<Path> temporaryFiles = new ArrayList<>();
+        try {
+            // use the search pattern to get the list of included and excluded files
+            final List<Path> includedFiles = this.findFilesFromPattern(contextPath, temporaryFiles);
+            if (!this.chunks.isEmpty()) {
+                // the merged file and the chunks are moved in place once compiled
+                this.mergeChunks(contextPath, includedFiles, mergedFile, temporaryFiles);
+                if (null != output) {
+                    Files.copy(mergedFile.toPath(), output);
+                }
+                return this.fileType;
+            }
+            CompilerBean.LOG.debug("files to be compiled: " + includedFiles); //$NON-NLS-1$
+            this.inputFiles = Collections.unmodifiableList(includedFiles);
+            // the file is written under a temporary name and moved in place, so requests never read a partly written file. the former merged
+            // file is served meanwhile
+            final Path temporaryFile = FileCompiler.createTemporaryFile(mergedFile);
+            temporaryFiles.add(temporaryFile);
+            // if the debug mode is set, no compression is needed. combine all the files into one file
+            FileCompiler.compile(this.fileType, includedFiles, temporaryFile.toFile(), mergedFile.toPath(), this.compilationLevel,
+                this.inlineThreshold, compilationCache, output);
+            Files.move(temporaryFile, mergedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return this.fileType;
+        } finally {
+            CompilerBean.deleteFiles(temporaryFiles);
+        }
+    }
+
+    /**
+     * Merges the included files into a draft of the merged file, without optimizations: scripts are merged statically and templates are compiled
+     * without the closure compiler. Drafts are neither cached nor kept as input files
+     * @param contextPath the real path of the context root
+     * @param draftFile the file to merge the draft into
+     * @throws IOException if merging fails
+     */
+    void mergeDraft(final String contextPath, final Path draftFile)
+    throws IOException {
+        final List<Path> temporaryFiles = new ArrayList<>();
+        try {
+            FileCompiler.compile(this.fileType, this.findFilesFromPattern(contextPath, temporaryFiles), draftFile.toFile(), null, 0, null, null);
+        } finally {
+            CompilerBean.deleteFiles(temporaryFiles);
         }
-        return this.fileType;
     }
 
     /**
@@ -224,6 +603,22 @@ class CompilerBean {
         this.dependencies = dependency;
     }
 
+    /**
+     * @param inlineThreshold the inlineThreshold to set
+     * @see CompilerBean#inlineThreshold
+     */
+    void setInlineThreshold(final long inlineThreshold) {
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    /**
+     * @param loadAfter the comma separated list of the merged files the pages load before this one
+     * @see CompilerBean#loadAfter
+     */
+    void setLoadAfter(final String loadAfter) {
+        this.loadAfter = loadAfter;
+    }
+
     /**
      * @param name the name to set
      * @see CompilerBean#name
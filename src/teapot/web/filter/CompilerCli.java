@@ -0,0 +1,260 @@
+package teapot.web.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Compiles the merged files and the static resources of a context root offline, so the application serves them without compiling anything on
+ * startup or on the first requests. Run it as
+ *
+ * <pre>
+ * java teapot.web.filter.CompilerCli &lt;context root&gt; &lt;compiler configuration&gt; &lt;output directory&gt;
+ * </pre>
+ *
+ * The context root is copied to the output directory and compiled there, so the sources are never replaced. The output directory cannot be
+ * the context root or contain it. Every merged file is merged, in the order of its dependencies, and if the configuration has a compilation
+ * level, every script, style and template is replaced by its compiled version. The compiled files are listed in the {@link BuildManifest},
+ * which is loaded by the {@link CompilerFilter} of the deployed output directory. Merged files including files with the SERVER protocol
+ * need a running application and are left for the filter to compile
+ * @see BuildManifest
+ */
+public class CompilerCli {
+    /**
+     * the LOG object
+     */
+    private static final Logger LOG = Logger.getLogger(CompilerCli.class);
+    /**
+     * the configuration of the merged files
+     */
+    private final ConfigHandler configHandler;
+    /**
+     * the directory the files are compiled in
+     */
+    private final Path          contextRoot;
+    /**
+     * the number of files which could not be compiled
+     */
+    private int                 failures;
+    /**
+     * the manifest of the compiled files
+     */
+    private final BuildManifest manifest;
+
+    /**
+     * Copies a directory tree, except the target itself if it is inside the source
+     * @param source the directory to copy
+     * @param target the directory to copy to
+     * @throws IOException if copying fails
+     */
+    private static void copy(final Path source, final Path target)
+    throws IOException {
+        CompilerCli.LOG.info(String.format("copying '%s' to '%s'", source, target)); //$NON-NLS-1$
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes)
+            throws IOException {
+                if (directory.equals(target)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(target.resolve(source.relativize(directory).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+            throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Compiles a context root
+     * @param args the context root, the compiler configuration file and the output directory
+     * @throws Exception if the configuration cannot be read, or the context root cannot be copied
+     */
+    public static void main(final String[] args)
+    throws Exception {
+        if (3 != args.length) {
+            System.err.println("usage: CompilerCli <context root> <compiler configuration> <output directory>"); //$NON-NLS-1$
+            System.exit(2);
+        }
+        final Path source = Paths.get(args[0]).toAbsolutePath().normalize();
+        final Path contextRoot = Paths.get(args[2]).toAbsolutePath().normalize();
+        // the files are compiled in place in the output directory, which would replace the sources
+        if (source.startsWith(contextRoot)) {
+            System.err.println(String.format("the output directory '%s' cannot contain the context root", contextRoot)); //$NON-NLS-1$
+            System.exit(2);
+        }
+        BasicConfigurator.configure();
+        CompilerCli.copy(source, contextRoot);
+        final ConfigHandler configHandler = new ConfigHandler();
+        SAXParserFactory.newInstance().newSAXParser().parse(new File(args[1]), configHandler);
+        final CompilerCli cli = new CompilerCli(contextRoot, configHandler);
+        cli.run();
+        System.exit(0 == cli.failures ? 0 : 1);
+    }
+
+    /**
+     * Instantiates CompilerCli
+     * @param contextRoot the directory the files are compiled in
+     * @param configHandler the configuration of the merged files
+     */
+    CompilerCli(final Path contextRoot, final ConfigHandler configHandler) {
+        this.contextRoot = contextRoot;
+        this.configHandler = configHandler;
+        this.manifest = new BuildManifest();
+    }
+
+    /**
+     * Compiles the static resources which are not merged files with the compilation level of the configuration, replacing them
+     * @param mergedFiles the context relative paths of the merged files
+     * @throws IOException if the context root cannot be walked
+     */
+    private void compileAtomic(final Set<String> mergedFiles)
+    throws IOException {
+        final CompilationLevel compilationLevel = this.configHandler.getRootCompilationLevel();
+        if (null == compilationLevel) {
+            CompilerCli.LOG.info("no compilation level is configured. The static resources are compiled on every request"); //$NON-NLS-1$
+            return;
+        }
+        final List<Path> resources = new ArrayList<>();
+        Files.walkFileTree(this.contextRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path directory, final BasicFileAttributes attributes) {
+                // the private directories are not served
+                final String name = String.valueOf(directory.getFileName());
+                return "WEB-INF".equals(name) || "META-INF".equals(name) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE; //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                if (null != FileType.fromPath(file) && !mergedFiles.contains(CompilerCli.this.getContextPath(file))) {
+                    resources.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (final Path resource : resources) {
+            final FileType fileType = FileType.fromPath(resource);
+            // the source is kept next to the resource while it is compiled, so the references of styles resolve the same
+            final Path source = Files.createTempFile(resource.getParent(), resource.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+            try {
+                Files.copy(resource, source, StandardCopyOption.REPLACE_EXISTING);
+                FileCompiler.compile(fileType, Collections.singletonList(source), resource.toFile(), compilationLevel, 0, null, null);
+                this.register(resource, fileType);
+            } catch (final IOException | RuntimeException e) {
+                this.failures++;
+                CompilerCli.LOG.error(String.format("Error compiling '%s'. It is compiled on its first request", resource), e); //$NON-NLS-1$
+                Files.copy(source, resource, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(source);
+            }
+        }
+    }
+
+    /**
+     * Returns the context relative path of a file, with forward slashes
+     * @param file the file in the context root
+     * @return the context relative path
+     */
+    private String getContextPath(final Path file) {
+        return this.contextRoot.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Merges all merged files in the order of their dependencies. Merged files including files with the SERVER protocol, and the files
+     * depending on them, are skipped
+     * @return the context relative paths of the merged files
+     * @throws IOException if the remote files cannot be cached
+     */
+    private Set<String> merge()
+    throws IOException {
+        final Map<String, CompilerBean> compilerBeanMap = this.configHandler.toCompilerBeanMap();
+        final BuildScheduler buildScheduler = this.configHandler.getBuildScheduler();
+        final Set<String> mergedFiles = new HashSet<>();
+        final Set<String> skipped = new HashSet<>();
+        try (RemoteFetcher remoteFetcher = new RemoteFetcher(Paths.get(System.getProperty("java.io.tmpdir"), "teapot-remote-cache"), //$NON-NLS-1$ //$NON-NLS-2$
+            this.configHandler.getConnectTimeout(), this.configHandler.getReadTimeout())) {
+            for (final String path : buildScheduler.getDependents(compilerBeanMap.keySet())) {
+                final CompilerBean bean = compilerBeanMap.get(path);
+                mergedFiles.add(path.replace(File.separatorChar, '/'));
+                for (final String chunkFile : bean.getChunkFiles()) {
+                    mergedFiles.add(chunkFile.replace(File.separatorChar, '/'));
+                }
+                bean.setRemoteFetcher(remoteFetcher);
+                boolean serverDependent = bean.isServerDependent();
+                for (final String dependency : buildScheduler.getDependencies(path)) {
+                    serverDependent |= skipped.contains(dependency);
+                }
+                if (serverDependent) {
+                    skipped.add(path);
+                    CompilerCli.LOG.info(String.format("'%s' depends on server files. It is compiled on its first request", path)); //$NON-NLS-1$
+                    continue;
+                }
+                CompilerCli.LOG.info(String.format("merging '%s'", path)); //$NON-NLS-1$
+                try {
+                    this.register(this.contextRoot.resolve(path), bean.merge(this.contextRoot.toString(), null, null));
+                    for (final String chunkFile : bean.getChunkFiles()) {
+                        this.register(this.contextRoot.resolve(chunkFile), FileType.SCRIPT);
+                    }
+                } catch (final IOException | RuntimeException e) {
+                    this.failures++;
+                    skipped.add(path);
+                    CompilerCli.LOG.error(String.format("Error merging '%s'. It is compiled on its first request", path), e); //$NON-NLS-1$
+                }
+            }
+        }
+        return mergedFiles;
+    }
+
+    /**
+     * Adds a compiled file to the manifest
+     * @param file the compiled file
+     * @param fileType the file type of the compiled file
+     * @throws IOException if the compiled file cannot be read
+     */
+    private void register(final Path file, final FileType fileType)
+    throws IOException {
+        this.manifest.add(this.getContextPath(file), fileType, Artifact.fromFile(file, fileType, Long.MAX_VALUE, 0).getHash());
+    }
+
+    /**
+     * Compiles the merged files and the static resources and writes the manifest
+     * @throws IOException if the context root cannot be walked or the manifest cannot be written
+     */
+    void run()
+    throws IOException {
+        final long start = System.nanoTime();
+        final Set<String> mergedFiles = this.merge();
+        this.compileAtomic(mergedFiles);
+        final Path manifestFile = this.contextRoot.resolve(BuildManifest.PATH);
+        this.manifest.write(manifestFile);
+        CompilerCli.LOG.info(String.format("compiled %d files in %d ms, %d failed. The manifest is written to '%s'", //$NON-NLS-1$
+            Integer.valueOf(this.manifest.getEntries().size()), Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)),
+            Integer.valueOf(this.failures), manifestFile));
+    }
+}
@@ -1,16 +1,38 @@
 package teapot.web.filter;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -60,26 +82,150 @@ import com.google.javascript.jscomp.CompilationLevel;
  */
 public class CompilerFilter
 implements Filter {
+    /**
+     * the default number of compilations waiting for a compile thread at most
+     */
+    static final int                                    DEFAULT_COMPILE_QUEUE = 64;
     /**
      * the LOG object
      */
-    private static final Logger       LOG = Logger.getLogger(CompilerFilter.class);
+    private static final Logger                         LOG                   = Logger.getLogger(CompilerFilter.class);
+    /**
+     * Keeps the compiled files in memory for serving
+     */
+    private ArtifactCache                               artifactCache;
+    /**
+     * Runs the builds of independent dependencies in parallel
+     */
+    private ExecutorService                             buildExecutor;
+    /**
+     * the dependency graph of the merged files
+     */
+    private BuildScheduler                              buildScheduler;
     /**
      * This string represents the local path of the context root. It is used to remove and revert all compilation changes on server shutdown
      */
-    private String                    basePath;
+    private String                                      basePath;
+    /**
+     * map of the context relative paths of the chunks of the merged scripts and of the merged files they are compiled with
+     */
+    private Map<String, String>                         chunkFiles;
+    /**
+     * Caches the compiled files on the disk across restarts. null if compilations are not cached on the disk
+     */
+    private CompilationCache                            compilationCache;
     /**
      * Global level compilation options. Used for files which are not included for merging and served independently
      */
-    private CompilationLevel          compilationLevel;
+    private CompilationLevel                            compilationLevel;
+    /**
+     * Compiles the merged files in the background, for asynchronous requests and after a draft is served. The queue of the executor is bounded
+     */
+    private ExecutorService                             compileExecutor;
+    /**
+     * Compiles every file only once at a time and keeps track of the compiled files
+     */
+    private SingleFlightCompiler                        compiler;
+    /**
+     * Keeps the map of File Path of the merge file and the attributes for creating the file at runtime. The map is not modified after init
+     */
+    private Map<String, CompilerBean>                   compilerBeanMap;
+    /**
+     * Collects the compile metrics of the compiled files
+     */
+    private CompileMetrics                              compileMetrics;
+    /**
+     * the directory the drafts are merged in
+     */
+    private Path                                        draftDirectory;
+    /**
+     * map of the context relative paths of the merged files compiled in the background and their drafts. A draft is removed once the compilation
+     * finishes. null if no drafts are served
+     */
+    private ConcurrentMap<String, FutureTask<Artifact>> drafts;
+    /**
+     * map of the context relative paths of the files compiled offline by the {@link CompilerCli} and their entries in the build manifest
+     */
+    private Map<String, BuildManifest.Entry>            prebuiltFiles;
+    /**
+     * Reads every compiled file back into the artifact cache only once at a time, after it was evicted
+     */
+    private SingleFlightCompiler                        reloads;
+    /**
+     * fetches the files included with the HTTP protocol
+     */
+    private RemoteFetcher                               remoteFetcher;
     /**
-     * Internal storage of the list of compiled files
+     * Collects the latencies of the served requests
      */
-    private TreeSet<String>           compiledFiles;
+    private RequestMetrics                              requestMetrics;
     /**
-     * Keeps the map of File Path of the merge file and the attributes for creating the file at runtime
+     * the manifest of the merged files for the loader of the pages
      */
-    private Map<String, CompilerBean> compilerBeanMap;
+    private ResourceManifest                            resourceManifest;
+    /**
+     * Resolves the logical paths of the compiled files to their fingerprinted paths
+     */
+    private ResourceResolver                            resourceResolver;
+    /**
+     * resolves the files included with the SERVER protocol inside the process
+     */
+    private ServerDispatcher                            serverDispatcher;
+    /**
+     * the servlet context of the application
+     */
+    private ServletContext                              servletContext;
+    /**
+     * holds the compiled static resources out of the source tree
+     */
+    private ShadowStore                                 shadowStore;
+    /**
+     * Rebuilds the merged files in the background when their sources change. null if the sources are not watched
+     */
+    private SourceWatcher                               sourceWatcher;
+
+    /**
+     * Creates a factory of daemon threads
+     * @param prefix the prefix of the thread names
+     * @return the thread factory
+     */
+    private static ThreadFactory newThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            /**
+             * the number of threads created
+             */
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, prefix + this.threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Creates a factory of fork join workers
+     * @param prefix the prefix of the thread names
+     * @return the worker thread factory
+     */
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory newWorkerThreadFactory(final String prefix) {
+        return new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            /**
+             * the number of threads created
+             */
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                // the workers of the default factory are daemon threads
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(prefix + this.threadCount.incrementAndGet());
+                return thread;
+            }
+        };
+    }
 
     /**
      * Cleans up all the compiled files and resets the server to its original state
@@ -87,32 +233,54 @@ implements Filter {
      */
     @Override
     public void destroy() {
-        CompilerFilter.LOG.debug("destroy called.. clearing files in " + this.compiledFiles); //$NON-NLS-1$
-        for (final String path : this.compiledFiles) {
+        CompilerFilter.LOG.debug("destroy called.. clearing files in " + this.compiler.getCompiledFiles()); //$NON-NLS-1$
+        for (final String path : this.compiler.getCompiledFiles()) {
+            // the static resources are compiled into the shadow directory, and the files compiled offline are part of the deployment
+            if (!this.compilerBeanMap.containsKey(path) || this.prebuiltFiles.containsKey(path)) {
+                continue;
+            }
             try {
-                // the backup file has the same name as the main file with a .bak extension
-                final Path backupFile = Paths.get(this.basePath, path + ".bak");//$NON-NLS-1$ 
-                final Path originalFile = Paths.get(this.basePath, path);
-                if (backupFile.toFile().exists()) {
-                    // if there is a backup file. replace the compiled file with it
-                    CompilerFilter.LOG.debug(String.format("replacing %s by its backup", path)); //$NON-NLS-1$
-                    Files.copy(backupFile, originalFile, StandardCopyOption.REPLACE_EXISTING);
-                    Files.delete(backupFile);
-                } else {
-                    // if there is no backup file. delete the compiler file
-                    CompilerFilter.LOG.debug(String.format("deleting %s", originalFile)); //$NON-NLS-1$
-                    Files.delete(originalFile);
+                final Path mergedFile = Paths.get(this.basePath, path);
+                CompilerFilter.LOG.debug(String.format("deleting %s", mergedFile)); //$NON-NLS-1$
+                Files.deleteIfExists(mergedFile);
+                for (final String chunkFile : this.compilerBeanMap.get(path).getChunkFiles()) {
+                    Files.deleteIfExists(Paths.get(this.basePath, chunkFile));
                 }
             } catch (final IOException e) {
                 CompilerFilter.LOG.error("Error doing cleanup", e); //$NON-NLS-1$
             }
         }
+        if (null != this.sourceWatcher) {
+            try {
+                this.sourceWatcher.close();
+            } catch (final IOException e) {
+                CompilerFilter.LOG.error("Error closing the source watcher", e); //$NON-NLS-1$
+            }
+        }
+        this.remoteFetcher.close();
+        try {
+            this.serverDispatcher.close();
+        } catch (final IOException e) {
+            CompilerFilter.LOG.error("Error deleting the dispatched files", e); //$NON-NLS-1$
+        }
+        this.buildExecutor.shutdownNow();
+        this.compileExecutor.shutdownNow();
+        this.artifactCache.clear();
+        this.resourceResolver.unpublish(this.servletContext);
+        this.resourceManifest.unpublish(this.servletContext);
+        this.compileMetrics.unpublish(this.servletContext);
+        this.compileMetrics.close();
+        this.requestMetrics.unpublish(this.servletContext);
+        this.requestMetrics.close();
     }
 
     /**
      * This function scans the static file request and checks if a merged file is requested. If so, it creates the file. If a merged file is not
      * requested and the request is for a static file, the file is compiled with the default compilation specified in the compile:configuration root
-     * element in the configurations file
+     * element in the configurations file. Fingerprinted paths (see {@link ResourceResolver}) are served with the compiled file of their logical
+     * path and are cacheable forever, logical paths have to be revalidated by the clients using their entity tag. Pages (*.html) are passed
+     * through with <i>Link: rel=preload</i> headers announcing the merged files of the {@link ResourceManifest}. The latency of every request is
+     * recorded by serving path and compiled file
      * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest, javax.servlet.ServletResponse, javax.servlet.FilterChain)
      */
     @Override
@@ -120,56 +288,70 @@ implements Filter {
     throws IOException, ServletException {
         final HttpServletRequest request = (HttpServletRequest) servletRequest;
         final HttpServletResponse response = (HttpServletResponse) servletResponse;
-        // construct the relative resource path
-        final String filePath = Utils.sanitizePath(request.getRequestURI().substring(request.getContextPath().length() + 1));
-        // construct localhost url prefix
-        // TODO: is there a better way?
-        final String urlPrefix = "http://127.0.0.1:" + request.getServerPort() + request.getContextPath(); //$NON-NLS-1$
-        // this variable stores the local compilation levels.
-        CompilationLevel thisCompilationLevel = this.compilationLevel;
-        // get the file path
-        final Path path = Paths.get(this.basePath, filePath);
-        if (this.compiledFiles.contains(filePath)) {
-            // if the file is already compiled. send it from the server
-            filterChain.doFilter(servletRequest, servletResponse);
-        } else {
-            if (this.compilerBeanMap.containsKey(filePath)) {
-                // if the file is a compiled file and it is not compiled, compile it
-                CompilerFilter.LOG.info(String.format("Merge requested. Compiling '%s'", filePath)); //$NON-NLS-1$
-                // get the corresponding compiler bean
-                final CompilerBean merger = this.compilerBeanMap.get(filePath);
-                // set the compilation level
-                thisCompilationLevel = merger.getCompilationLevel();
-                // merge the files and respond to the request
-                final FileType responseFileType = merger.merge(this.compilerBeanMap, this.basePath, urlPrefix);
-                response.setContentType(responseFileType.getContentType());
-                response.getOutputStream().write(Files.readAllBytes(path));
-                response.getOutputStream().flush();
-            } else if (path.toFile().exists()) {
-                // if the file is not a compiled file and it is a static resource, compile it using the default compilation
-                CompilerFilter.LOG.info(String.format("Atomic compilation requested. Compiling %s", filePath)); //$NON-NLS-1$
-                final FileType responseFileType = FileCompiler.compileAtomic(path, this.compilationLevel);
-                // write to the response
-                response.setContentType(responseFileType.getContentType());
-                response.getOutputStream().write(Files.readAllBytes(path));
-                response.getOutputStream().flush();
-            } else {
-                // if the file is not a compiled file and it is not a static resource, let the corresponding servlet take care of it (in case a dwr
-                // file is accessed)
+        // the latency of the request is recorded by the path serving it, once the path is known
+        final long start = System.nanoTime();
+        RequestMetrics.ServingPath servingPath = RequestMetrics.ServingPath.PASS_THROUGH;
+        String resource = null;
+        boolean asynchronous = false;
+        try {
+            // construct the relative resource path
+            final String filePath = Utils.sanitizePath(request.getRequestURI().substring(request.getContextPath().length() + 1));
+            if (filePath.endsWith(".html")) { //$NON-NLS-1$
+                // the browsers download the merged files in parallel while the page and its loader are loading
+                for (final String link : this.resourceManifest.getPreloadLinks(request.getContextPath())) {
+                    response.addHeader("Link", link); //$NON-NLS-1$
+                }
+                filterChain.doFilter(servletRequest, servletResponse);
+                return;
+            }
+            // if a fingerprinted path is requested, serve the file of the logical path
+            String logicalPath = filePath;
+            String fingerprint = null;
+            final String[] fingerprintedPath = ResourceResolver.split(filePath);
+            if (null != fingerprintedPath && !Paths.get(this.basePath, filePath).toFile().exists()) {
+                logicalPath = fingerprintedPath[0];
+                fingerprint = fingerprintedPath[1];
+            }
+            final CompilerBean merger = this.compilerBeanMap.get(logicalPath);
+            final String chunkOwner = this.chunkFiles.get(logicalPath);
+            servingPath = null == merger && null == chunkOwner ? RequestMetrics.ServingPath.ATOMIC : RequestMetrics.ServingPath.MERGED;
+            resource = logicalPath;
+            if (null != merger || null != chunkOwner) {
+                // the files included with the SERVER protocol are dispatched with this request, before the merge needs them. chunks are merged
+                // with their merged file
+                this.dispatchServerIncludes(null != merger ? logicalPath : chunkOwner, request, response);
+            }
+            if (null != merger && !this.isCached(merger)) {
+                // merged files compiled on every request are sent while they are merged
+                this.streamMerge(logicalPath, merger, request, response);
+                return;
+            }
+            if (null != merger && null == fingerprint && !this.isReady(logicalPath)) {
+                // the first requests of a merged file do not block a container thread for the whole compilation
+                if (this.serveDraft(logicalPath, merger, request, response)) {
+                    return;
+                }
+                if (request.isAsyncSupported()) {
+                    asynchronous = true;
+                    this.compileAsync(logicalPath, request, start);
+                    return;
+                }
+            }
+            final Artifact artifact = this.getArtifact(logicalPath);
+            if (null == artifact) {
+                // if the file is not a compiled file and it is not a static resource, let the corresponding servlet take care of it (in case a
+                // dwr file is accessed)
+                servingPath = RequestMetrics.ServingPath.PASS_THROUGH;
+                resource = null;
                 CompilerFilter.LOG.warn(String.format("The file '%s' is requested and it is not static. This can impact performance", filePath)); //$NON-NLS-1$
                 filterChain.doFilter(servletRequest, servletResponse);
+                return;
             }
-            // if the compilation level is set, remove the path from the map to prevent re-compilation
-            if (thisCompilationLevel != null) {
-                CompilerFilter.LOG.debug(String.format("Compilation of '%s' complete. This file will not compile again", filePath)); //$NON-NLS-1$
-                this.compiledFiles.add(filePath);
-                this.compilerBeanMap.remove(filePath);
-                // make the response cacheable for 30 days
-                response.addHeader("Cache-Control", "max-age=2592000"); //$NON-NLS-1$ //$NON-NLS-2$
-            } else {
-                // if there is no compilation level set, the file should be retrieved every time from server
-                CompilerFilter.LOG.warn("The compiler configuration is not optimized for performance."); //$NON-NLS-1$
-                response.addHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.serveArtifact(filePath, fingerprint, artifact, request, response);
+        } finally {
+            // asynchronous requests are recorded once they complete
+            if (!asynchronous) {
+                this.requestMetrics.record(servingPath, resource, System.nanoTime() - start);
             }
         }
     }
@@ -182,9 +364,17 @@ implements Filter {
     public void init(final FilterConfig filterConfig)
     throws ServletException {
         try {
-            this.compiledFiles = new TreeSet<>();
+            this.compiler = new SingleFlightCompiler();
+            this.reloads = new SingleFlightCompiler();
+            this.servletContext = filterConfig.getServletContext();
+            this.resourceResolver = new ResourceResolver();
+            this.resourceResolver.publish(this.servletContext);
+            this.compileMetrics = new CompileMetrics(this.servletContext.getContextPath());
+            this.compileMetrics.publish(this.servletContext);
+            this.requestMetrics = new RequestMetrics(this.servletContext.getContextPath());
+            this.requestMetrics.publish(this.servletContext);
             // construct the base path
-            this.basePath = filterConfig.getServletContext().getRealPath(""); //$NON-NLS-1$ 
+            this.basePath = this.servletContext.getRealPath(""); //$NON-NLS-1$ 
             // load the configurations
             final String compilerConfig = filterConfig.getInitParameter("compilerConfigLocation"); //$NON-NLS-1$
             CompilerFilter.LOG.info(String.format("loading configurations from location '%s'", compilerConfig)); //$NON-NLS-1$
@@ -192,11 +382,661 @@ implements Filter {
             final ConfigHandler configHandler = new ConfigHandler();
             saxParser.parse(Context.getApplicationContext().getResource(compilerConfig).getFile(), configHandler);
             this.compilerBeanMap = configHandler.toCompilerBeanMap();
+            this.chunkFiles = new HashMap<>();
+            for (final Map.Entry<String, CompilerBean> entry : this.compilerBeanMap.entrySet()) {
+                for (final String chunkFile : entry.getValue().getChunkFiles()) {
+                    this.chunkFiles.put(chunkFile, entry.getKey());
+                }
+            }
             this.compilationLevel = configHandler.getRootCompilationLevel();
+            this.buildScheduler = configHandler.getBuildScheduler();
+            this.resourceManifest = new ResourceManifest(this.compilerBeanMap, this.resourceResolver);
+            this.resourceManifest.publish(this.servletContext);
+            // the builds of the dependencies may wait for a compilation which waits for other builds. the fork join pool starts spare workers
+            // for the waiting ones (see SingleFlightCompiler), so the builds never run out of threads
+            this.buildExecutor = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                CompilerFilter.newWorkerThreadFactory("teapot-build-"), null, true); //$NON-NLS-1$
+            // compilations waiting for a thread are bounded, so a burst of first requests cannot pile up unbounded work
+            final ThreadPoolExecutor compilePool = new ThreadPoolExecutor(configHandler.getCompileThreads(), configHandler.getCompileThreads(), 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(configHandler.getCompileQueue()),
+                CompilerFilter.newThreadFactory("teapot-compile-")); //$NON-NLS-1$
+            compilePool.allowCoreThreadTimeOut(true);
+            this.compileExecutor = compilePool;
+            if (configHandler.isFallback()) {
+                this.drafts = new ConcurrentHashMap<>();
+                this.draftDirectory = Files.createDirectories(this.getTemporaryDirectory("teapot-drafts")); //$NON-NLS-1$
+            }
+            // the compilation cache can be configured inside the indexed directories
+            if (configHandler.getDiskCacheSize() > 0) {
+                final Path diskCacheDirectory = this.getDiskCacheDirectory(configHandler.getDiskCache());
+                configHandler.getDirectoryIndex().addOutput(diskCacheDirectory);
+                this.compilationCache = new CompilationCache(diskCacheDirectory, configHandler.getDiskCacheSize());
+            }
+            // fetch the files included with the HTTP protocol in parallel, and keep them across merges
+            this.remoteFetcher = new RemoteFetcher(this.getTemporaryDirectory("teapot-remote-cache"), configHandler.getConnectTimeout(), //$NON-NLS-1$
+                configHandler.getReadTimeout());
+            // resolve the files included with the SERVER protocol inside the process
+            this.serverDispatcher = new ServerDispatcher(this.servletContext, this.getTemporaryDirectory("teapot-server-cache")); //$NON-NLS-1$
+            for (final CompilerBean bean : this.compilerBeanMap.values()) {
+                bean.setRemoteFetcher(this.remoteFetcher);
+                bean.setServerDispatcher(this.serverDispatcher);
+            }
+            this.shadowStore = new ShadowStore(this.getTemporaryDirectory("teapot-atomic")); //$NON-NLS-1$
+            this.artifactCache = new ArtifactCache(configHandler.getCacheSize(), configHandler.getMmapThreshold(),
+                configHandler.getCompressionLevel());
+            this.loadManifest();
+            // rebuild the merged files in the background when their sources change, if configured
+            if (configHandler.isWatch()) {
+                this.sourceWatcher = new SourceWatcher(this.basePath, this.compilerBeanMap, this.buildScheduler,
+                    configHandler.getDirectoryIndex(), new SourceWatcher.Listener() {
+                        @Override
+                        public void sourcesChanged(final List<String> paths) {
+                            CompilerFilter.this.rebuild(paths);
+                        }
+                    });
+                this.sourceWatcher.start();
+            }
+            // compile the merged files before the first request, if configured
+            if (configHandler.isWarmUp()) {
+                this.warmUp();
+            }
         } catch (final Throwable e) {
             // application startup should fail if the merges fail
             CompilerFilter.LOG.fatal("Error loading configurations", e); //$NON-NLS-1$
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Runs the compilation once for all concurrent requests of the path and returns the compiled artifact. Permanently compiled artifacts are
+     * read into the artifact cache by the compilation itself, so waiting requests are served from memory. The compile metrics of the file are
+     * recorded
+     * @param filePath the context relative path of the compiled file
+     * @param compilation the compilation creating the file
+     * @param permanent if true, the file is compiled only once and cached
+     * @return the compiled artifact
+     * @throws IOException if the compilation fails
+     */
+    private Artifact compile(final String filePath, final Callable<FileType> compilation, final boolean permanent)
+    throws IOException {
+        final FileType fileType = this.compiler.compile(filePath, new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws Exception {
+                final FileType compiledType = CompilerFilter.this.compileMetrics.measure(filePath, compilation);
+                if (permanent) {
+                    final Artifact artifact = CompilerFilter.this.artifactCache.load(filePath, CompilerFilter.this.getCompiledPath(filePath),
+                        compiledType);
+                    CompilerFilter.this.resourceResolver.register(filePath, artifact.getHash());
+                    CompilerFilter.this.loadChunks(filePath);
+                }
+                return compiledType;
+            }
+        }, permanent);
+        if (!permanent) {
+            // files compiled on every request are neither cached nor compressed
+            return Artifact.fromFile(this.getCompiledPath(filePath), fileType, Long.MAX_VALUE, 0);
+        }
+        final Artifact artifact = this.artifactCache.get(filePath);
+        return null != artifact ? artifact : this.reload(filePath, this.getCompiledPath(filePath), fileType);
+    }
+
+    /**
+     * Compiles a merged file on a compile thread and serves it to the request once compiled, so the container thread is released meanwhile. If
+     * all compile threads are busy and the queue is full, the file is compiled on the container thread
+     * @param filePath the context relative path of the merged file
+     * @param request the request being served. It has to support asynchronous processing
+     * @param start the time the request started in nanoseconds, as of {@link System#nanoTime()}
+     */
+    private void compileAsync(final String filePath, final HttpServletRequest request, final long start) {
+        final AsyncContext asyncContext = request.startAsync();
+        // the compilation completes the request in any case
+        asyncContext.setTimeout(0);
+        final Runnable compilation = new Runnable() {
+            @Override
+            public void run() {
+                final HttpServletRequest asyncRequest = (HttpServletRequest) asyncContext.getRequest();
+                final HttpServletResponse asyncResponse = (HttpServletResponse) asyncContext.getResponse();
+                try {
+                    CompilerFilter.this.serveArtifact(filePath, null, CompilerFilter.this.getArtifact(filePath), asyncRequest, asyncResponse);
+                } catch (final IOException | RuntimeException e) {
+                    CompilerFilter.LOG.error(String.format("Error compiling '%s'", filePath), e); //$NON-NLS-1$
+                    try {
+                        asyncResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    } catch (final IOException | IllegalStateException sendError) {
+                        CompilerFilter.LOG.debug("the error could not be sent", sendError); //$NON-NLS-1$
+                    }
+                } finally {
+                    CompilerFilter.this.requestMetrics.record(RequestMetrics.ServingPath.MERGED, filePath, System.nanoTime() - start);
+                    asyncContext.complete();
+                }
+            }
+        };
+        try {
+            this.compileExecutor.execute(compilation);
+        } catch (final RejectedExecutionException e) {
+            CompilerFilter.LOG.warn(String.format("All compile threads are busy. Compiling '%s' on the container thread", filePath)); //$NON-NLS-1$
+            compilation.run();
+        }
+    }
+
+    /**
+     * Compiles a merged file on a compile thread and drops its draft once the compilation finishes. If all compile threads are busy and the
+     * queue is full, the draft is dropped right away, so the next request starts the compilation again
+     * @param filePath the context relative path of the merged file
+     */
+    private void compileInBackground(final String filePath) {
+        try {
+            this.compileExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        CompilerFilter.this.getArtifact(filePath);
+                    } catch (final IOException | RuntimeException e) {
+                        CompilerFilter.LOG.error(String.format("Error compiling '%s' in the background", filePath), e); //$NON-NLS-1$
+                    } finally {
+                        CompilerFilter.this.drafts.remove(filePath);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            CompilerFilter.LOG.warn(String.format("All compile threads are busy. Postponing the compilation of '%s'", filePath)); //$NON-NLS-1$
+            this.drafts.remove(filePath);
+        }
+    }
+
+    /**
+     * Dispatches the files included with the SERVER protocol by the merged file and all its dependencies, unless they are dispatched already
+     * @param filePath the context relative path of the merged file
+     * @param request the request being served
+     * @param response the response being served
+     * @throws IOException if a file cannot be dispatched
+     * @throws ServletException if the servlet serving a file fails
+     */
+    private void dispatchServerIncludes(final String filePath, final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException, ServletException {
+        final List<String> mergedFiles = new ArrayList<>(this.buildScheduler.getBuildOrder(filePath));
+        mergedFiles.add(filePath);
+        for (final String mergedFile : mergedFiles) {
+            for (final String serverPath : this.compilerBeanMap.get(mergedFile).getServerPaths()) {
+                this.serverDispatcher.dispatch(serverPath, request, response);
+            }
+        }
+    }
+
+    /**
+     * Returns the compiled artifact for the path. The artifact is served from memory if it is already compiled, and is compiled otherwise
+     * @param filePath the context relative path of the requested file
+     * @return the compiled artifact. null if the path is neither a merged file nor a static resource
+     * @throws IOException if the compilation fails
+     */
+    private Artifact getArtifact(final String filePath)
+    throws IOException {
+        // get the file path
+        final Path path = Paths.get(this.basePath, filePath);
+        // if the file is already compiled. send it from memory
+        final Artifact artifact = this.artifactCache.get(filePath);
+        if (null != artifact) {
+            return artifact;
+        }
+        if (this.compiler.isCompiled(filePath)) {
+            // the compiled file was evicted from memory. read it again
+            return this.reload(filePath, this.getCompiledPath(filePath), this.compiler.getFileType(filePath));
+        }
+        final BuildManifest.Entry prebuilt = this.prebuiltFiles.get(filePath);
+        if (null != prebuilt) {
+            // the file is compiled offline. serve it as it is
+            final Artifact loaded = this.reload(filePath, path, prebuilt.getFileType());
+            if (!prebuilt.getHash().equals(loaded.getHash())) {
+                CompilerFilter.LOG.warn(String.format("'%s' changed since it was compiled offline", filePath)); //$NON-NLS-1$
+            }
+            return loaded;
+        }
+        final String chunkOwner = this.chunkFiles.get(filePath);
+        if (null != chunkOwner) {
+            return this.getChunk(filePath, chunkOwner);
+        }
+        // this variable stores the local compilation levels.
+        final CompilationLevel thisCompilationLevel;
+        final boolean permanent;
+        final Callable<FileType> compilation;
+        if (this.compilerBeanMap.containsKey(filePath)) {
+            // if the file is a compiled file and it is not compiled, compile it
+            CompilerFilter.LOG.info(String.format("Merge requested. Compiling '%s'", filePath)); //$NON-NLS-1$
+            // get the corresponding compiler bean
+            final CompilerBean merger = this.compilerBeanMap.get(filePath);
+            // set the compilation level
+            thisCompilationLevel = merger.getCompilationLevel();
+            permanent = this.isCached(merger);
+            compilation = this.mergeWithDependencies(filePath, merger, null);
+        } else if (path.toFile().exists()) {
+            // if the file is not a compiled file and it is a static resource, compile it using the default compilation
+            CompilerFilter.LOG.info(String.format("Atomic compilation requested. Compiling %s", filePath)); //$NON-NLS-1$
+            thisCompilationLevel = this.compilationLevel;
+            permanent = null != thisCompilationLevel;
+            compilation = new Callable<FileType>() {
+                @Override
+                public FileType call()
+                throws IOException {
+                    return CompilerFilter.this.shadowStore.compile(filePath, path, thisCompilationLevel);
+                }
+            };
+        } else {
+            return null;
+        }
+        if (permanent) {
+            CompilerFilter.LOG.debug(String.format("Compiling '%s'. This file will not compile again", filePath)); //$NON-NLS-1$
+        } else {
+            // if there is no compilation level set, the file is compiled for every request
+            CompilerFilter.LOG.warn("The compiler configuration is not optimized for performance."); //$NON-NLS-1$
+        }
+        // Concurrent requests for the same file share one compilation
+        return this.compile(filePath, compilation, permanent);
+    }
+
+    /**
+     * Returns the compiled artifact of a chunk. The chunks are compiled with their merged file
+     * @param filePath the context relative path of the chunk
+     * @param mergedFile the context relative path of the merged file the chunk is compiled with
+     * @return the compiled artifact
+     * @throws IOException if the compilation fails
+     */
+    private Artifact getChunk(final String filePath, final String mergedFile)
+    throws IOException {
+        this.getArtifact(mergedFile);
+        final Path path = Paths.get(this.basePath, filePath);
+        if (!this.isCached(this.compilerBeanMap.get(mergedFile))) {
+            // chunks compiled on every request are neither cached nor compressed
+            return Artifact.fromFile(path, FileType.SCRIPT, Long.MAX_VALUE, 0);
+        }
+        final Artifact artifact = this.artifactCache.get(filePath);
+        if (null != artifact) {
+            return artifact;
+        }
+        // the chunk was evicted from memory. read it again
+        return this.reload(filePath, path, FileType.SCRIPT);
+    }
+
+    /**
+     * Returns the compiled file of a path. Static resources are compiled into the shadow directory, merged files in place
+     * @param filePath the context relative path of the compiled file
+     * @return the compiled file
+     */
+    private Path getCompiledPath(final String filePath) {
+        final Path shadowFile = this.shadowStore.get(filePath);
+        return null != shadowFile ? shadowFile : Paths.get(this.basePath, filePath);
+    }
+
+    /**
+     * Returns the directory of the compilation cache on the disk
+     * @param diskCache the configured directory, absolute or relative to the context root. null to use the temporary directory of the application
+     * @return the directory of the compilation cache
+     */
+    private Path getDiskCacheDirectory(final String diskCache) {
+        if (null != diskCache) {
+            return Paths.get(this.basePath).resolve(diskCache);
+        }
+        return this.getTemporaryDirectory("teapot-compilation-cache"); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns a directory in the temporary directory of the application
+     * @param name the name of the directory
+     * @return the path of the directory
+     */
+    private Path getTemporaryDirectory(final String name) {
+        // the temporary directory of the container is kept across restarts. fall back to the one of the platform
+        final File temporaryDirectory = (File) this.servletContext.getAttribute(ServletContext.TEMPDIR);
+        return Paths.get(null == temporaryDirectory ? System.getProperty("java.io.tmpdir") : temporaryDirectory.getPath(), name); //$NON-NLS-1$
+    }
+
+    /**
+     * Checks if the merged file is compiled once and served from memory. Merged files without a compilation level are compiled on every request,
+     * unless the sources are watched
+     * @param bean the compiler bean of the merged file
+     * @return true if the merged file is compiled once
+     */
+    private boolean isCached(final CompilerBean bean) {
+        return null != bean.getCompilationLevel() || null != this.sourceWatcher;
+    }
+
+    /**
+     * Checks if the compiled file can be served without compiling it, from memory or from the compiled file
+     * @param filePath the context relative path of the file
+     * @return true if the file is compiled
+     */
+    private boolean isReady(final String filePath) {
+        return null != this.artifactCache.get(filePath) || this.compiler.isCompiled(filePath) || this.prebuiltFiles.containsKey(filePath);
+    }
+
+    /**
+     * Reads the chunks of a merged script into the artifact cache, once the merged script is compiled
+     * @param filePath the context relative path of the compiled file
+     * @throws IOException if a chunk cannot be read
+     */
+    private void loadChunks(final String filePath)
+    throws IOException {
+        final CompilerBean bean = this.compilerBeanMap.get(filePath);
+        if (null == bean) {
+            return;
+        }
+        for (final String chunkFile : bean.getChunkFiles()) {
+            final Artifact artifact = this.artifactCache.load(chunkFile, Paths.get(this.basePath, chunkFile), FileType.SCRIPT);
+            this.resourceResolver.register(chunkFile, artifact.getHash());
+        }
+    }
+
+    /**
+     * Loads the build manifest of the files compiled offline by the {@link CompilerCli}, if the context root has one. The listed files are
+     * served without compiling them, and their fingerprinted paths are resolved from the manifest before their first request
+     * @throws IOException if the manifest cannot be read
+     */
+    private void loadManifest()
+    throws IOException {
+        this.prebuiltFiles = new HashMap<>();
+        final Path manifestFile = Paths.get(this.basePath, BuildManifest.PATH);
+        if (!manifestFile.toFile().exists()) {
+            return;
+        }
+        for (final Map.Entry<String, BuildManifest.Entry> entry : BuildManifest.read(manifestFile).getEntries().entrySet()) {
+            final String filePath = Utils.sanitizePath(entry.getKey());
+            this.prebuiltFiles.put(filePath, entry.getValue());
+            this.resourceResolver.register(filePath, entry.getValue().getHash());
+        }
+        CompilerFilter.LOG.info(String.format("%d files are compiled offline, as listed in '%s'", //$NON-NLS-1$
+            Integer.valueOf(this.prebuiltFiles.size()), manifestFile));
+    }
+
+    /**
+     * Merges the merged file without building its dependencies
+     * @param filePath the context relative path of the merged file
+     * @throws IOException if the merge fails
+     */
+    private void merge(final String filePath)
+    throws IOException {
+        final CompilerBean bean = this.compilerBeanMap.get(filePath);
+        this.compile(filePath, new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws IOException {
+                return bean.merge(CompilerFilter.this.basePath, CompilerFilter.this.compilationCache, null);
+            }
+        }, this.isCached(bean));
+    }
+
+    /**
+     * Merges a dependency of a merged file, unless it is already compiled. The dependencies of the dependency have to be built before calling
+     * this function
+     * @param dependency the context relative path of the dependency
+     * @throws IOException if the merge fails
+     */
+    private void mergeDependency(final String dependency)
+    throws IOException {
+        if (this.isReady(dependency)) {
+            return;
+        }
+        CompilerFilter.LOG.debug("resolving dependency on :" + dependency); //$NON-NLS-1$
+        this.merge(dependency);
+    }
+
+    /**
+     * Creates the compilation merging the merged file after all its dependencies are built, each of them once and the independent ones in
+     * parallel
+     * @param filePath the context relative path of the merged file
+     * @param merger the compiler bean of the merged file
+     * @param output the stream to write the merged file to while it is written. can be null
+     * @return the compilation
+     */
+    private Callable<FileType> mergeWithDependencies(final String filePath, final CompilerBean merger, final OutputStream output) {
+        return new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws IOException {
+                CompilerFilter.this.buildScheduler.buildDependencies(filePath, new BuildScheduler.Builder() {
+                    @Override
+                    public void build(final String dependency)
+                    throws IOException {
+                        CompilerFilter.this.mergeDependency(dependency);
+                    }
+                }, CompilerFilter.this.buildExecutor);
+                return merger.merge(CompilerFilter.this.basePath, CompilerFilter.this.compilationCache, output);
+            }
+        };
+    }
+
+    /**
+     * Rebuilds the merged files after a change in their sources. Files not compiled yet are left for their first request. Requests are served the
+     * last good build from memory while a file is rebuilt, and keep being served it if the rebuild fails
+     * @param paths the context relative paths of the merged files to rebuild, in the order they have to be built
+     */
+    private void rebuild(final List<String> paths) {
+        for (final String path : paths) {
+            if (!this.compiler.isCompiled(path) && null == this.artifactCache.get(path)) {
+                continue;
+            }
+            final long start = System.nanoTime();
+            try {
+                this.compiler.invalidate(path);
+                this.merge(path);
+                CompilerFilter.LOG.info(String.format("rebuilt '%s' in %d ms", path, //$NON-NLS-1$
+                    Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))));
+            } catch (final IOException | RuntimeException e) {
+                CompilerFilter.LOG.error(String.format("Error rebuilding '%s'. Serving the last good build", path), e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Reads a compiled file into the artifact cache, which evicted it or never had it, and registers its hash. Concurrent requests for the same
+     * file wait for a single read, so the file is read, hashed and compressed once
+     * @param filePath the context relative path of the compiled file
+     * @param file the compiled file
+     * @param fileType the file type of the compiled file
+     * @return the artifact
+     * @throws IOException if the file cannot be read
+     */
+    private Artifact reload(final String filePath, final Path file, final FileType fileType)
+    throws IOException {
+        final AtomicReference<Artifact> loaded = new AtomicReference<>();
+        this.reloads.compile(filePath, new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws IOException {
+                // a former read may have finished between the lookup of the request and this one
+                Artifact artifact = CompilerFilter.this.artifactCache.get(filePath);
+                if (null == artifact) {
+                    artifact = CompilerFilter.this.artifactCache.load(filePath, file, fileType);
+                    CompilerFilter.this.resourceResolver.register(filePath, artifact.getHash());
+                }
+                loaded.set(artifact);
+                return fileType;
+            }
+        }, false);
+        if (null != loaded.get()) {
+            return loaded.get();
+        }
+        // this request waited for the read of another one
+        final Artifact artifact = this.artifactCache.get(filePath);
+        return null != artifact ? artifact : this.reload(filePath, file, fileType);
+    }
+
+    /**
+     * Serves a compiled artifact. Logical paths are revalidated by the clients on every request, fingerprinted paths are cacheable forever if the
+     * fingerprint is of the artifact, and not found otherwise
+     * @param filePath the requested context relative path
+     * @param fingerprint the fingerprint of the requested path. null if a logical path is requested
+     * @param artifact the compiled artifact of the logical path
+     * @param request the request being served
+     * @param response the response to write to
+     * @throws IOException if writing to the response fails
+     */
+    private void serveArtifact(final String filePath, final String fingerprint, final Artifact artifact, final HttpServletRequest request,
+        final HttpServletResponse response)
+    throws IOException {
+        if (null == fingerprint) {
+            // logical paths change with every compilation. the clients have to revalidate them every time
+            response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (artifact.getHash().startsWith(fingerprint)) {
+            // the content of a fingerprinted path never changes. make the response cacheable for a year
+            response.setHeader("Cache-Control", "public, max-age=31536000, immutable"); //$NON-NLS-1$ //$NON-NLS-2$
+        } else {
+            // the fingerprint is of an older compilation, which is not available anymore
+            CompilerFilter.LOG.warn(String.format("The fingerprint of '%s' is outdated", filePath)); //$NON-NLS-1$
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ArtifactWriter.write(artifact, request, response);
+    }
+
+    /**
+     * Serves the draft of a merged file not compiled yet, and starts its compilation in the background. The draft is merged once for all
+     * concurrent requests, without optimizations, and is dropped once the compilation finishes
+     * @param filePath the context relative path of the merged file
+     * @param merger the compiler bean of the merged file
+     * @param request the request being served
+     * @param response the response to write to
+     * @return true if the draft was served. false if the merged file gets no draft, or if merging the draft failed
+     * @throws IOException if writing to the response fails
+     */
+    private boolean serveDraft(final String filePath, final CompilerBean merger, final HttpServletRequest request,
+        final HttpServletResponse response)
+    throws IOException {
+        // the resources of the styles are placed next to the merged file, and the shared files of the chunks are moved into it. the
+        // dependencies may be included by the merged file
+        if (null == this.drafts || FileType.STYLE == merger.getFileType() || !merger.getChunkFiles().isEmpty()) {
+            return false;
+        }
+        for (final String dependency : this.buildScheduler.getBuildOrder(filePath)) {
+            if (!this.isReady(dependency)) {
+                return false;
+            }
+        }
+        FutureTask<Artifact> draft = this.drafts.get(filePath);
+        if (null == draft) {
+            final FutureTask<Artifact> created = new FutureTask<>(new Callable<Artifact>() {
+                @Override
+                public Artifact call()
+                throws IOException {
+                    final Path draftFile = Files.createTempFile(CompilerFilter.this.draftDirectory, "draft", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+                    try {
+                        merger.mergeDraft(CompilerFilter.this.basePath, draftFile);
+                        return Artifact.fromFile(draftFile, merger.getFileType(), Long.MAX_VALUE, 0);
+                    } finally {
+                        Files.deleteIfExists(draftFile);
+                    }
+                }
+            });
+            draft = this.drafts.putIfAbsent(filePath, created);
+            if (null == draft) {
+                draft = created;
+                created.run();
+                this.compileInBackground(filePath);
+            }
+        }
+        try {
+            this.serveArtifact(filePath, null, draft.get(), request, response);
+            return true;
+        } catch (final ExecutionException e) {
+            // the request waits for the compilation instead
+            CompilerFilter.LOG.error(String.format("Error merging the draft of '%s'", filePath), e.getCause()); //$NON-NLS-1$
+            this.drafts.remove(filePath, draft);
+            return false;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Merges a merged file compiled on every request and streams it to the response while it is written, instead of reading it back once it is
+     * written. If the merge of a concurrent request is running, its result is sent once it finishes. HEAD requests merge the file without
+     * sending it, as its length is only known once it is merged
+     * @param filePath the context relative path of the merged file
+     * @param merger the compiler bean of the merged file
+     * @param request the request being served
+     * @param response the response to stream the merged file to
+     * @throws IOException if the merge or writing to the response fails
+     */
+    private void streamMerge(final String filePath, final CompilerBean merger, final HttpServletRequest request,
+        final HttpServletResponse response)
+    throws IOException {
+        CompilerFilter.LOG.warn("The compiler configuration is not optimized for performance."); //$NON-NLS-1$
+        response.setContentType(merger.getFileType().getContentType());
+        response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+        final boolean head = "HEAD".equals(request.getMethod()); //$NON-NLS-1$
+        final OutputStream output = head ? null : response.getOutputStream();
+        final AtomicBoolean streamed = new AtomicBoolean();
+        final Callable<FileType> compilation = this.mergeWithDependencies(filePath, merger, output);
+        this.compiler.compile(filePath, new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws Exception {
+                streamed.set(true);
+                return CompilerFilter.this.compileMetrics.measure(filePath, compilation);
+            }
+        }, false);
+        // the merges move the merged file in place once written, so it is complete even if another merge already started
+        if (head) {
+            response.setHeader("Content-Length", Long.toString(Files.size(Paths.get(this.basePath, filePath)))); //$NON-NLS-1$
+            return;
+        }
+        if (!streamed.get()) {
+            Files.copy(Paths.get(this.basePath, filePath), output);
+        }
+        output.flush();
+    }
+
+    /**
+     * Compiles all merged files having a compilation level on a bounded fork join pool and waits for all compilations to finish. Merged files
+     * including files with the SERVER protocol need a request to dispatch them with and are compiled on their first request. Logs the wall clock
+     * time taken and the time saved compared to compiling the files one after another, as recorded by the compile metrics of the compilations
+     * themselves, so the time spent waiting for a shared dependency is not counted.
+     * @throws InterruptedException if the warm up is interrupted
+     */
+    private void warmUp()
+    throws InterruptedException {
+        final List<String> warmUpFiles = new ArrayList<>();
+        for (final Map.Entry<String, CompilerBean> entry : this.compilerBeanMap.entrySet()) {
+            if (!this.isCached(entry.getValue())) {
+                CompilerFilter.LOG.debug(String.format("'%s' is compiled on every request. Skipping warm up", entry.getKey())); //$NON-NLS-1$
+            } else if (entry.getValue().isServerDependent()) {
+                CompilerFilter.LOG.debug(String.format("'%s' includes server files. Skipping warm up", entry.getKey())); //$NON-NLS-1$
+            } else {
+                warmUpFiles.add(entry.getKey());
+            }
+        }
+        if (warmUpFiles.isEmpty()) {
+            return;
+        }
+        // the sum of the work of all compilations, i.e. the time a serial compilation would take
+        final long workStart = this.compileMetrics.getWorkNanos();
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(warmUpFiles.size(), Runtime.getRuntime().availableProcessors()));
+        final long start = System.nanoTime();
+        try {
+            final List<ForkJoinTask<Artifact>> tasks = new ArrayList<>();
+            for (final String warmUpFile : warmUpFiles) {
+                tasks.add(pool.submit(new Callable<Artifact>() {
+                    @Override
+                    public Artifact call()
+                    throws IOException {
+                        return CompilerFilter.this.getArtifact(warmUpFile);
+                    }
+                }));
+            }
+            for (int index = 0; index < tasks.size(); index++) {
+                try {
+                    tasks.get(index).get();
+                } catch (final ExecutionException e) {
+                    // the file will be compiled again on its first request
+                    CompilerFilter.LOG.error(String.format("Error warming up '%s'", warmUpFiles.get(index)), e.getCause()); //$NON-NLS-1$
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        final long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        final long serialMillis = TimeUnit.NANOSECONDS.toMillis(this.compileMetrics.getWorkNanos() - workStart);
+        CompilerFilter.LOG.info(String.format("Warm up compiled %d files in %d ms. Serial compilation would take %d ms, %d ms saved", //$NON-NLS-1$
+            Integer.valueOf(warmUpFiles.size()), Long.valueOf(wallTime), Long.valueOf(serialMillis), Long.valueOf(serialMillis - wallTime)));
+    }
 }
@@ -24,26 +24,94 @@ extends DefaultHandler {
          * The base directory attribute
          */
         String ATTR_BASE_DIR          = "basedir";              //$NON-NLS-1$
+        /**
+         * the artifact cache size attribute
+         */
+        String ATTR_CACHE_SIZE        = "cache-size";           //$NON-NLS-1$
         /**
          * the compression attribute
          */
         String ATTR_COMPILATION_LEVEL = "compilation-level";    //$NON-NLS-1$
+        /**
+         * the compression level attribute
+         */
+        String ATTR_COMPRESSION_LEVEL = "compression-level";    //$NON-NLS-1$
+        /**
+         * the compile queue attribute
+         */
+        String ATTR_COMPILE_QUEUE     = "compile-queue";        //$NON-NLS-1$
+        /**
+         * the compile threads attribute
+         */
+        String ATTR_COMPILE_THREADS   = "compile-threads";      //$NON-NLS-1$
+        /**
+         * the connect timeout attribute
+         */
+        String ATTR_CONNECT_TIMEOUT   = "connect-timeout";      //$NON-NLS-1$
         /**
          * the dependency attribute
          */
         String ATTR_DEPENDENCY        = "dependency";           //$NON-NLS-1$
+        /**
+         * the disk cache attribute
+         */
+        String ATTR_DISK_CACHE        = "disk-cache";           //$NON-NLS-1$
+        /**
+         * the disk cache size attribute
+         */
+        String ATTR_DISK_CACHE_SIZE   = "disk-cache-size";      //$NON-NLS-1$
+        /**
+         * the fallback attribute
+         */
+        String ATTR_FALLBACK          = "fallback";             //$NON-NLS-1$
+        /**
+         * the inline attribute
+         */
+        String ATTR_INLINE            = "inline";               //$NON-NLS-1$
+        /**
+         * the inline threshold attribute
+         */
+        String ATTR_INLINE_THRESHOLD  = "inline-threshold";     //$NON-NLS-1$
+        /**
+         * the load after attribute
+         */
+        String ATTR_LOAD_AFTER        = "load-after";           //$NON-NLS-1$
         /**
          * The merge directory Attribute
          */
         String ATTR_MERGE_DIR         = "mergedir";             //$NON-NLS-1$
+        /**
+         * the memory mapping threshold attribute
+         */
+        String ATTR_MMAP_THRESHOLD    = "mmap-threshold";       //$NON-NLS-1$
+        /**
+         * the name attribute
+         */
+        String ATTR_NAME              = "name";                 //$NON-NLS-1$
         /**
          * the protocol attribute
          */
         String ATTR_PROTOCOL          = "protocol";             //$NON-NLS-1$
+        /**
+         * the read timeout attribute
+         */
+        String ATTR_READ_TIMEOUT      = "read-timeout";         //$NON-NLS-1$
+        /**
+         * the warm up attribute
+         */
+        String ATTR_WARM_UP           = "warm-up";              //$NON-NLS-1$
+        /**
+         * the watch attribute
+         */
+        String ATTR_WATCH             = "watch";                //$NON-NLS-1$
         /**
          * The regular expression to split the dependency string
          */
         String DEPENDENCY_REGEX       = "\\s*\\,\\s*";          //$NON-NLS-1$
+        /**
+         * chunk tag
+         */
+        String TG_CHUNK               = "chunk";                //$NON-NLS-1$
         /**
          * compiler tag
          */
@@ -86,14 +154,66 @@ extends DefaultHandler {
      * a map of merged file Path as key and CompilerBean as value
      */
     private final Map<String, CompilerBean> beanMap;
+    /**
+     * the validated dependency graph of the merged files. Created when the document ends
+     */
+    private BuildScheduler                  buildScheduler;
+    /**
+     * the maximum total size in bytes of the artifacts kept in memory
+     */
+    private long                            cacheSize;
+    /**
+     * the chunk of the current bean being parsed. null outside of chunk elements
+     */
+    private ScriptChunk                     chunk;
+    /**
+     * the number of compilations waiting for a compile thread at most
+     */
+    private int                             compileQueue;
+    /**
+     * the number of threads compiling the merged files in the background
+     */
+    private int                             compileThreads;
+    /**
+     * the level used to create the compressed variants of the compiled files
+     */
+    private int                             compressionLevel;
+    /**
+     * the connect timeout in milliseconds of the files included with the HTTP protocol
+     */
+    private int                             connectTimeout;
+    /**
+     * the index of the files in the base directories, shared by all compiler beans
+     */
+    private final DirectoryIndex            directoryIndex;
+    /**
+     * the directory of the compilation cache on the disk. null to use the temporary directory of the application
+     */
+    private String                          diskCache;
+    /**
+     * the maximum size in bytes of the compilation cache on the disk. 0 if compilations are not cached on the disk
+     */
+    private long                            diskCacheSize;
+    /**
+     * if true, merged files not compiled yet are served a fast draft while they are compiled in the background
+     */
+    private boolean                         fallback;
     /**
      * fileFinder is used to create finders for include and exclude tags
      */
     private FileFinder                      fileFinder;
+    /**
+     * the size in bytes from which artifacts kept in memory are memory mapped
+     */
+    private long                            mmapThreshold;
     /**
      * Value of the currently traversed node
      */
     private String                          nodeValue;
+    /**
+     * the read timeout in milliseconds of the files included with the HTTP protocol
+     */
+    private int                             readTimeout;
     /**
      * Global level compilation options. Used for files which are not included for merging and served independentlyon
      */
@@ -102,12 +222,29 @@ extends DefaultHandler {
      * templateBean acts as a template for {@link ConfigHandler#bean}
      */
     private CompilerBean                    templateBean;
+    /**
+     * if true, all merged files are compiled when the application starts
+     */
+    private boolean                         warmUp;
+    /**
+     * if true, the source directories are watched and the merged files are rebuilt in the background when their sources change
+     */
+    private boolean                         watch;
 
     /**
      * Instantiates ConfigHandler class
      */
     ConfigHandler() {
         this.beanMap = new HashMap<>();
+        this.directoryIndex = new DirectoryIndex();
+        this.cacheSize = ArtifactCache.DEFAULT_CACHE_SIZE;
+        this.compileQueue = CompilerFilter.DEFAULT_COMPILE_QUEUE;
+        this.compileThreads = Runtime.getRuntime().availableProcessors();
+        this.compressionLevel = ArtifactCache.DEFAULT_COMPRESSION_LEVEL;
+        this.connectTimeout = RemoteFetcher.DEFAULT_CONNECT_TIMEOUT;
+        this.diskCacheSize = CompilationCache.DEFAULT_SIZE;
+        this.mmapThreshold = ArtifactCache.DEFAULT_MMAP_THRESHOLD;
+        this.readTimeout = RemoteFetcher.DEFAULT_READ_TIMEOUT;
     }
 
     @Override
@@ -116,23 +253,52 @@ extends DefaultHandler {
         this.nodeValue = new String(ch, start, length);
     }
 
+    /**
+     * Validates the dependencies and the load order of the merged files and creates their dependency graph
+     * @see org.xml.sax.helpers.DefaultHandler#endDocument()
+     */
+    @Override
+    public void endDocument()
+    throws SAXException {
+        try {
+            this.buildScheduler = new BuildScheduler(this.beanMap);
+            ResourceManifest.getLoadOrder(this.beanMap);
+        } catch (final IllegalArgumentException e) {
+            throw new SAXException("Invalid dependencies: " + e.getMessage(), e); //$NON-NLS-1$
+        }
+    }
+
     @Override
     public void endElement(final String uri, final String localName, final String qName)
     throws SAXException {
         switch (qName) {
         case XMLAttributes.TG_TO_FILE:
             // new file ends. add the created bean into the map
+            this.bean.setDirectoryIndex(this.directoryIndex);
             this.beanMap.put(this.bean.getMergedFile(), this.bean);
             break;
         case XMLAttributes.TG_NAME:
             // name tag ends. copy the name value from string
             this.bean.setName(this.nodeValue);
             break;
+        case XMLAttributes.TG_CHUNK:
+            // chunk tag ends. add the chunk to the bean
+            try {
+                this.bean.addChunk(this.chunk);
+            } catch (final IllegalArgumentException e) {
+                throw new SAXException("Invalid chunk: " + e.getMessage(), e); //$NON-NLS-1$
+            }
+            this.chunk = null;
+            break;
         case XMLAttributes.TG_INCLUDE:
         case XMLAttributes.TG_EXCLUDE:
-            // include/exclude tag ends. add the file finder element to the search pattern
+            // include/exclude tag ends. add the file finder element to the search pattern of the chunk or of the bean
             this.fileFinder.setPattern(this.nodeValue);
-            this.bean.addSearchPattern(this.fileFinder);
+            if (null != this.chunk) {
+                this.chunk.addSearchPattern(this.fileFinder);
+            } else {
+                this.bean.addSearchPattern(this.fileFinder);
+            }
             break;
         default:
             // for all other cases, do nothing
@@ -140,6 +306,94 @@ extends DefaultHandler {
         }
     }
 
+    /**
+     * @return the build scheduler
+     * @see ConfigHandler#buildScheduler
+     */
+    public BuildScheduler getBuildScheduler() {
+        return this.buildScheduler;
+    }
+
+    /**
+     * @return the cache size
+     * @see ConfigHandler#cacheSize
+     */
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * @return the compile queue
+     * @see ConfigHandler#compileQueue
+     */
+    public int getCompileQueue() {
+        return this.compileQueue;
+    }
+
+    /**
+     * @return the compile threads
+     * @see ConfigHandler#compileThreads
+     */
+    public int getCompileThreads() {
+        return this.compileThreads;
+    }
+
+    /**
+     * @return the compression level
+     * @see ConfigHandler#compressionLevel
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @return the connect timeout
+     * @see ConfigHandler#connectTimeout
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * @return the directory index
+     * @see ConfigHandler#directoryIndex
+     */
+    public DirectoryIndex getDirectoryIndex() {
+        return this.directoryIndex;
+    }
+
+    /**
+     * @return the disk cache directory
+     * @see ConfigHandler#diskCache
+     */
+    public String getDiskCache() {
+        return this.diskCache;
+    }
+
+    /**
+     * @return the disk cache size
+     * @see ConfigHandler#diskCacheSize
+     */
+    public long getDiskCacheSize() {
+        return this.diskCacheSize;
+    }
+
+    /**
+     * @return the mmap threshold
+     * @see ConfigHandler#mmapThreshold
+     */
+    public long getMmapThreshold() {
+        return this.mmapThreshold;
+    }
+
+    /**
+     * @return the read timeout
+     * @see ConfigHandler#readTimeout
+     */
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
     /**
      * @return the root compilation level
      * @see ConfigHandler#rootCompilationLevel
@@ -148,6 +402,30 @@ extends DefaultHandler {
         return this.rootCompilationLevel;
     }
 
+    /**
+     * @return the fallback flag
+     * @see ConfigHandler#fallback
+     */
+    public boolean isFallback() {
+        return this.fallback;
+    }
+
+    /**
+     * @return the warm up flag
+     * @see ConfigHandler#warmUp
+     */
+    public boolean isWarmUp() {
+        return this.warmUp;
+    }
+
+    /**
+     * @return the watch flag
+     * @see ConfigHandler#watch
+     */
+    public boolean isWatch() {
+        return this.watch;
+    }
+
     @Override
     public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
     throws SAXException {
@@ -158,6 +436,36 @@ extends DefaultHandler {
             if (null != attributes.getValue(XMLAttributes.ATTR_COMPILATION_LEVEL)) {
                 this.rootCompilationLevel = CompilationLevel.valueOf(attributes.getValue(XMLAttributes.ATTR_COMPILATION_LEVEL));
             }
+            // root tag also configures the artifact cache
+            if (null != attributes.getValue(XMLAttributes.ATTR_CACHE_SIZE)) {
+                this.cacheSize = Long.parseLong(attributes.getValue(XMLAttributes.ATTR_CACHE_SIZE));
+            }
+            if (null != attributes.getValue(XMLAttributes.ATTR_COMPILE_QUEUE)) {
+                this.compileQueue = Integer.parseInt(attributes.getValue(XMLAttributes.ATTR_COMPILE_QUEUE));
+            }
+            if (null != attributes.getValue(XMLAttributes.ATTR_COMPILE_THREADS)) {
+                this.compileThreads = Integer.parseInt(attributes.getValue(XMLAttributes.ATTR_COMPILE_THREADS));
+            }
+            if (null != attributes.getValue(XMLAttributes.ATTR_COMPRESSION_LEVEL)) {
+                this.compressionLevel = Integer.parseInt(attributes.getValue(XMLAttributes.ATTR_COMPRESSION_LEVEL));
+            }
+            if (null != attributes.getValue(XMLAttributes.ATTR_CONNECT_TIMEOUT)) {
+                this.connectTimeout = Integer.parseInt(attributes.getValue(XMLAttributes.ATTR_CONNECT_TIMEOUT));
+            }
+            this.diskCache = attributes.getValue(XMLAttributes.ATTR_DISK_CACHE);
+            if (null != attributes.getValue(XMLAttributes.ATTR_DISK_CACHE_SIZE)) {
+                this.diskCacheSize = Long.parseLong(attributes.getValue(XMLAttributes.ATTR_DISK_CACHE_SIZE));
+            }
+            // drafts are served unless disabled
+            this.fallback = !"false".equals(attributes.getValue(XMLAttributes.ATTR_FALLBACK)); //$NON-NLS-1$
+            if (null != attributes.getValue(XMLAttributes.ATTR_MMAP_THRESHOLD)) {
+                this.mmapThreshold = Long.parseLong(attributes.getValue(XMLAttributes.ATTR_MMAP_THRESHOLD));
+            }
+            if (null != attributes.getValue(XMLAttributes.ATTR_READ_TIMEOUT)) {
+                this.readTimeout = Integer.parseInt(attributes.getValue(XMLAttributes.ATTR_READ_TIMEOUT));
+            }
+            this.warmUp = Boolean.parseBoolean(attributes.getValue(XMLAttributes.ATTR_WARM_UP));
+            this.watch = Boolean.parseBoolean(attributes.getValue(XMLAttributes.ATTR_WATCH));
             break;
         case XMLAttributes.TG_SCRIPTS:
         case XMLAttributes.TG_TEMPLATES:
@@ -171,6 +479,9 @@ extends DefaultHandler {
             }
             this.templateBean = new CompilerBean(compilationLevel, attributes.getValue(XMLAttributes.ATTR_BASE_DIR),
                 attributes.getValue(XMLAttributes.ATTR_MERGE_DIR), FileType.fromString(qName));
+            if (null != attributes.getValue(XMLAttributes.ATTR_INLINE_THRESHOLD)) {
+                this.templateBean.setInlineThreshold(Long.parseLong(attributes.getValue(XMLAttributes.ATTR_INLINE_THRESHOLD)));
+            }
             break;
         case XMLAttributes.TG_TO_FILE:
             // new file starts. create a new bean form template
@@ -179,6 +490,9 @@ extends DefaultHandler {
             if (null != attributes.getValue(XMLAttributes.ATTR_DEPENDENCY)) {
                 this.bean.setDependencies(attributes.getValue(XMLAttributes.ATTR_DEPENDENCY));
             }
+            if (null != attributes.getValue(XMLAttributes.ATTR_LOAD_AFTER)) {
+                this.bean.setLoadAfter(attributes.getValue(XMLAttributes.ATTR_LOAD_AFTER));
+            }
             if (null != attributes.getValue(XMLAttributes.ATTR_MERGE_DIR)) {
                 this.bean.setMergeDirectory(attributes.getValue(XMLAttributes.ATTR_MERGE_DIR));
             }
@@ -188,6 +502,17 @@ extends DefaultHandler {
             if (null != attributes.getValue(XMLAttributes.ATTR_COMPILATION_LEVEL)) {
                 this.bean.setCompilationLevel(CompilationLevel.valueOf(attributes.getValue(XMLAttributes.ATTR_COMPILATION_LEVEL)));
             }
+            // the resources of a file can opt out of the inlining of its category
+            if ("false".equals(attributes.getValue(XMLAttributes.ATTR_INLINE))) { //$NON-NLS-1$
+                this.bean.setInlineThreshold(0);
+            }
+            break;
+        case XMLAttributes.TG_CHUNK:
+            // only scripts are compiled with the closure module support
+            if (FileType.SCRIPT != this.bean.getFileType()) {
+                throw new SAXException(String.format("'%s' is not a script and cannot have chunks", this.bean.getMergedFile())); //$NON-NLS-1$
+            }
+            this.chunk = new ScriptChunk(attributes.getValue(XMLAttributes.ATTR_NAME), attributes.getValue(XMLAttributes.ATTR_DEPENDENCY));
             break;
         case XMLAttributes.TG_INCLUDE:
             // include tag starts. add the file finder element to the search pattern
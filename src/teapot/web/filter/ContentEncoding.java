@@ -0,0 +1,96 @@
+package teapot.web.filter;
+
+import java.util.Locale;
+
+/**
+ * Available content encodings for the compiled artifacts
+ * @see Artifact
+ */
+enum ContentEncoding {
+    /**
+     * no encoding. The content is sent as it is
+     */
+    IDENTITY("identity"), //$NON-NLS-1$
+    /**
+     * gzip encoding
+     */
+    GZIP("gzip"), //$NON-NLS-1$
+    /**
+     * deflate (zlib) encoding
+     */
+    DEFLATE("deflate"); //$NON-NLS-1$
+    /**
+     * Picks the best encoding accepted by the client as per the Accept-Encoding header. gzip is preferred over deflate if the client accepts both
+     * with the same quality
+     * @param acceptEncoding the value of the Accept-Encoding request header. can be null
+     * @return the encoding to use. IDENTITY if the client does not accept any compressed encoding
+     */
+    static ContentEncoding negotiate(final String acceptEncoding) {
+        if (null == acceptEncoding) {
+            return ContentEncoding.IDENTITY;
+        }
+        ContentEncoding best = ContentEncoding.IDENTITY;
+        float bestQuality = 0;
+        float wildcardQuality = -1;
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        for (final String coding : acceptEncoding.split(",")) { //$NON-NLS-1$
+            final String[] parts = coding.trim().split(";"); //$NON-NLS-1$
+            final String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            float quality = 1;
+            for (int index = 1; index < parts.length; index++) {
+                final String parameter = parts[index].trim();
+                if (parameter.startsWith("q=")) { //$NON-NLS-1$
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if ("*".equals(name)) { //$NON-NLS-1$
+                wildcardQuality = quality;
+            } else if (ContentEncoding.GZIP.token.equals(name) || "x-gzip".equals(name)) { //$NON-NLS-1$
+                gzipQuality = quality;
+            } else if (ContentEncoding.DEFLATE.token.equals(name)) {
+                deflateQuality = quality;
+            }
+        }
+        // codings not listed get the quality of the wildcard
+        if (gzipQuality < 0) {
+            gzipQuality = wildcardQuality;
+        }
+        if (deflateQuality < 0) {
+            deflateQuality = wildcardQuality;
+        }
+        if (gzipQuality > bestQuality) {
+            best = ContentEncoding.GZIP;
+            bestQuality = gzipQuality;
+        }
+        if (deflateQuality > bestQuality) {
+            best = ContentEncoding.DEFLATE;
+        }
+        return best;
+    }
+
+    /**
+     * the content coding token used in the http headers
+     */
+    private final String token;
+
+    /**
+     * Private constructor
+     * @param token the content coding token used in the http headers
+     */
+    private ContentEncoding(final String token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns the content coding token used in the http headers
+     * @return the content coding token used in the http headers
+     */
+    String getToken() {
+        return this.token;
+    }
+}
@@ -0,0 +1,225 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An index of the files under the base directories of the merged files. Every base directory is walked once and its listing is reused by all
+ * merges searching it, till a file is created or deleted in it. A created or deleted file changes the modification time of its directory, which
+ * is checked before a listing is reused. The {@link SourceWatcher} also invalidates the listings as soon as it sees such a change.
+ * <p>
+ * The merged files and the other outputs written into the base directories are not listed. As writing them changes the modification time of
+ * their directories too, the entries of a directory whose modification time changed are compared without the outputs, so that merges do not
+ * force the base directories to be walked again
+ * @see CompilerBean
+ */
+class DirectoryIndex {
+    /**
+     * The files under a directory, in the order they are visited by the file system walk
+     */
+    private static class Listing {
+        /**
+         * map of every directory in the listing and its modification time when its entries were last read
+         */
+        private final Map<Path, FileTime>  directories;
+        /**
+         * map of every directory in the listing and its entries, without the outputs
+         */
+        private final Map<Path, Set<Path>> entries;
+        /**
+         * the paths of all files, relative to the listed directory
+         */
+        private final List<Path>           files;
+
+        /**
+         * Instantiates Listing
+         * @param directories map of every directory in the listing and its modification time when it was walked
+         * @param entries map of every directory in the listing and its entries, without the outputs
+         * @param files the paths of all files, relative to the listed directory
+         */
+        Listing(final Map<Path, FileTime> directories, final Map<Path, Set<Path>> entries, final List<Path> files) {
+            this.directories = new ConcurrentHashMap<>(directories);
+            this.entries = entries;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        /**
+         * Checks if no file was created or deleted in any of the directories since they were walked, except outputs. The entries of a directory
+         * whose modification time changed are read again and compared with the listed ones
+         * @param outputs the absolute paths of the outputs
+         * @return true if the listing is still valid
+         */
+        boolean isCurrent(final Set<Path> outputs) {
+            for (final Map.Entry<Path, FileTime> entry : this.directories.entrySet()) {
+                try {
+                    final FileTime lastModifiedTime = Files.getLastModifiedTime(entry.getKey());
+                    if (lastModifiedTime.equals(entry.getValue())) {
+                        continue;
+                    }
+                    // outputs added after the walk are left out of the listed entries too
+                    final Set<Path> listedEntries = new HashSet<>();
+                    for (final Path listedEntry : this.entries.get(entry.getKey())) {
+                        if (!outputs.contains(listedEntry.normalize())) {
+                            listedEntries.add(listedEntry);
+                        }
+                    }
+                    if (!DirectoryIndex.readEntries(entry.getKey(), outputs).equals(listedEntries)) {
+                        return false;
+                    }
+                    // only outputs changed. the time is read before the entries, so a change while reading them is seen by the next check
+                    this.directories.put(entry.getKey(), lastModifiedTime);
+                } catch (final IOException e) {
+                    // the directory is deleted
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * the LOG object
+     */
+    private static final Logger                LOG = Logger.getLogger(DirectoryIndex.class);
+    /**
+     * map of the absolute path of the indexed directories and their listings
+     */
+    private final ConcurrentMap<Path, Listing> listings;
+    /**
+     * the normalized absolute paths of the files and directories written by the merges, which are not listed
+     */
+    private final Set<Path>                    outputs;
+
+    /**
+     * Reads the entries of a directory
+     * @param directory the absolute path of the directory
+     * @param outputs the normalized absolute paths of the outputs, which are left out
+     * @return the absolute paths of the entries of the directory
+     * @throws IOException if the directory cannot be read
+     */
+    private static Set<Path> readEntries(final Path directory, final Set<Path> outputs)
+    throws IOException {
+        final Set<Path> entries = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path entry : stream) {
+                if (!outputs.contains(entry.normalize())) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Instantiates DirectoryIndex
+     */
+    DirectoryIndex() {
+        this.listings = new ConcurrentHashMap<>();
+        this.outputs = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    }
+
+    /**
+     * Walks the directory and lists all files under it
+     * @param directory the absolute path of the directory
+     * @return the listing of the directory
+     * @throws IOException if the directory cannot be walked
+     */
+    private Listing walk(final Path directory)
+    throws IOException {
+        final Map<Path, FileTime> directories = new HashMap<>();
+        final Map<Path, Set<Path>> entries = new HashMap<>();
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (DirectoryIndex.this.outputs.contains(dir.normalize())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(dir, attrs.lastModifiedTime());
+                entries.put(dir, new HashSet<Path>());
+                if (null != dir.getParent() && entries.containsKey(dir.getParent())) {
+                    entries.get(dir.getParent()).add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (!DirectoryIndex.this.outputs.contains(file.normalize())) {
+                    entries.get(file.getParent()).add(file);
+                    files.add(directory.relativize(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                DirectoryIndex.LOG.error(file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        DirectoryIndex.LOG.debug(String.format("indexed %d files in '%s'", Integer.valueOf(files.size()), directory)); //$NON-NLS-1$
+        return new Listing(directories, entries, files);
+    }
+
+    /**
+     * Adds a file or directory written by the merges. It is left out of the listings and its changes do not invalidate them
+     * @param output the absolute path of the file or directory
+     */
+    void addOutput(final Path output) {
+        this.outputs.add(output.normalize());
+    }
+
+    /**
+     * Returns all files under the directory, in the order of the file system walk. The directory is walked only if it is not indexed yet, or if
+     * a file was created or deleted in it since it was indexed
+     * @param directory the absolute path of the directory
+     * @return the paths of the files, relative to the directory
+     * @throws IOException if the directory cannot be walked
+     */
+    List<Path> getFiles(final Path directory)
+    throws IOException {
+        Listing listing = this.listings.get(directory);
+        if (null == listing || !listing.isCurrent(this.outputs)) {
+            listing = this.walk(directory);
+            this.listings.put(directory, listing);
+        }
+        return listing.files;
+    }
+
+    /**
+     * Invalidates the listings of all indexed directories containing the file
+     * @param file the absolute path of the created or deleted file
+     */
+    void invalidate(final Path file) {
+        for (final Path directory : this.listings.keySet()) {
+            if (file.startsWith(directory)) {
+                this.listings.remove(directory);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the listings of all indexed directories
+     */
+    void invalidateAll() {
+        this.listings.clear();
+    }
+}
@@ -1,28 +1,53 @@
 package teapot.web.filter;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.DatatypeConverter;
 
 import org.apache.log4j.Logger;
 
-import com.google.common.css.compiler.commandline.ClosureCommandLineCompiler;
-import com.google.javascript.jscomp.CommandLineRunner;
+import com.google.common.css.JobDescription;
+import com.google.common.css.JobDescriptionBuilder;
+import com.google.common.css.SourceCode;
+import com.google.common.css.compiler.ast.BasicErrorManager;
+import com.google.common.css.compiler.ast.CssFunctionNode;
+import com.google.common.css.compiler.ast.CssTree;
+import com.google.common.css.compiler.ast.CssValueNode;
+import com.google.common.css.compiler.ast.DefaultTreeVisitor;
+import com.google.common.css.compiler.ast.GssError;
+import com.google.common.css.compiler.ast.GssParser;
+import com.google.common.css.compiler.ast.GssParserException;
+import com.google.common.css.compiler.passes.CompactPrinter;
+import com.google.common.css.compiler.passes.PassRunner;
+import com.google.common.css.compiler.passes.PrettyPrinter;
 import com.google.javascript.jscomp.CompilationLevel;
 import com.google.javascript.jscomp.CompilerOptions;
+import com.google.javascript.jscomp.JSModule;
 import com.google.javascript.jscomp.Result;
 import com.google.javascript.jscomp.SourceFile;
 import com.google.template.soy.SoyFileSet;
@@ -33,129 +58,508 @@ import com.google.template.soy.msgs.SoyMsgBundle;
  * This is a utility class for compiling javascript, css and template files.
  */
 class FileCompiler {
+    /**
+     * A resource used with a relative url() reference in a stylesheet
+     */
+    private static class StyleResource {
+        /**
+         * the path the resource is moved to, relative to the merged file as the reference is relative to the stylesheet
+         */
+        private final Path         destination;
+        /**
+         * the argument of the url() function referencing the resource
+         */
+        private final CssValueNode reference;
+        /**
+         * the resource, resolved relative to the stylesheet using it
+         */
+        private final Path         source;
+
+        /**
+         * Instantiates StyleResource
+         * @param reference the argument of the url() function referencing the resource
+         * @param source the resource, resolved relative to the stylesheet using it
+         * @param destination the path the resource is moved to
+         */
+        StyleResource(final CssValueNode reference, final Path source, final Path destination) {
+            this.reference = reference;
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+
+    /**
+     * the separator written after a statically merged file not ending with a newline
+     */
+    private static final byte[]         SEPARATOR           = "\n".getBytes(StandardCharsets.UTF_8); //$NON-NLS-1$
+    /**
+     * the state shared by all closure compilations
+     */
+    private static final ClosureContext CLOSURE_CONTEXT     = new ClosureContext();
     /**
      * the LOG object
      */
-    private static final Logger  LOG                      = Logger.getLogger(FileCompiler.class);
+    private static final Logger         LOG                 = Logger.getLogger(FileCompiler.class);
     /**
-     * Resource locator pattern for style files
+     * the pool copying the resources used by the stylesheets in parallel
      */
-    private static final Pattern RESOURCE_LOCATOR_PATTERN = Pattern.compile("url\\(\\s*[\"']?(.*?)[\"']?\\s*\\)", Pattern.CASE_INSENSITIVE //$NON-NLS-1$
-                                                              | Pattern.DOTALL | Pattern.MULTILINE);
+    private static final ForkJoinPool   RESOURCE_POOL       = new ForkJoinPool();
+    /**
+     * the extension of the temporary files the merged files are written under
+     */
+    private static final String         TEMPORARY_EXTENSION = ".tmp"; //$NON-NLS-1$
 
     /**
-     * Moves all resources used by the included file into the merged file directory so that the relative paths do not break
-     * @param sourceFile the file which has to be checked for resources
+     * Copies the resource, unless the destination is an unchanged copy. A destination with the same size and modification time may be one, and
+     * its content is compared: an edited resource may keep its size and its modification time
+     * @param source the resource used by a stylesheet
+     * @param destination the copy of the resource next to the merged file
+     * @throws IOException if the copy fails
+     */
+    private static void copyResource(final Path source, final Path destination)
+    throws IOException {
+        if (Files.isRegularFile(destination) && Files.size(destination) == Files.size(source)
+            && Files.getLastModifiedTime(destination).equals(Files.getLastModifiedTime(source)) && FileCompiler.hasSameContent(source, destination)) {
+            return;
+        }
+        FileCompiler.LOG.debug("moving static resource: " + source); //$NON-NLS-1$
+        Files.createDirectories(destination.getParent());
+        Files.copy(source, destination, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Finds the resources used with relative url() references in the parsed stylesheets. Every resource is resolved relative to the stylesheet
+     * using it, and has to be moved to the same path relative to the merged file so that the relative paths do not break
+     * @param tree the parsed stylesheets
      * @param destinationPath the file relative to which the resources have to be moved
-     * @param compilationLevel the file compilation level
-     * @throws IOException if file parsing fails
-     */
-    private static void moveResources(final Path sourceFile, final Path destinationPath, final CompilationLevel compilationLevel)
-    throws IOException {
-        // read all lines and merge them
-        final List<String> lines = Files.readAllLines(sourceFile, Charset.defaultCharset());
-        final StringBuilder allLines = new StringBuilder();
-        for (final String line : lines) {
-            allLines.append(line);
-        }
-        final Matcher matcher = FileCompiler.RESOURCE_LOCATOR_PATTERN.matcher(allLines);
-        while (matcher.find()) {
-            final String fileName = matcher.group(1);
-            final Path destination = destinationPath.getParent().resolve(fileName);
-            // if the destination directory does not exist, make it
-            destination.getParent().toFile().mkdirs();
-            // if the destination file exists, and compilation level is not null (debugging is off) then skip the file copy
-            if (destination.toFile().exists() && null != compilationLevel) {
+     * @return the resources, in the order they are referenced
+     */
+    private static List<StyleResource> findResources(final CssTree tree, final Path destinationPath) {
+        final List<StyleResource> resources = new ArrayList<>();
+        tree.getVisitController().startVisit(new DefaultTreeVisitor() {
+            @Override
+            public boolean enterFunctionNode(final CssFunctionNode function) {
+                if (!"url".equalsIgnoreCase(function.getFunctionName()) || null == function.getSourceCodeLocation()) { //$NON-NLS-1$
+                    return true;
+                }
+                final Path sourceFile = Paths.get(function.getSourceCodeLocation().getSourceCode().getFileName());
+                for (final CssValueNode argument : function.getArguments().getChildren()) {
+                    // drop the quotes, the query and the fragment of the reference
+                    final String fileName = argument.getValue().replaceAll("^[\"']|[\"']$", "").split("[?#]")[0]; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    // absolute paths, external urls and data uris are not moved
+                    if (fileName.isEmpty() || fileName.startsWith("/") || fileName.contains(":")) { //$NON-NLS-1$ //$NON-NLS-2$
+                        continue;
+                    }
+                    resources.add(new StyleResource(argument, sourceFile.getParent().resolve(fileName).normalize(), destinationPath.getParent()
+                        .resolve(fileName).normalize()));
+                }
+                return true;
+            }
+        });
+        return resources;
+    }
+
+    /**
+     * Compares the content of two files
+     * @param file the file
+     * @param other the file to compare it with
+     * @return true if both files have the same content
+     * @throws IOException if a file cannot be read
+     */
+    private static boolean hasSameContent(final Path file, final Path other)
+    throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+            InputStream otherIn = new BufferedInputStream(Files.newInputStream(other))) {
+            int read;
+            do {
+                read = in.read();
+                if (read != otherIn.read()) {
+                    return false;
+                }
+            } while (read >= 0);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the references of the resources not larger than the threshold with data uris holding their content
+     * @param resources the resources used by the stylesheets
+     * @param inlineThreshold the size in bytes up to which resources are inlined. 0 if no resource is inlined
+     * @return the resources which are not inlined, and have to be moved
+     * @throws IOException if a resource cannot be read
+     */
+    private static List<StyleResource> inlineResources(final List<StyleResource> resources, final long inlineThreshold)
+    throws IOException {
+        if (inlineThreshold <= 0) {
+            return resources;
+        }
+        final List<StyleResource> movedResources = new ArrayList<>();
+        for (final StyleResource resource : resources) {
+            if (Files.size(resource.source) > inlineThreshold) {
+                movedResources.add(resource);
                 continue;
             }
-            // otherwise, copy the file
-            FileCompiler.LOG.debug("moving static resource: " + fileName); //$NON-NLS-1$
-            Files
-                .copy(sourceFile.getParent().resolve(fileName), destination, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+            String contentType = URLConnection.guessContentTypeFromName(resource.source.getFileName().toString());
+            if (null == contentType) {
+                contentType = Files.probeContentType(resource.source);
+            }
+            FileCompiler.LOG.debug("inlining static resource: " + resource.source); //$NON-NLS-1$
+            resource.reference.setValue(String.format("data:%s;base64,%s", null == contentType ? "application/octet-stream" : contentType, //$NON-NLS-1$ //$NON-NLS-2$
+                DatatypeConverter.printBase64Binary(Files.readAllBytes(resource.source))));
         }
+        return movedResources;
     }
 
     /**
-     * Statically merges all input files into the merge file without any processing
+     * Moves all resources used by the stylesheets into the merged file directory in parallel, each of them once
+     * @param resources the resources used by the stylesheets
+     * @throws IOException if any of the copies fails
+     */
+    private static void moveResources(final List<StyleResource> resources)
+    throws IOException {
+        // several stylesheets can use the same resource. copy it once
+        final Map<Path, Path> copiedResources = new LinkedHashMap<>();
+        for (final StyleResource resource : resources) {
+            if (!copiedResources.containsKey(resource.destination)) {
+                copiedResources.put(resource.destination, resource.source);
+            }
+        }
+        final List<Callable<Void>> copies = new ArrayList<>(copiedResources.size());
+        for (final Map.Entry<Path, Path> resource : copiedResources.entrySet()) {
+            copies.add(new Callable<Void>() {
+                @Override
+                public Void call()
+                throws IOException {
+                    FileCompiler.copyResource(resource.getValue(), resource.getKey());
+                    return null;
+                }
+            });
+        }
+        try {
+            for (final Future<Void> copy : FileCompiler.RESOURCE_POOL.invokeAll(copies)) {
+                copy.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while moving the static resources"); //$NON-NLS-1$
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads and parses the stylesheets into one tree
+     * @param inputs the stylesheets
+     * @return the parsed stylesheets
+     * @throws IOException if the stylesheets cannot be parsed
+     */
+    private static CssTree parseStyles(final List<SourceCode> inputs)
+    throws IOException {
+        try {
+            return new GssParser(inputs).parse();
+        } catch (final GssParserException e) {
+            throw new IOException("Parsing the stylesheets failed", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Reads the stylesheets
+     * @param includedFiles the stylesheet files
+     * @return the stylesheets, named by their paths
+     * @throws IOException if any of the files cannot be read
+     */
+    private static List<SourceCode> readStyles(final List<Path> includedFiles)
+    throws IOException {
+        final List<SourceCode> inputs = new ArrayList<>(includedFiles.size());
+        for (final Path includedFile : includedFiles) {
+            inputs.add(new SourceCode(includedFile.toString(), new String(Files.readAllBytes(includedFile), StandardCharsets.UTF_8)));
+        }
+        return inputs;
+    }
+
+    /**
+     * Statically merges all input files into the merge file without any processing. The bytes of the files are copied unchanged by the file
+     * system, without being decoded or held in memory. A newline is added after every file not ending with one, so that the last line of a file
+     * is never joined with the first line of the next one
      * @param includedFiles the list of Paths to be included in the compilation and aggregation
      * @param mergedFile the final file output
+     * @param output the stream to write the merged bytes to while they are written to the merge file. can be null
      * @throws IOException if the merge fails
      */
-    private static void staticMerge(final List<Path> includedFiles, final File mergedFile)
+    private static void staticMerge(final List<Path> includedFiles, final File mergedFile, final OutputStream output)
     throws IOException {
-        final List<String> lines = new ArrayList<>();
-        for (final Path file : includedFiles) {
-            FileCompiler.LOG.debug(String.format("merging '%s'", file)); //$NON-NLS-1$
-            lines.addAll(Files.readAllLines(file, Charset.defaultCharset()));
+        // the channel is not closed as closing it would close the output stream
+        final WritableByteChannel outputChannel = null == output ? null : Channels.newChannel(output);
+        try (FileChannel mergedChannel = FileChannel.open(mergedFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+            for (final Path file : includedFiles) {
+                FileCompiler.LOG.debug(String.format("merging '%s'", file)); //$NON-NLS-1$
+                try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final long size = fileChannel.size();
+                    FileCompiler.transfer(fileChannel, size, mergedChannel);
+                    if (null != outputChannel) {
+                        FileCompiler.transfer(fileChannel, size, outputChannel);
+                    }
+                    final ByteBuffer lastByte = ByteBuffer.allocate(1);
+                    if (size > 0 && fileChannel.read(lastByte, size - 1) > 0 && '\n' != lastByte.get(0)) {
+                        mergedChannel.write(ByteBuffer.wrap(FileCompiler.SEPARATOR));
+                        if (null != output) {
+                            output.write(FileCompiler.SEPARATOR);
+                        }
+                    }
+                }
+            }
         }
-        Files.write(mergedFile.toPath(), lines, Charset.defaultCharset(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
-            StandardOpenOption.WRITE);
     }
 
     /**
-     * Does an atomic compilation of the file and replaces it with the compiled version
-     * @param path the file path
-     * @param compilationLevel the default compilation level
-     * @return the FileType corresponding to the compiled file
-     * @throws IOException if the file reading/ writing fails
+     * Transfers the whole file to the target channel. The transfer is done by the file system where possible
+     * @param fileChannel the channel of the file to transfer
+     * @param size the size of the file
+     * @param target the channel to transfer the file to
+     * @throws IOException if the transfer fails
+     */
+    private static void transfer(final FileChannel fileChannel, final long size, final WritableByteChannel target)
+    throws IOException {
+        long position = 0;
+        while (position < size) {
+            position += fileChannel.transferTo(position, size - position, target);
+        }
+    }
+
+    /**
+     * Compiles the input files into the merged file with the compiler of the file type. If the same inputs were compiled before with the same
+     * options, the compiled file is restored from the compilation cache instead
+     * @param fileType the type of the files
+     * @param includedFiles the list of Paths to be included in the compilation and aggregation
+     * @param mergedFile the final file output
+     * @param compilationLevel compilation level to be used
+     * @param inlineThreshold the size in bytes up to which the resources used by stylesheets are inlined as data uris. 0 if no resource is
+     *            inlined
+     * @param compilationCache the compilation cache. null if compilations are not cached
+     * @param output the stream to write the compiled file to. Statically merged scripts are written to it while they are merged, other files
+     *            once they are compiled. can be null
+     * @throws IOException when reading any of the included files or writing output to the merged file fails
+     */
+    static void compile(final FileType fileType, final List<Path> includedFiles, final File mergedFile, final CompilationLevel compilationLevel,
+        final long inlineThreshold, final CompilationCache compilationCache, final OutputStream output)
+    throws IOException {
+        FileCompiler.compile(fileType, includedFiles, mergedFile, mergedFile.toPath(), compilationLevel, inlineThreshold, compilationCache, output);
+    }
+
+    /**
+     * Compiles the input files into the merged file with the compiler of the file type, for a file served from another path than the merged
+     * file. The resources used by stylesheets are moved relative to the served file
+     * @param fileType the type of the files
+     * @param includedFiles the list of Paths to be included in the compilation and aggregation
+     * @param mergedFile the final file output
+     * @param servedFile the file the merged file is served as
+     * @param compilationLevel compilation level to be used
+     * @param inlineThreshold the size in bytes up to which the resources used by stylesheets are inlined as data uris. 0 if no resource is
+     *            inlined
+     * @param compilationCache the compilation cache. null if compilations are not cached
+     * @param output the stream to write the compiled file to. can be null
+     * @throws IOException when reading any of the included files or writing output to the merged file fails
      */
-    static FileType compileAtomic(final Path path, final CompilationLevel compilationLevel)
+    static void compile(final FileType fileType, final List<Path> includedFiles, final File mergedFile, final Path servedFile,
+        final CompilationLevel compilationLevel, final long inlineThreshold, final CompilationCache compilationCache, final OutputStream output)
     throws IOException {
-        final FileType fileType = FileType.fromPath(path);
-        if (null == fileType) {
-            FileCompiler.LOG.error("Invalid file requested."); //$NON-NLS-1$
-            throw new FileNotFoundException("Invalid File Name"); //$NON-NLS-1$
+        // the content of the inlined resources is not part of the cache key. stylesheets inlining resources are not cached
+        final boolean cached = null != compilationCache && (FileType.STYLE != fileType || inlineThreshold <= 0);
+        final String key = cached ? CompilationCache.getKey(fileType, compilationLevel, includedFiles) : null;
+        for (final Path includedFile : includedFiles) {
+            CompileMetrics.addInputBytes(Files.size(includedFile));
         }
-        FileCompiler.LOG.info(String.format("compiling %s in '%s'...", fileType, path)); //$NON-NLS-1$
-        // create or override the backup file if the source file is new or modified recently
-        final File backupFile = new File(path.toAbsolutePath().toString() + ".bak");//$NON-NLS-1$ 
-        if (Files.getLastModifiedTime(path).toMillis() != 0) {
-            FileCompiler.LOG.debug("File is new or modified recently. Creating backup for the file."); //$NON-NLS-1$
-            Files.copy(path, backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final boolean restored = null != key && compilationCache.restore(key, mergedFile.toPath());
+        if (null != key) {
+            CompileMetrics.setCacheHit(restored);
         }
+        if (restored) {
+            if (FileType.STYLE == fileType) {
+                // the resources used by the styles are not part of the cached file
+                FileCompiler.moveResources(FileCompiler.findResources(FileCompiler.parseStyles(FileCompiler.readStyles(includedFiles)),
+                    servedFile));
+            }
+            if (null != output) {
+                Files.copy(mergedFile.toPath(), output);
+            }
+            CompileMetrics.setOutputBytes(mergedFile.length());
+            return;
+        }
+        final long start = System.nanoTime();
         switch (fileType) {
         case SCRIPT:
-            FileCompiler.compileJS(Arrays.asList(new Path[] { backupFile.toPath() }), path.toFile(), compilationLevel);
+            if (null == compilationLevel) {
+                FileCompiler.staticMerge(includedFiles, mergedFile, output);
+            } else {
+                FileCompiler.compileJS(includedFiles, mergedFile, compilationLevel);
+            }
             break;
         case STYLE:
-            FileCompiler.compileCSS(Arrays.asList(new Path[] { backupFile.toPath() }), path.toFile(), compilationLevel);
+            FileCompiler.compileCSS(includedFiles, mergedFile, servedFile, compilationLevel, inlineThreshold);
             break;
         case TEMPLATE:
-            FileCompiler.compileTemplates(Arrays.asList(new Path[] { backupFile.toPath() }), path.toFile(), compilationLevel);
+            FileCompiler.compileTemplates(includedFiles, mergedFile, compilationLevel);
             break;
         default:
             // this is an impossibility
             break;
         }
-        // set the file modified time to 0 post compilation so that any runtime updates can be tracked
-        Files.setLastModifiedTime(path, FileTime.fromMillis(0));
-        return fileType;
+        CompileMetrics.addCompileTime(System.nanoTime() - start);
+        CompileMetrics.setOutputBytes(mergedFile.length());
+        if (null != output && (FileType.SCRIPT != fileType || null != compilationLevel)) {
+            Files.copy(mergedFile.toPath(), output);
+        }
+        if (null != key) {
+            compilationCache.store(key, mergedFile.toPath());
+        }
+    }
+
+    /**
+     * Compiles a merged script split into chunks. The merged file is the root chunk all chunks depend on, and the files of the chunks are written
+     * next to it. With a compilation level, all chunks are compiled together with the closure module support, so that code is optimized and
+     * moved across the chunks. Otherwise every chunk is merged statically. The files are written under temporary names and replaced once all are
+     * written, so requests never read a partly written file
+     * @param includedFiles the files of the merged file
+     * @param mergedFile the merged file
+     * @param chunks the chunks, every chunk declared after the chunks it depends on
+     * @param chunkFiles map of the names of the chunks and their files
+     * @param compilationLevel compilation level to be used
+     * @throws IOException when reading any of the included files or writing the compiled files fails
+     */
+    static void compileChunks(final List<Path> includedFiles, final File mergedFile, final List<ScriptChunk> chunks,
+        final Map<String, List<Path>> chunkFiles, final CompilationLevel compilationLevel)
+    throws IOException {
+        final List<Path> inputFiles = new ArrayList<>(includedFiles);
+        for (final List<Path> files : chunkFiles.values()) {
+            inputFiles.addAll(files);
+        }
+        for (final Path inputFile : inputFiles) {
+            CompileMetrics.addInputBytes(Files.size(inputFile));
+        }
+        final long start = System.nanoTime();
+        final Map<ScriptChunk, File> outputFiles = new LinkedHashMap<>();
+        for (final ScriptChunk chunk : chunks) {
+            outputFiles.put(chunk, new File(mergedFile.getParentFile(), chunk.getFileName(mergedFile.getName())));
+        }
+        // the files are written under temporary names and moved in place, so requests never read a partly written file
+        final Map<File, Path> temporaryFiles = new LinkedHashMap<>();
+        try {
+            temporaryFiles.put(mergedFile, FileCompiler.createTemporaryFile(mergedFile));
+            for (final File outputFile : outputFiles.values()) {
+                temporaryFiles.put(outputFile, FileCompiler.createTemporaryFile(outputFile));
+            }
+            if (null == compilationLevel) {
+                FileCompiler.staticMerge(includedFiles, temporaryFiles.get(mergedFile).toFile(), null);
+                for (final ScriptChunk chunk : chunks) {
+                    FileCompiler.staticMerge(chunkFiles.get(chunk.getName()), temporaryFiles.get(outputFiles.get(chunk)).toFile(), null);
+                }
+            } else {
+                // the merged file is the root module. every chunk depends on it and on the chunks it declares
+                final JSModule root = new JSModule(mergedFile.getName());
+                for (final Path file : includedFiles) {
+                    root.add(SourceFile.fromFile(file.toFile()));
+                }
+                final Map<String, JSModule> modules = new LinkedHashMap<>();
+                for (final ScriptChunk chunk : chunks) {
+                    final JSModule module = new JSModule(chunk.getName());
+                    module.addDependency(root);
+                    for (final String dependency : chunk.getDependencies()) {
+                        module.addDependency(modules.get(dependency));
+                    }
+                    for (final Path file : chunkFiles.get(chunk.getName())) {
+                        module.add(SourceFile.fromFile(file.toFile()));
+                    }
+                    modules.put(chunk.getName(), module);
+                }
+                final List<JSModule> moduleList = new ArrayList<>(modules.size() + 1);
+                moduleList.add(root);
+                moduleList.addAll(modules.values());
+                final com.google.javascript.jscomp.Compiler compiler = new com.google.javascript.jscomp.Compiler();
+                final CompilerOptions options = FileCompiler.CLOSURE_CONTEXT.createOptions(compilationLevel);
+                final Result result = compiler.compileModules(FileCompiler.CLOSURE_CONTEXT.getExterns(), moduleList, options);
+                FileCompiler.LOG.debug("Compilation debug messages: \n" + result.debugLog); //$NON-NLS-1$
+                CompileMetrics.addIssues(result.warnings.length, result.errors.length);
+                Files.write(temporaryFiles.get(mergedFile), compiler.toSource(root).getBytes(StandardCharsets.UTF_8));
+                for (final ScriptChunk chunk : chunks) {
+                    Files.write(temporaryFiles.get(outputFiles.get(chunk)),
+                        compiler.toSource(modules.get(chunk.getName())).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            for (final Map.Entry<File, Path> entry : temporaryFiles.entrySet()) {
+                Files.move(entry.getValue(), entry.getKey().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            for (final Path temporaryFile : temporaryFiles.values()) {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+        CompileMetrics.addCompileTime(System.nanoTime() - start);
+        long outputBytes = mergedFile.length();
+        for (final File outputFile : outputFiles.values()) {
+            outputBytes += outputFile.length();
+        }
+        CompileMetrics.setOutputBytes(outputBytes);
     }
 
     /**
      * Aggregates and compresses the input file list and creates a merged css file with the contents compressed
      * @param includedFiles the list of Paths to be included in the compilation and aggregation
      * @param mergedFile the final file output
+     * @param servedFile the file the merged file is served as, relative to which the resources are moved
      * @param compilationLevel compilation level to be used
+     * @param inlineThreshold the size in bytes up to which the resources used by the stylesheets are inlined as data uris. 0 if no resource is
+     *            inlined
      * @throws IOException when reading any of the included files or writing output to the merged file fails
      */
-    static void compileCSS(final List<Path> includedFiles, final File mergedFile, final CompilationLevel compilationLevel)
+    static void compileCSS(final List<Path> includedFiles, final File mergedFile, final Path servedFile, final CompilationLevel compilationLevel,
+        final long inlineThreshold)
     throws IOException {
-        // command line usage
-        // java -jar closure-stylesheets.jar --output-file output.gss input1.css input2.css input3.css
-        final List<String> args = new ArrayList<>();
+        // every stylesheet is parsed once, in process. the resources are found and inlined before the passes rewrite the tree
+        final List<SourceCode> inputs = FileCompiler.readStyles(includedFiles);
+        final CssTree tree = FileCompiler.parseStyles(inputs);
+        FileCompiler.moveResources(FileCompiler.inlineResources(FileCompiler.findResources(tree, servedFile), inlineThreshold));
         // if compilation level is null, then use pretty print
-        if (null == compilationLevel) {
-            args.add("--pretty-print"); //$NON-NLS-1$
+        final JobDescription job = new JobDescriptionBuilder().setInputs(inputs)
+            .setOutputFormat(null == compilationLevel ? JobDescription.OutputFormat.PRETTY_PRINTED : JobDescription.OutputFormat.COMPRESSED)
+            .getJobDescription();
+        final BasicErrorManager errorManager = new BasicErrorManager() {
+            @Override
+            public void print(final String message) {
+                FileCompiler.LOG.error(message);
+            }
+
+            @Override
+            public void report(final GssError error) {
+                super.report(error);
+                CompileMetrics.addIssues(0, 1);
+            }
+
+            @Override
+            public void reportWarning(final GssError warning) {
+                super.reportWarning(warning);
+                CompileMetrics.addIssues(1, 0);
+            }
+        };
+        new PassRunner(job, errorManager).runPasses(tree);
+        if (errorManager.hasErrors()) {
+            errorManager.generateReport();
+            throw new IOException("Compiling the stylesheets failed: " + includedFiles); //$NON-NLS-1$
         }
-        args.add("--output-file"); //$NON-NLS-1$
-        args.add(mergedFile.getAbsolutePath());
-        // copy the resources
-        for (final Path includedFile : includedFiles) {
-            FileCompiler.moveResources(includedFile, mergedFile.toPath(), compilationLevel);
-            args.add(includedFile.toFile().getAbsolutePath());
+        final String css;
+        if (null == compilationLevel) {
+            final PrettyPrinter printer = new PrettyPrinter(tree.getVisitController());
+            printer.runPass();
+            css = printer.getPrettyPrintedString();
+        } else {
+            final CompactPrinter printer = new CompactPrinter(tree);
+            printer.runPass();
+            css = printer.getCompactPrintedString();
         }
-        ClosureCommandLineCompiler.main(args.toArray(new String[0]));
+        Files.write(mergedFile.toPath(), css.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -169,19 +573,31 @@ class FileCompiler {
     throws IOException {
         // if compilation level is not set. do a static merge
         if (null == compilationLevel) {
-            FileCompiler.staticMerge(includedFiles, mergedFile);
+            FileCompiler.staticMerge(includedFiles, mergedFile, null);
             return;
         }
-        final com.google.javascript.jscomp.Compiler compiler = new com.google.javascript.jscomp.Compiler();
-        final CompilerOptions options = new CompilerOptions();
-        compilationLevel.setOptionsForCompilationLevel(options);
         final List<SourceFile> input = new ArrayList<>();
         for (final Path oneFile : includedFiles) {
             input.add(SourceFile.fromFile(oneFile.toFile()));
         }
-        final Result result = compiler.compile(CommandLineRunner.getDefaultExterns(), input, options);
+        FileCompiler.compileSources(input, mergedFile, compilationLevel);
+    }
+
+    /**
+     * Compiles the javaScript sources with the closure compiler and writes the result to the merged file. The sources can be held in memory
+     * @param input the sources to compile
+     * @param mergedFile the final file output
+     * @param compilationLevel compilation level to be used
+     * @throws IOException when reading any of the sources or writing output to the merged file fails
+     */
+    static void compileSources(final List<SourceFile> input, final File mergedFile, final CompilationLevel compilationLevel)
+    throws IOException {
+        final com.google.javascript.jscomp.Compiler compiler = new com.google.javascript.jscomp.Compiler();
+        final CompilerOptions options = FileCompiler.CLOSURE_CONTEXT.createOptions(compilationLevel);
+        final Result result = compiler.compile(FileCompiler.CLOSURE_CONTEXT.getExterns(), input, options);
         FileCompiler.LOG.debug("Compilation debug messages: \n" + result.debugLog); //$NON-NLS-1$
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mergedFile))) {
+        CompileMetrics.addIssues(result.warnings.length, result.errors.length);
+        try (BufferedWriter writer = Files.newBufferedWriter(mergedFile.toPath(), StandardCharsets.UTF_8)) {
             writer.write(compiler.toSource());
             writer.flush();
             writer.close();
@@ -197,33 +613,73 @@ class FileCompiler {
      */
     static void compileTemplates(final List<Path> includedFiles, final File mergedFile, final CompilationLevel compilationLevel)
     throws IOException {
+        // javaScript files included with the templates (e.g. the soy utilities) are passed through and compiled with them
+        final List<Path> soyFiles = new ArrayList<>();
         final List<Path> jsFiles = new ArrayList<>();
-        final SoyFileSet.Builder builder = new SoyFileSet.Builder();
         for (final Path file : includedFiles) {
+            if (file.toString().endsWith(".js")) { //$NON-NLS-1$
+                jsFiles.add(file);
+            } else {
+                soyFiles.add(file);
+            }
+        }
+        final SoyFileSet.Builder builder = new SoyFileSet.Builder();
+        for (final Path file : soyFiles) {
             builder.add(file.toFile());
         }
         final SoyJsSrcOptions options = new SoyJsSrcOptions();
         options.setCodeStyle(SoyJsSrcOptions.CodeStyle.CONCAT);
+        // the sources are returned in the order of the soy files
         final List<String> jsSrc = builder.build().compileToJsSrc(options, SoyMsgBundle.EMPTY);
         FileCompiler.LOG.debug("SOY Compilation successful."); //$NON-NLS-1$ 
-        // print the compiled files into the merged file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mergedFile))) {
-            for (final String src : jsSrc) {
-                writer.write(src);
+        // if compilation level is not set. do not compile using closure. print the javaScript files and the compiled templates into the merged
+        // file
+        if (null == compilationLevel) {
+            try (BufferedWriter writer = Files.newBufferedWriter(mergedFile.toPath(), StandardCharsets.UTF_8)) {
+                for (final Path jsFile : jsFiles) {
+                    writer.write(new String(Files.readAllBytes(jsFile), StandardCharsets.UTF_8));
+                    writer.newLine();
+                }
+                for (final String src : jsSrc) {
+                    writer.write(src);
+                }
+                writer.flush();
+                writer.close();
             }
-            writer.flush();
-            writer.close();
+            return;
         }
-        // if javaScript files are included, do not compile them
+        // the templates use the javaScript files. compile all of them in memory in one pass, the javaScript files first
+        final List<SourceFile> input = new ArrayList<>();
         for (final Path jsFile : jsFiles) {
-            Files.write(mergedFile.toPath(), Files.readAllLines(jsFile, Charset.defaultCharset()), Charset.defaultCharset(),
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+            input.add(SourceFile.fromFile(jsFile.toFile()));
         }
-        // if compilation level is not set. do not compile using closure
-        if (null != compilationLevel) {
-            final List<Path> jsFile = new ArrayList<>(1);
-            jsFile.add(mergedFile.toPath());
-            FileCompiler.compileJS(jsFile, mergedFile, compilationLevel);
+        for (int index = 0; index < jsSrc.size(); index++) {
+            input.add(SourceFile.fromCode(soyFiles.get(index) + ".js", jsSrc.get(index))); //$NON-NLS-1$
         }
+        FileCompiler.compileSources(input, mergedFile, compilationLevel);
+    }
+
+    /**
+     * Creates a temporary file next to a merged file, to write it under and move it in place once written. The name of the temporary file
+     * starts with the name of the merged file (see {@link #isTemporaryFile(Path, Path)})
+     * @param mergedFile the merged file
+     * @return the temporary file
+     * @throws IOException if the file cannot be created
+     */
+    static Path createTemporaryFile(final File mergedFile)
+    throws IOException {
+        return Files.createTempFile(mergedFile.getParentFile().toPath(), mergedFile.getName(), FileCompiler.TEMPORARY_EXTENSION);
+    }
+
+    /**
+     * Checks if a file is a temporary file of a merged file
+     * @param file the file
+     * @param mergedFile the merged file
+     * @return true if the file was created by {@link #createTemporaryFile(File)} for the merged file
+     */
+    static boolean isTemporaryFile(final Path file, final Path mergedFile) {
+        final String name = String.valueOf(file.getFileName());
+        return mergedFile.getParent().equals(file.getParent()) && name.startsWith(mergedFile.getFileName().toString())
+            && name.endsWith(FileCompiler.TEMPORARY_EXTENSION);
     }
 }
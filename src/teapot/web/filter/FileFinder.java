@@ -2,6 +2,7 @@ package teapot.web.filter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
@@ -17,8 +18,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import teapot.common.utils.Utils;
-
 /**
  * Simple File Visitor implementation to look for a glob pattern in a base Directory
  * @see SimpleFileVisitor
@@ -38,7 +37,7 @@ extends SimpleFileVisitor<Path> {
          */
         HTTP,
         /**
-         * the server protocol. picks files form localhost
+         * the server protocol. picks files from the servlets of the application
          */
         SERVER;
     }
@@ -86,6 +85,22 @@ extends SimpleFileVisitor<Path> {
         this.include = include;
     }
 
+    /**
+     * @return the fileName
+     * @see FileFinder#fileName
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return the protocol
+     * @see FileFinder#protocol
+     */
+    public Protocol getProtocol() {
+        return this.protocol;
+    }
+
     /**
      * @return the include
      * @see FileFinder#include
@@ -129,15 +144,15 @@ extends SimpleFileVisitor<Path> {
     }
 
     /**
-     * This function finds the files with the basedir, the glob pattern and the protocol. If the protocol is anything other than FILE, the glob
-     * pattern is considered as the file path and only one file is returned.
+     * This function finds the files with the basedir, the glob pattern and the protocol. If the protocol is HTTP, the glob pattern is considered
+     * as the url and only one file is returned, a temporary file which has to be deleted by the caller. Files with the SERVER protocol are
+     * resolved by the {@link ServerDispatcher}
      * @param baseDir The context relative base directory for search
      * @param contextPath the context path for the application
-     * @param localhostUrlPrefix the localhost url prefix
      * @return list of file paths matching the criteria
      * @throws IOException
      */
-    List<Path> findFiles(final String baseDir, final String contextPath, final String localhostUrlPrefix)
+    List<Path> findFiles(final String baseDir, final String contextPath)
     throws IOException {
         this.fileList = new ArrayList<>();
         Path temp;
@@ -145,35 +160,45 @@ extends SimpleFileVisitor<Path> {
         switch (this.protocol) {
         case FILE:
             this.baseDirectory = Paths.get(contextPath, baseDir);
-            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + this.fileName); //$NON-NLS-1$
             Files.walkFileTree(this.baseDirectory, this);
             break;
         case HTTP:
+            // the temporary file is deleted by the caller once merged
             temp = File.createTempFile(FileFinder.TEMP_FILE_NAME, null).toPath();
             FileFinder.LOG.debug(String.format("Creating temporary file for %s at location '%s'", this.fileName, temp)); //$NON-NLS-1$
             website = new URL(this.fileName);
-            Files.copy(website.openStream(), temp, StandardCopyOption.REPLACE_EXISTING);
-            this.fileList.add(temp);
-            break;
-        case SERVER:
-            temp = File.createTempFile(FileFinder.TEMP_FILE_NAME, null).toPath();
-            FileFinder.LOG.debug(String.format("Creating temporary file for %s at location '%s'", this.fileName, temp)); //$NON-NLS-1$
-            website = new URL(Utils.constructUrl(localhostUrlPrefix, baseDir, this.fileName));
-            Files.copy(website.openStream(), temp, StandardCopyOption.REPLACE_EXISTING);
+            try (InputStream in = website.openStream()) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
             this.fileList.add(temp);
             break;
         default:
-            // impossible case
+            // files with the SERVER protocol are dispatched by the ServerDispatcher
             break;
         }
         return this.fileList;
     }
 
+    /**
+     * Checks if the file matches the glob pattern. Only if the protocol is FILE, the name is used as a search pattern
+     * @param relativePath the path of the file relative to the base directory
+     * @return true if the file matches the glob pattern
+     */
+    boolean matches(final Path relativePath) {
+        return this.matcher.matches(relativePath);
+    }
+
     /**
      * sets the file name or the file pattern for finding the files. Only if the protocol is FILE, the name is used as a search pattern
      * @param fileName the file name or the file pattern for finding the files. Only if the protocol is FILE, the name is used as a search pattern
      */
     void setPattern(final String fileName) {
         this.fileName = fileName;
+        if (Protocol.FILE == this.protocol) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + fileName); //$NON-NLS-1$
+        }
     }
 }
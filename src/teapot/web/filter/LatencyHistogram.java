@@ -0,0 +1,146 @@
+package teapot.web.filter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram recorded without locks. Latencies up to 16 microseconds have a bucket each, higher latencies are counted in eight
+ * buckets per power of two, so a percentile is off by an eighth of its value at most. Concurrent requests only contend on the counters they
+ * increment, and reading the histogram never blocks recording
+ * @see RequestMetrics
+ */
+class LatencyHistogram
+implements LatencyHistogramMBean {
+    /**
+     * the number of buckets of a power of two is 2 to the power of this
+     */
+    private static final int        SUB_BUCKET_BITS = 3;
+    /**
+     * the latencies in microseconds below this have a bucket each
+     */
+    private static final int        LINEAR_LIMIT    = 2 << LatencyHistogram.SUB_BUCKET_BITS;
+    /**
+     * the number of buckets, covering all positive long values
+     */
+    private static final int        BUCKET_COUNT    = LatencyHistogram.LINEAR_LIMIT + (Long.SIZE - 1 - (LatencyHistogram.SUB_BUCKET_BITS + 1))
+                                                        * (1 << LatencyHistogram.SUB_BUCKET_BITS);
+    /**
+     * the number of latencies counted by every bucket
+     */
+    private final AtomicLongArray   buckets;
+    /**
+     * the highest latency in microseconds
+     */
+    private final AtomicLong        max;
+    /**
+     * the sum of the latencies in microseconds
+     */
+    private final AtomicLong        total;
+
+    /**
+     * Returns the bucket counting a latency
+     * @param micros the latency in microseconds
+     * @return the index of the bucket
+     */
+    static int bucketIndex(final long micros) {
+        if (micros < LatencyHistogram.LINEAR_LIMIT) {
+            return (int) Math.max(0, micros);
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - LatencyHistogram.SUB_BUCKET_BITS)) & ((1 << LatencyHistogram.SUB_BUCKET_BITS) - 1);
+        return LatencyHistogram.LINEAR_LIMIT + (exponent - (LatencyHistogram.SUB_BUCKET_BITS + 1)) * (1 << LatencyHistogram.SUB_BUCKET_BITS)
+            + subBucket;
+    }
+
+    /**
+     * Returns the highest latency counted by a bucket
+     * @param index the index of the bucket
+     * @return the highest latency in microseconds
+     */
+    static long bucketUpperBound(final int index) {
+        if (index < LatencyHistogram.LINEAR_LIMIT) {
+            return index;
+        }
+        final int exponent = (index - LatencyHistogram.LINEAR_LIMIT) / (1 << LatencyHistogram.SUB_BUCKET_BITS) + LatencyHistogram.SUB_BUCKET_BITS
+            + 1;
+        final long subBucket = (index - LatencyHistogram.LINEAR_LIMIT) % (1 << LatencyHistogram.SUB_BUCKET_BITS);
+        final long width = 1L << (exponent - LatencyHistogram.SUB_BUCKET_BITS);
+        return ((1 << LatencyHistogram.SUB_BUCKET_BITS) + subBucket) * width + width - 1;
+    }
+
+    /**
+     * Instantiates LatencyHistogram
+     */
+    LatencyHistogram() {
+        this.buckets = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        this.max = new AtomicLong();
+        this.total = new AtomicLong();
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (int index = 0; index < this.buckets.length(); index++) {
+            count += this.buckets.get(index);
+        }
+        return count;
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return this.max.get();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return this.getPercentile(0.5);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return this.getPercentile(0.99);
+    }
+
+    @Override
+    public long getTotalMicros() {
+        return this.total.get();
+    }
+
+    /**
+     * Returns a percentile of the latencies. The buckets are read one by one, so requests recorded meanwhile may or may not be included
+     * @param quantile the quantile of the percentile, between 0 and 1
+     * @return the upper bound of the bucket holding the percentile in microseconds, capped by the highest latency. 0 if nothing is recorded
+     */
+    long getPercentile(final double quantile) {
+        final long[] counts = new long[this.buckets.length()];
+        long count = 0;
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = this.buckets.get(index);
+            count += counts[index];
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long cumulated = 0;
+        for (int index = 0; index < counts.length; index++) {
+            cumulated += counts[index];
+            if (cumulated >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(index), this.max.get());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Records the latency of a request
+     * @param nanos the latency in nanoseconds
+     */
+    void record(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        this.buckets.incrementAndGet(LatencyHistogram.bucketIndex(micros));
+        this.total.addAndGet(micros);
+        long currentMax = this.max.get();
+        while (micros > currentMax && !this.max.compareAndSet(currentMax, micros)) {
+            currentMax = this.max.get();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package teapot.web.filter;
+
+/**
+ * The latency histogram of the requests served by a path of the {@link CompilerFilter}, as exposed through JMX. Latencies are in
+ * microseconds. Percentiles are accurate to an eighth of their power of two
+ * @see RequestMetrics
+ */
+public interface LatencyHistogramMBean {
+    /**
+     * @return the number of requests
+     */
+    long getCount();
+
+    /**
+     * @return the highest latency
+     */
+    long getMaxMicros();
+
+    /**
+     * @return the median latency
+     */
+    long getP50Micros();
+
+    /**
+     * @return the 99th percentile of the latency
+     */
+    long getP99Micros();
+
+    /**
+     * @return the sum of the latencies of all requests
+     */
+    long getTotalMicros();
+}
@@ -0,0 +1,81 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import teapot.common.utils.Utils;
+
+/**
+ * Serves the {@link ResourceManifest} of the merged files as JSON, for the loader of the pages. To use it, define the servlet in web.xml as
+ * below, with this exact mapping, which the preload headers of the {@link CompilerFilter} announce
+ *
+ * <pre>
+ *
+ *  &lt;servlet&gt;
+ *         &lt;servlet-name&gt;ManifestServlet&lt;/servlet-name&gt;
+ *         &lt;servlet-class&gt;teapot.web.filter.ManifestServlet&lt;/servlet-class&gt;
+ *     &lt;/servlet&gt;
+ *     &lt;servlet-mapping&gt;
+ *         &lt;servlet-name&gt;ManifestServlet&lt;/servlet-name&gt;
+ *         &lt;url-pattern&gt;/teapot-manifest.json&lt;/url-pattern&gt;
+ *     &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * @see ResourceManifest
+ */
+public class ManifestServlet
+extends HttpServlet {
+    /**
+     * the serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the entity tag of the manifest from the SHA-256 hash of its content
+     * @param manifest the manifest, encoded as UTF-8
+     * @return the quoted entity tag
+     */
+    private static String getETag(final byte[] manifest) {
+        try {
+            return '"' + Utils.toHex(MessageDigest.getInstance("SHA-256").digest(manifest)) + '"'; //$NON-NLS-1$
+        } catch (final NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the manifest. The fingerprinted urls change with every compilation, so the manifest has to be revalidated by the clients using its
+     * entity tag. Responds with the status 503 if the {@link CompilerFilter} is not initialized
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException {
+        final ResourceManifest resourceManifest = ResourceManifest.fromServletContext(this.getServletContext());
+        if (null == resourceManifest) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        final StringWriter writer = new StringWriter();
+        resourceManifest.writeTo(writer);
+        final byte[] manifest = writer.toString().getBytes(StandardCharsets.UTF_8);
+        final String eTag = ManifestServlet.getETag(manifest);
+        response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+        response.setHeader("ETag", eTag); //$NON-NLS-1$
+        if (eTag.equals(request.getHeader("If-None-Match"))) { //$NON-NLS-1$
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType("application/json; charset=UTF-8"); //$NON-NLS-1$
+        response.setContentLength(manifest.length);
+        response.getOutputStream().write(manifest);
+    }
+}
@@ -0,0 +1,57 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the compile metrics and the request latencies collected by the {@link CompilerFilter} as plain text, in the exposition format of Prometheus. To use it, define
+ * the servlet in web.xml as below
+ * 
+ * <pre>
+ * 
+ *  &lt;servlet&gt;
+ *         &lt;servlet-name&gt;MetricsServlet&lt;/servlet-name&gt;
+ *         &lt;servlet-class&gt;teapot.web.filter.MetricsServlet&lt;/servlet-class&gt;
+ *     &lt;/servlet&gt;
+ *     &lt;servlet-mapping&gt;
+ *         &lt;servlet-name&gt;MetricsServlet&lt;/servlet-name&gt;
+ *         &lt;url-pattern&gt;/teapot-metrics&lt;/url-pattern&gt;
+ *     &lt;/servlet-mapping&gt;
+ * </pre>
+ * 
+ * The same metrics are registered as JMX MBeans
+ * @see CompileMetrics
+ */
+public class MetricsServlet
+extends HttpServlet {
+    /**
+     * the serial version UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Writes the compile metrics of all compiled files and the request latencies. Responds with the status 503 if the {@link CompilerFilter} is not initialized
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException {
+        final CompileMetrics compileMetrics = CompileMetrics.fromServletContext(this.getServletContext());
+        final RequestMetrics requestMetrics = RequestMetrics.fromServletContext(this.getServletContext());
+        if (null == compileMetrics || null == requestMetrics) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        // the metrics change with every compilation
+        response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+        response.setContentType("text/plain; version=0.0.4; charset=UTF-8"); //$NON-NLS-1$
+        final PrintWriter writer = response.getWriter();
+        compileMetrics.writeTo(writer);
+        requestMetrics.writeTo(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,245 @@
+package teapot.web.filter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import teapot.common.utils.Utils;
+
+/**
+ * Fetches the files included with the HTTP protocol. Every url is downloaded into a cache directory once, and is revalidated with a conditional
+ * request (using the ETag and Last-Modified headers of the cached response) on every later fetch. If the revalidation fails, the cached file is
+ * used. Downloads are written to a temporary file which is moved in place once complete, so a failed download never leaves a file behind.
+ * @see CompilerBean
+ */
+class RemoteFetcher
+implements Closeable {
+    /**
+     * the default connect timeout in milliseconds
+     */
+    static final int                            DEFAULT_CONNECT_TIMEOUT = 5000;
+    /**
+     * the default read timeout in milliseconds
+     */
+    static final int                            DEFAULT_READ_TIMEOUT    = 30000;
+    /**
+     * the LOG object
+     */
+    private static final Logger                 LOG                     = Logger.getLogger(RemoteFetcher.class);
+    /**
+     * the connect timeout in milliseconds
+     */
+    private final int                           connectTimeout;
+    /**
+     * the directory holding the fetched files
+     */
+    private final Path                          directory;
+    /**
+     * runs the fetches in parallel
+     */
+    private final ExecutorService               executor;
+    /**
+     * map of the fetched urls and the locks making sure every url is fetched once at a time
+     */
+    private final ConcurrentMap<String, Object> locks;
+    /**
+     * the read timeout in milliseconds
+     */
+    private final int                           readTimeout;
+
+    /**
+     * Creates the hexadecimal SHA-256 hash of the text, used as the file name of a url
+     * @param text the text to hash
+     * @return the hexadecimal hash
+     */
+    private static String hash(final String text) {
+        try {
+            return Utils.toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))); //$NON-NLS-1$
+        } catch (final NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Instantiates RemoteFetcher
+     * @param directory the directory holding the fetched files. It is created if it does not exist
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     * @throws IOException if the directory cannot be created
+     */
+    RemoteFetcher(final Path directory, final int connectTimeout, final int readTimeout)
+    throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.locks = new ConcurrentHashMap<>();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            /**
+             * the number of threads created
+             */
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "teapot-fetch-" + this.threadCount.incrementAndGet()); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops the threads running the fetches
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Downloads the url to the cache directory, unless the cached file is still valid
+     * @param url the url to fetch
+     * @return the path of the cached file
+     * @throws IOException if the url cannot be fetched and is not cached
+     */
+    private Path download(final URL url)
+    throws IOException {
+        final String key = RemoteFetcher.hash(url.toString());
+        final Path cachedFile = this.directory.resolve(key + ".body"); //$NON-NLS-1$
+        final Path headersFile = this.directory.resolve(key + ".headers"); //$NON-NLS-1$
+        final Properties headers = new Properties();
+        if (Files.isRegularFile(cachedFile) && Files.isRegularFile(headersFile)) {
+            try (InputStream in = Files.newInputStream(headersFile)) {
+                headers.load(in);
+            }
+        }
+        try {
+            final URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(this.connectTimeout);
+            connection.setReadTimeout(this.readTimeout);
+            if (null != headers.getProperty("ETag")) { //$NON-NLS-1$
+                connection.setRequestProperty("If-None-Match", headers.getProperty("ETag")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (null != headers.getProperty("Last-Modified")) { //$NON-NLS-1$
+                connection.setRequestProperty("If-Modified-Since", headers.getProperty("Last-Modified")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (connection instanceof HttpURLConnection) {
+                final int status = ((HttpURLConnection) connection).getResponseCode();
+                if (HttpURLConnection.HTTP_NOT_MODIFIED == status && !headers.isEmpty()) {
+                    RemoteFetcher.LOG.debug(String.format("'%s' is not modified. Using the cached file", url)); //$NON-NLS-1$
+                    return cachedFile;
+                }
+                if (HttpURLConnection.HTTP_OK != status) {
+                    throw new IOException(String.format("Fetching '%s' failed with status %d", url, Integer.valueOf(status))); //$NON-NLS-1$
+                }
+            }
+            final Path temporaryFile = Files.createTempFile(this.directory, key, ".tmp"); //$NON-NLS-1$
+            try {
+                try (InputStream in = connection.getInputStream()) {
+                    Files.copy(in, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                final Properties newHeaders = new Properties();
+                for (final String header : new String[] { "ETag", "Last-Modified" }) { //$NON-NLS-1$ //$NON-NLS-2$
+                    if (null != connection.getHeaderField(header)) {
+                        newHeaders.setProperty(header, connection.getHeaderField(header));
+                    }
+                }
+                Files.move(temporaryFile, cachedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                try (OutputStream out = Files.newOutputStream(headersFile)) {
+                    newHeaders.store(out, url.toString());
+                }
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+            RemoteFetcher.LOG.debug(String.format("fetched '%s'", url)); //$NON-NLS-1$
+            return cachedFile;
+        } catch (final IOException e) {
+            if (headers.isEmpty()) {
+                throw e;
+            }
+            RemoteFetcher.LOG.warn(String.format("Revalidating '%s' failed. Using the cached file", url), e); //$NON-NLS-1$
+            return cachedFile;
+        }
+    }
+
+    /**
+     * Fetches all urls in parallel and waits for them
+     * @param urls the urls to fetch
+     * @return the paths of the fetched files, in the order of the urls
+     * @throws IOException if any of the urls cannot be fetched
+     */
+    List<Path> fetchAll(final List<URL> urls)
+    throws IOException {
+        final List<Future<Path>> fetches = new ArrayList<>(urls.size());
+        for (final URL url : urls) {
+            fetches.add(this.executor.submit(new Callable<Path>() {
+                @Override
+                public Path call()
+                throws IOException {
+                    return RemoteFetcher.this.fetch(url);
+                }
+            }));
+        }
+        final List<Path> files = new ArrayList<>(urls.size());
+        try {
+            for (final Future<Path> fetch : fetches) {
+                files.add(fetch.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + urls); //$NON-NLS-1$
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<Path> fetch : fetches) {
+                fetch.cancel(true);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Fetches the url. If another thread is fetching the same url, the call waits for that fetch and then revalidates its result
+     * @param url the url to fetch
+     * @return the path of the cached file
+     * @throws IOException if the url cannot be fetched and is not cached
+     */
+    Path fetch(final URL url)
+    throws IOException {
+        final Object lock = new Object();
+        final Object existingLock = this.locks.putIfAbsent(url.toString(), lock);
+        synchronized (null == existingLock ? lock : existingLock) {
+            return this.download(url);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Collects the latencies of the requests served by the {@link CompilerFilter}, by serving path and by compiled file. The histogram of a
+ * serving path is registered as a JMX MBean named <i>teapot:type=RequestLatency,context=&lt;context path&gt;,path=&lt;serving path&gt;</i>,
+ * the one of a compiled file as <i>teapot:type=RequestLatency,context=&lt;context path&gt;,resource=&lt;file path&gt;</i>, and all
+ * histograms are written as plain text by the {@link MetricsServlet}. Requests passed on to the filter chain are only recorded by serving
+ * path, as their paths are not bounded
+ * @see LatencyHistogram
+ */
+class RequestMetrics {
+    /**
+     * The paths a request can be served by
+     */
+    enum ServingPath {
+        /**
+         * a static resource, compiled with the default compilation
+         */
+        ATOMIC("atomic"), //$NON-NLS-1$
+        /**
+         * a merged file
+         */
+        MERGED("merged"), //$NON-NLS-1$
+        /**
+         * neither a merged file nor a static resource. passed on to the filter chain
+         */
+        PASS_THROUGH("pass-through"); //$NON-NLS-1$
+
+        /**
+         * the name of the serving path in the metrics
+         */
+        private final String label;
+
+        /**
+         * Instantiates ServingPath
+         * @param label the name of the serving path in the metrics
+         */
+        private ServingPath(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the label
+         * @see ServingPath#label
+         */
+        String getLabel() {
+            return this.label;
+        }
+    }
+
+    /**
+     * name of the servlet context attribute holding the metrics
+     */
+    private static final String                           ATTRIBUTE_NAME = RequestMetrics.class.getName();
+    /**
+     * the LOG object
+     */
+    private static final Logger                           LOG            = Logger.getLogger(RequestMetrics.class);
+    /**
+     * the context path of the application, distinguishing the MBeans of applications sharing the MBean server
+     */
+    private final String                                  contextPath;
+    /**
+     * the MBean server the histograms are registered with
+     */
+    private final MBeanServer                             mBeanServer;
+    /**
+     * the histograms of the serving paths
+     */
+    private final Map<ServingPath, LatencyHistogram>      pathHistograms;
+    /**
+     * map of the context relative paths of the compiled files and their histograms
+     */
+    private final ConcurrentMap<String, LatencyHistogram> resourceHistograms;
+
+    /**
+     * Escapes a label value of the plain text format
+     * @param value the label value
+     * @return the escaped label value
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    }
+
+    /**
+     * Returns the metrics of the application
+     * @param servletContext the servlet context of the application
+     * @return the metrics of the application. null if the {@link CompilerFilter} is not initialized
+     */
+    static RequestMetrics fromServletContext(final ServletContext servletContext) {
+        return (RequestMetrics) servletContext.getAttribute(RequestMetrics.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Writes a histogram as a summary of the plain text format
+     * @param writer the writer to write to
+     * @param label the label identifying the histogram, with its value escaped
+     * @param histogram the histogram
+     * @throws IOException if writing fails
+     */
+    private static void writeSummary(final Writer writer, final String label, final LatencyHistogram histogram)
+    throws IOException {
+        writer.write(String.format("teapot_request_latency_microseconds{%s,quantile=\"0.5\"} %d\n", label, //$NON-NLS-1$
+            Long.valueOf(histogram.getP50Micros())));
+        writer.write(String.format("teapot_request_latency_microseconds{%s,quantile=\"0.99\"} %d\n", label, //$NON-NLS-1$
+            Long.valueOf(histogram.getP99Micros())));
+        writer.write(String.format("teapot_request_latency_microseconds{%s,quantile=\"1\"} %d\n", label, //$NON-NLS-1$
+            Long.valueOf(histogram.getMaxMicros())));
+        writer.write(String.format("teapot_request_latency_microseconds_sum{%s} %d\n", label, Long.valueOf(histogram.getTotalMicros()))); //$NON-NLS-1$
+        writer.write(String.format("teapot_request_latency_microseconds_count{%s} %d\n", label, Long.valueOf(histogram.getCount()))); //$NON-NLS-1$
+    }
+
+    /**
+     * Instantiates RequestMetrics and registers the histograms of the serving paths
+     * @param contextPath the context path of the application
+     */
+    RequestMetrics(final String contextPath) {
+        this.contextPath = contextPath;
+        this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        this.resourceHistograms = new ConcurrentHashMap<>();
+        this.pathHistograms = new EnumMap<>(ServingPath.class);
+        for (final ServingPath servingPath : ServingPath.values()) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            this.pathHistograms.put(servingPath, histogram);
+            this.register(histogram, "path", servingPath.getLabel()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Returns the name of the MBean of a histogram
+     * @param key the key of the histogram, path or resource
+     * @param value the serving path or the context relative path of the compiled file
+     * @return the name of the MBean
+     * @throws JMException if the name is malformed
+     */
+    private ObjectName getObjectName(final String key, final String value)
+    throws JMException {
+        return new ObjectName(String.format("teapot:type=RequestLatency,context=%s,%s=%s", ObjectName.quote(this.contextPath), key, //$NON-NLS-1$
+            ObjectName.quote(value)));
+    }
+
+    /**
+     * Registers a histogram as an MBean
+     * @param histogram the histogram
+     * @param key the key of the histogram, path or resource
+     * @param value the serving path or the context relative path of the compiled file
+     */
+    private void register(final LatencyHistogram histogram, final String key, final String value) {
+        try {
+            this.mBeanServer.registerMBean(new StandardMBean(histogram, LatencyHistogramMBean.class), this.getObjectName(key, value));
+        } catch (final JMException e) {
+            // the histogram is still available as plain text
+            RequestMetrics.LOG.warn(String.format("Error registering the request latency of '%s'", value), e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Unregisters an MBean
+     * @param key the key of the histogram, path or resource
+     * @param value the serving path or the context relative path of the compiled file
+     */
+    private void unregister(final String key, final String value) {
+        try {
+            this.mBeanServer.unregisterMBean(this.getObjectName(key, value));
+        } catch (final JMException e) {
+            RequestMetrics.LOG.warn(String.format("Error unregistering the request latency of '%s'", value), e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Unregisters the MBeans of all histograms
+     */
+    void close() {
+        for (final ServingPath servingPath : this.pathHistograms.keySet()) {
+            this.unregister("path", servingPath.getLabel()); //$NON-NLS-1$
+        }
+        for (final String resource : this.resourceHistograms.keySet()) {
+            this.unregister("resource", resource); //$NON-NLS-1$
+        }
+        this.resourceHistograms.clear();
+    }
+
+    /**
+     * Publishes the metrics as a servlet context attribute
+     * @param servletContext the servlet context of the application
+     */
+    void publish(final ServletContext servletContext) {
+        servletContext.setAttribute(RequestMetrics.ATTRIBUTE_NAME, this);
+    }
+
+    /**
+     * Records the latency of a request. The histogram of a compiled file is created and registered as an MBean on its first request
+     * @param servingPath the path the request was served by
+     * @param resource the context relative path of the compiled file. null if the request was passed on to the filter chain
+     * @param nanos the latency in nanoseconds
+     */
+    void record(final ServingPath servingPath, final String resource, final long nanos) {
+        this.pathHistograms.get(servingPath).record(nanos);
+        if (null == resource) {
+            return;
+        }
+        LatencyHistogram histogram = this.resourceHistograms.get(resource);
+        if (null == histogram) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = this.resourceHistograms.putIfAbsent(resource, created);
+            if (null == histogram) {
+                histogram = created;
+                this.register(created, "resource", resource); //$NON-NLS-1$
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Removes the metrics from the servlet context attributes
+     * @param servletContext the servlet context of the application
+     */
+    void unpublish(final ServletContext servletContext) {
+        servletContext.removeAttribute(RequestMetrics.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Writes the histograms of all serving paths and compiled files in the plain text exposition format of Prometheus, as summaries with the
+     * median, the 99th percentile and the maximum
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(final Writer writer)
+    throws IOException {
+        writer.write("# HELP teapot_request_latency_microseconds the latency of the requests served by the compiler filter\n"); //$NON-NLS-1$
+        writer.write("# TYPE teapot_request_latency_microseconds summary\n"); //$NON-NLS-1$
+        for (final Map.Entry<ServingPath, LatencyHistogram> entry : this.pathHistograms.entrySet()) {
+            RequestMetrics.writeSummary(writer, String.format("path=\"%s\"", entry.getKey().getLabel()), entry.getValue()); //$NON-NLS-1$
+        }
+        for (final Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(this.resourceHistograms).entrySet()) {
+            RequestMetrics.writeSummary(writer, String.format("resource=\"%s\"", RequestMetrics.escape(entry.getKey())), entry.getValue()); //$NON-NLS-1$
+        }
+    }
+}
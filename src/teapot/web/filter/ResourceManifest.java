@@ -0,0 +1,207 @@
+package teapot.web.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.servlet.ServletContext;
+
+/**
+ * The manifest of the merged files and their chunks, generated from the configuration for the loader of the pages (<i>bootstrap.js</i>).
+ * Every resource is listed with its url, which is fingerprinted once the resource is compiled (see {@link ResourceResolver}), its content
+ * type, the hash of its content and the resources it has to be loaded after, i.e. the dependencies and the load-after files of its to-file
+ * element. The resources are listed in that order:
+ *
+ * <pre>
+ * {"resources":[{"id":"templates/statics-all.js","src":"templates/statics-all.0123456789abcdef.js","type":"application/javascript",
+ *     "hash":"0123456789abcdef...","depends-on":[]}, ...]}
+ * </pre>
+ *
+ * The same resources are announced with <i>Link: rel=preload</i> headers on the pages served through the {@link CompilerFilter}, so the
+ * browsers download all of them in parallel while the page and the loader are still loading
+ * @see ManifestServlet
+ */
+class ResourceManifest {
+    /**
+     * A resource listed in the manifest
+     */
+    private static class Resource {
+        /**
+         * the context relative paths of the resources to load before, with forward slashes
+         */
+        private final List<String> dependencies;
+        /**
+         * the file type of the resource
+         */
+        private final FileType     fileType;
+
+        /**
+         * Instantiates Resource
+         * @param fileType the file type of the resource
+         * @param dependencies the context relative paths of the resources to load before, with forward slashes
+         */
+        Resource(final FileType fileType, final List<String> dependencies) {
+            this.fileType = fileType;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * the context relative path the {@link ManifestServlet} is mapped to
+     */
+    static final String                 PATH           = "teapot-manifest.json"; //$NON-NLS-1$
+    /**
+     * name of the servlet context attribute holding the manifest
+     */
+    private static final String         ATTRIBUTE_NAME = ResourceManifest.class.getName();
+    /**
+     * map of the context relative paths of the resources, with forward slashes, and the resources, in the order of their dependencies
+     */
+    private final Map<String, Resource> resources;
+    /**
+     * the resolver of the fingerprinted urls and the hashes of the compiled resources
+     */
+    private final ResourceResolver      resourceResolver;
+
+    /**
+     * Escapes a string value of JSON
+     * @param value the string value
+     * @return the escaped string value
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    }
+
+    /**
+     * Returns the manifest of the application
+     * @param servletContext the servlet context of the application
+     * @return the manifest of the application. null if the {@link CompilerFilter} is not initialized
+     */
+    static ResourceManifest fromServletContext(final ServletContext servletContext) {
+        return (ResourceManifest) servletContext.getAttribute(ResourceManifest.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Returns the order the pages load the merged files in, every merged file after the files it depends on or is loaded after
+     * @param compilerBeanMap map of the context relative paths of the merged files and their beans
+     * @return the context relative paths of the merged files, in load order
+     * @throws IllegalArgumentException if a merged file is loaded after a file which is not configured, or the load order has a cycle
+     */
+    static List<String> getLoadOrder(final Map<String, CompilerBean> compilerBeanMap) {
+        final Map<String, List<String>> loadDependencies = new HashMap<>();
+        for (final Map.Entry<String, CompilerBean> entry : compilerBeanMap.entrySet()) {
+            final List<String> beanLoadDependencies = entry.getValue().getLoadDependencies();
+            for (final String loadDependency : beanLoadDependencies) {
+                if (!compilerBeanMap.containsKey(loadDependency)) {
+                    throw new IllegalArgumentException(String.format("'%s' is loaded after '%s', which is not configured", //$NON-NLS-1$
+                        entry.getKey(), loadDependency));
+                }
+            }
+            loadDependencies.put(entry.getKey(), beanLoadDependencies);
+        }
+        final List<String> loadOrder = new ArrayList<>();
+        // sorted, so the manifest and its entity tag do not change between restarts
+        for (final String path : new TreeSet<>(compilerBeanMap.keySet())) {
+            BuildScheduler.visit(path, loadDependencies, new ArrayList<String>(), loadOrder);
+        }
+        return loadOrder;
+    }
+
+    /**
+     * Instantiates ResourceManifest. The merged files are listed in load order, every merged file followed by its chunks
+     * @param compilerBeanMap map of the context relative paths of the merged files and their beans
+     * @param resourceResolver the resolver of the fingerprinted urls and the hashes of the compiled resources
+     * @see ResourceManifest#getLoadOrder(Map)
+     */
+    ResourceManifest(final Map<String, CompilerBean> compilerBeanMap, final ResourceResolver resourceResolver) {
+        this.resourceResolver = resourceResolver;
+        this.resources = new LinkedHashMap<>();
+        for (final String path : ResourceManifest.getLoadOrder(compilerBeanMap)) {
+            final CompilerBean bean = compilerBeanMap.get(path);
+            this.add(path, bean.getFileType(), bean.getLoadDependencies());
+            for (final String chunkFile : bean.getChunkFiles()) {
+                this.add(chunkFile, FileType.SCRIPT, bean.getChunkDependencies(chunkFile));
+            }
+        }
+    }
+
+    /**
+     * Adds a resource to the manifest
+     * @param path the context relative path of the resource
+     * @param fileType the file type of the resource
+     * @param dependencies the context relative paths of the resources to load before
+     */
+    private void add(final String path, final FileType fileType, final List<String> dependencies) {
+        final List<String> urls = new ArrayList<>(dependencies.size());
+        for (final String dependency : dependencies) {
+            urls.add(dependency.replace(File.separatorChar, '/'));
+        }
+        this.resources.put(path.replace(File.separatorChar, '/'), new Resource(fileType, Collections.unmodifiableList(urls)));
+    }
+
+    /**
+     * Returns the values of the Link headers announcing the manifest and its resources to the browsers, so they are downloaded before the
+     * loader of the page asks for them. The compiled resources are announced with their fingerprinted urls
+     * @param contextPath the context path of the application
+     * @return the values of the Link headers, one per resource
+     */
+    List<String> getPreloadLinks(final String contextPath) {
+        final List<String> links = new ArrayList<>(this.resources.size() + 1);
+        // the loader fetches the manifest with a same origin request, which the preload has to match
+        links.add(String.format("<%s/%s>; rel=preload; as=fetch; crossorigin", contextPath, ResourceManifest.PATH)); //$NON-NLS-1$
+        for (final Map.Entry<String, Resource> entry : this.resources.entrySet()) {
+            links.add(String.format("<%s/%s>; rel=preload; as=%s", contextPath, this.resourceResolver.resolve(entry.getKey()), //$NON-NLS-1$
+                FileType.STYLE == entry.getValue().fileType ? "style" : "script")); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return links;
+    }
+
+    /**
+     * Publishes the manifest as a servlet context attribute
+     * @param servletContext the servlet context of the application
+     */
+    void publish(final ServletContext servletContext) {
+        servletContext.setAttribute(ResourceManifest.ATTRIBUTE_NAME, this);
+    }
+
+    /**
+     * Removes the manifest from the servlet context attributes
+     * @param servletContext the servlet context of the application
+     */
+    void unpublish(final ServletContext servletContext) {
+        servletContext.removeAttribute(ResourceManifest.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Writes the manifest as JSON. The urls and the hashes are the ones of the last compilations, resources which are not compiled yet are listed
+     * with their logical path and without hash
+     * @param writer the writer to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(final Writer writer)
+    throws IOException {
+        writer.write("{\"resources\":["); //$NON-NLS-1$
+        String separator = ""; //$NON-NLS-1$
+        for (final Map.Entry<String, Resource> entry : this.resources.entrySet()) {
+            final String hash = this.resourceResolver.getHash(entry.getKey());
+            writer.write(String.format("%s\n{\"id\":\"%s\",\"src\":\"%s\",\"type\":\"%s\",\"hash\":%s,\"depends-on\":[", separator, //$NON-NLS-1$
+                ResourceManifest.escape(entry.getKey()), ResourceManifest.escape(this.resourceResolver.resolve(entry.getKey())),
+                entry.getValue().fileType.getContentType(), null == hash ? "null" : '"' + hash + '"')); //$NON-NLS-1$
+            String dependencySeparator = ""; //$NON-NLS-1$
+            for (final String dependency : entry.getValue().dependencies) {
+                writer.write(String.format("%s\"%s\"", dependencySeparator, ResourceManifest.escape(dependency))); //$NON-NLS-1$
+                dependencySeparator = ","; //$NON-NLS-1$
+            }
+            writer.write("]}"); //$NON-NLS-1$
+            separator = ","; //$NON-NLS-1$
+        }
+        writer.write("\n]}\n"); //$NON-NLS-1$
+    }
+}
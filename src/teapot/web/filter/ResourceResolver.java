@@ -0,0 +1,136 @@
+package teapot.web.filter;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletContext;
+
+import teapot.common.utils.Utils;
+
+/**
+ * Resolves the logical names of compiled resources (like <i>script/statics-all.js</i>) to their fingerprinted names (like
+ * <i>script/statics-all.0123456789abcdef.js</i>). Fingerprinted names change with the content of the resource and can be cached forever by
+ * the clients. The resolver of an application is available as a servlet context attribute once the {@link CompilerFilter} is initialized:
+ *
+ * <pre>
+ * ResourceResolver.fromServletContext(servletContext).resolve(&quot;script/statics-all.js&quot;);
+ * </pre>
+ *
+ * @see CompilerFilter
+ */
+public class ResourceResolver {
+    /**
+     * the number of hash characters used in a fingerprint
+     */
+    static final int                            FINGERPRINT_LENGTH  = 16;
+    /**
+     * the pattern of a fingerprinted path. group 1 is the path without extension, group 2 the fingerprint and group 3 the extension
+     */
+    static final Pattern                        FINGERPRINT_PATTERN = Pattern.compile("(.+)\\.([0-9a-f]{" //$NON-NLS-1$
+                                                                          + ResourceResolver.FINGERPRINT_LENGTH + "})(\\.[^./\\\\]+)"); //$NON-NLS-1$
+    /**
+     * name of the servlet context attribute holding the resolver
+     */
+    private static final String                 ATTRIBUTE_NAME      = ResourceResolver.class.getName();
+    /**
+     * map of the context relative logical path and the fingerprinted url of the resource
+     */
+    private final ConcurrentMap<String, String> fingerprints;
+    /**
+     * map of the context relative logical path and the hexadecimal content hash of the resource
+     */
+    private final ConcurrentMap<String, String> hashes;
+
+    /**
+     * Creates the fingerprinted path of a resource by inserting the first characters of the content hash before the extension
+     * @param path the logical path of the resource
+     * @param hash the hexadecimal hash of the resource content
+     * @return the fingerprinted path
+     */
+    static String fingerprint(final String path, final String hash) {
+        final String fingerprint = hash.substring(0, ResourceResolver.FINGERPRINT_LENGTH);
+        final int extensionIndex = path.lastIndexOf('.');
+        if (extensionIndex <= path.lastIndexOf(File.separatorChar)) {
+            return path + '.' + fingerprint;
+        }
+        return path.substring(0, extensionIndex) + '.' + fingerprint + path.substring(extensionIndex);
+    }
+
+    /**
+     * Returns the resolver of the application
+     * @param servletContext the servlet context of the application
+     * @return the resolver of the application. null if the {@link CompilerFilter} is not initialized
+     */
+    public static ResourceResolver fromServletContext(final ServletContext servletContext) {
+        return (ResourceResolver) servletContext.getAttribute(ResourceResolver.ATTRIBUTE_NAME);
+    }
+
+    /**
+     * Splits a fingerprinted path into its logical path and its fingerprint
+     * @param path the context relative path
+     * @return an array of the logical path and the fingerprint. null if the path is not fingerprinted
+     */
+    static String[] split(final String path) {
+        final Matcher matcher = ResourceResolver.FINGERPRINT_PATTERN.matcher(path);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new String[] { matcher.group(1) + matcher.group(3), matcher.group(2) };
+    }
+
+    /**
+     * Instantiates ResourceResolver
+     */
+    ResourceResolver() {
+        this.fingerprints = new ConcurrentHashMap<>();
+        this.hashes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Resolves the logical path of a compiled resource to its fingerprinted url. Resources which are not compiled yet are not fingerprinted
+     * @param logicalPath the context relative logical path of the resource
+     * @return the context relative fingerprinted url of the resource. The logical path itself if the resource is not compiled yet
+     */
+    public String resolve(final String logicalPath) {
+        final String fingerprinted = this.fingerprints.get(Utils.sanitizePath(logicalPath));
+        return null == fingerprinted ? logicalPath : fingerprinted;
+    }
+
+    /**
+     * Returns the content hash of a compiled resource
+     * @param logicalPath the context relative logical path of the resource
+     * @return the hexadecimal hash of the resource content. null if the resource is not compiled yet
+     */
+    String getHash(final String logicalPath) {
+        return this.hashes.get(Utils.sanitizePath(logicalPath));
+    }
+
+    /**
+     * Publishes the resolver as a servlet context attribute
+     * @param servletContext the servlet context of the application
+     */
+    void publish(final ServletContext servletContext) {
+        servletContext.setAttribute(ResourceResolver.ATTRIBUTE_NAME, this);
+    }
+
+    /**
+     * Registers the content hash of a compiled resource
+     * @param logicalPath the context relative logical path of the resource
+     * @param hash the hexadecimal hash of the resource content
+     */
+    void register(final String logicalPath, final String hash) {
+        this.fingerprints.put(logicalPath, ResourceResolver.fingerprint(logicalPath, hash).replace(File.separatorChar, '/'));
+        this.hashes.put(logicalPath, hash);
+    }
+
+    /**
+     * Removes the resolver from the servlet context attributes
+     * @param servletContext the servlet context of the application
+     */
+    void unpublish(final ServletContext servletContext) {
+        servletContext.removeAttribute(ResourceResolver.ATTRIBUTE_NAME);
+    }
+}
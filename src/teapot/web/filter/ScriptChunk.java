@@ -0,0 +1,86 @@
+package teapot.web.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import teapot.web.filter.ConfigHandler.XMLAttributes;
+
+/**
+ * A chunk of a merged script, configured with a chunk element inside its to-file element. The chunks of a merged script are compiled
+ * together with the closure module support, so that the optimizations work across the chunks, and every chunk is written to its own file next
+ * to the merged file, e.g. <i>statics-all.vendor.js</i> for the chunk vendor of <i>statics-all.js</i>. The merged file itself is the root
+ * chunk all chunks depend on
+ * @see CompilerBean
+ */
+class ScriptChunk {
+    /**
+     * the names of the chunks this chunk depends on, declared before it
+     */
+    private final List<String>     dependencies;
+    /**
+     * the name of the chunk
+     */
+    private final String           name;
+    /**
+     * the search patterns including and excluding the files of the chunk
+     */
+    private final List<FileFinder> searchPatterns;
+
+    /**
+     * Instantiates ScriptChunk
+     * @param name the name of the chunk
+     * @param dependency the comma separated names of the chunks this chunk depends on. can be null
+     */
+    ScriptChunk(final String name, final String dependency) {
+        this.name = name;
+        this.dependencies = new ArrayList<>();
+        if (null != dependency && !dependency.trim().isEmpty()) {
+            Collections.addAll(this.dependencies, dependency.trim().split(XMLAttributes.DEPENDENCY_REGEX));
+        }
+        this.searchPatterns = new ArrayList<>();
+    }
+
+    /**
+     * Adds a file search pattern to the chunk
+     * @param fileFinder the object specifying the file finder pattern
+     */
+    void addSearchPattern(final FileFinder fileFinder) {
+        this.searchPatterns.add(fileFinder);
+    }
+
+    /**
+     * @return the dependencies
+     * @see ScriptChunk#dependencies
+     */
+    List<String> getDependencies() {
+        return Collections.unmodifiableList(this.dependencies);
+    }
+
+    /**
+     * Returns the name of the file of the chunk: the name of the merged file with the name of the chunk inserted before the extension
+     * @param mergedName the name of the merged file
+     * @return the name of the file of the chunk
+     */
+    String getFileName(final String mergedName) {
+        final int extensionIndex = mergedName.lastIndexOf('.');
+        return extensionIndex < 0 ? mergedName + '.' + this.name : mergedName.substring(0, extensionIndex) + '.' + this.name
+            + mergedName.substring(extensionIndex);
+    }
+
+    /**
+     * @return the name
+     * @see ScriptChunk#name
+     */
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the search patterns
+     * @see ScriptChunk#searchPatterns
+     */
+    List<FileFinder> getSearchPatterns() {
+        return Collections.unmodifiableList(this.searchPatterns);
+    }
+}
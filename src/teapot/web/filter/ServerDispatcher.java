@@ -0,0 +1,387 @@
+package teapot.web.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Resolves the files included with the SERVER protocol inside the process. Every file is forwarded once to the servlet serving it, with the
+ * request being served and a response buffering the output, instead of being fetched with a request to the server itself. The output is kept
+ * in a file till the filter is destroyed, as the servlets generating it (e.g. DWR) are only reconfigured with a restart of the application.
+ * @see CompilerBean
+ */
+class ServerDispatcher
+implements Closeable {
+    /**
+     * A response buffering the output of the forwarded request. Nothing is passed on to the response being served
+     */
+    private static class BufferedResponse
+    extends HttpServletResponseWrapper {
+        /**
+         * the output of the forwarded request
+         */
+        private final ByteArrayOutputStream buffer;
+        /**
+         * the character encoding of the writer
+         */
+        private String                      characterEncoding;
+        /**
+         * the content type set by the servlet
+         */
+        private String                      contentType;
+        /**
+         * the stream writing to the buffer
+         */
+        private final ServletOutputStream   outputStream;
+        /**
+         * the status set by the servlet
+         */
+        private int                         status;
+        /**
+         * the writer writing to the buffer. Created on the first call to {@link BufferedResponse#getWriter()}
+         */
+        private PrintWriter                 writer;
+
+        /**
+         * Instantiates BufferedResponse
+         * @param response the response being served
+         */
+        BufferedResponse(final HttpServletResponse response) {
+            super(response);
+            this.buffer = new ByteArrayOutputStream();
+            this.characterEncoding = "ISO-8859-1"; //$NON-NLS-1$
+            this.status = HttpServletResponse.SC_OK;
+            this.outputStream = new ServletOutputStream() {
+                @Override
+                public void write(final byte[] bytes, final int offset, final int length) {
+                    BufferedResponse.this.buffer.write(bytes, offset, length);
+                }
+
+                @Override
+                public void write(final int b) {
+                    BufferedResponse.this.buffer.write(b);
+                }
+            };
+        }
+
+        @Override
+        public void addCookie(final Cookie cookie) {
+            // the forwarded request does not set cookies
+        }
+
+        @Override
+        public void addDateHeader(final String name, final long date) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public void addIntHeader(final String name, final int value) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public boolean containsHeader(final String name) {
+            return false;
+        }
+
+        @Override
+        public void flushBuffer() {
+            // the output is kept in the buffer
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return this.characterEncoding;
+        }
+
+        @Override
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return null;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return this.outputStream;
+        }
+
+        @Override
+        public int getStatus() {
+            return this.status;
+        }
+
+        @Override
+        public PrintWriter getWriter()
+        throws IOException {
+            if (null == this.writer) {
+                this.writer = new PrintWriter(new OutputStreamWriter(this.outputStream, this.characterEncoding));
+            }
+            return this.writer;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+            this.resetBuffer();
+            this.status = HttpServletResponse.SC_OK;
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (null != this.writer) {
+                this.writer.flush();
+            }
+            this.buffer.reset();
+        }
+
+        @Override
+        public void sendError(final int statusCode) {
+            this.status = statusCode;
+        }
+
+        @Override
+        public void sendError(final int statusCode, final String message) {
+            this.status = statusCode;
+        }
+
+        @Override
+        public void sendRedirect(final String location) {
+            this.status = HttpServletResponse.SC_FOUND;
+        }
+
+        @Override
+        public void setBufferSize(final int size) {
+            // the buffer grows as needed
+        }
+
+        @Override
+        public void setCharacterEncoding(final String charset) {
+            if (null == this.writer && null != charset) {
+                this.characterEncoding = charset;
+            }
+        }
+
+        @Override
+        public void setContentLength(final int length) {
+            // the length of the buffer is known
+        }
+
+        @Override
+        public void setContentType(final String type) {
+            this.contentType = type;
+            final int charsetIndex = null == type ? -1 : type.toLowerCase(Locale.ENGLISH).indexOf("charset="); //$NON-NLS-1$
+            if (charsetIndex >= 0) {
+                this.setCharacterEncoding(type.substring(charsetIndex + "charset=".length()).trim()); //$NON-NLS-1$
+            }
+        }
+
+        @Override
+        public void setDateHeader(final String name, final long date) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public void setIntHeader(final String name, final int value) {
+            // the headers of the forwarded request are dropped
+        }
+
+        @Override
+        public void setLocale(final Locale locale) {
+            // the locale of the forwarded request is dropped
+        }
+
+        @Override
+        public void setStatus(final int statusCode) {
+            this.status = statusCode;
+        }
+
+        @Override
+        @Deprecated
+        public void setStatus(final int statusCode, final String message) {
+            this.status = statusCode;
+        }
+
+        /**
+         * @return the output of the forwarded request
+         */
+        byte[] toByteArray() {
+            if (null != this.writer) {
+                this.writer.flush();
+            }
+            return this.buffer.toByteArray();
+        }
+    }
+
+    /**
+     * A request for the complete, uncompressed content of a file. The conditional, range and content negotiation headers of the request being
+     * served are hidden
+     */
+    private static class DispatchRequest
+    extends HttpServletRequestWrapper {
+        /**
+         * Instantiates DispatchRequest
+         * @param request the request being served
+         */
+        DispatchRequest(final HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public long getDateHeader(final String name) {
+            return ServerDispatcher.HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ENGLISH)) ? -1 : super.getDateHeader(name);
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return ServerDispatcher.HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ENGLISH)) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(final String name) {
+            return ServerDispatcher.HIDDEN_HEADERS.contains(name.toLowerCase(Locale.ENGLISH)) ? Collections.enumeration(Collections
+                .<String> emptyList()) : super.getHeaders(name);
+        }
+
+        @Override
+        public String getMethod() {
+            return "GET"; //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * the lower case names of the request headers hidden from the forwarded requests
+     */
+    private static final Set<String>          HIDDEN_HEADERS = new HashSet<>(Arrays.asList("accept-encoding", "if-match", "if-modified-since", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                                                                 "if-none-match", "if-range", "if-unmodified-since", "range"));   //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    /**
+     * the LOG object
+     */
+    private static final Logger               LOG            = Logger.getLogger(ServerDispatcher.class);
+    /**
+     * the directory holding the output of the forwarded requests
+     */
+    private final Path                        directory;
+    /**
+     * map of the context relative paths of the dispatched files and the files holding their output
+     */
+    private final ConcurrentMap<String, Path> dispatchedFiles;
+    /**
+     * the servlet context to dispatch the requests with
+     */
+    private final ServletContext              servletContext;
+
+    /**
+     * Instantiates ServerDispatcher
+     * @param servletContext the servlet context to dispatch the requests with
+     * @param directory the directory holding the output of the forwarded requests. It is created if it does not exist
+     * @throws IOException if the directory cannot be created
+     */
+    ServerDispatcher(final ServletContext servletContext, final Path directory)
+    throws IOException {
+        this.servletContext = servletContext;
+        this.directory = Files.createDirectories(directory);
+        this.dispatchedFiles = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Deletes the output of all dispatched files
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close()
+    throws IOException {
+        for (final Path dispatchedFile : this.dispatchedFiles.values()) {
+            Files.deleteIfExists(dispatchedFile);
+        }
+        this.dispatchedFiles.clear();
+    }
+
+    /**
+     * Forwards the request of the file to the servlet serving it and keeps its output, unless the file is dispatched already
+     * @param path the context relative path of the file, starting with a slash
+     * @param request the request being served
+     * @param response the response being served. Nothing is written to it
+     * @throws IOException if the file cannot be dispatched
+     * @throws ServletException if the servlet serving the file fails
+     */
+    void dispatch(final String path, final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException, ServletException {
+        if (this.dispatchedFiles.containsKey(path)) {
+            return;
+        }
+        final RequestDispatcher requestDispatcher = this.servletContext.getRequestDispatcher(path);
+        if (null == requestDispatcher) {
+            throw new IOException(String.format("No servlet serves '%s'", path)); //$NON-NLS-1$
+        }
+        final BufferedResponse bufferedResponse = new BufferedResponse(response);
+        requestDispatcher.forward(new DispatchRequest(request), bufferedResponse);
+        if (HttpServletResponse.SC_OK != bufferedResponse.getStatus()) {
+            throw new IOException(String.format("Dispatching '%s' failed with status %d", path, Integer.valueOf(bufferedResponse.getStatus()))); //$NON-NLS-1$
+        }
+        final Path temporaryFile = Files.createTempFile(this.directory, "server", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+        Files.write(temporaryFile, bufferedResponse.toByteArray());
+        // a concurrent request may have dispatched the file meanwhile. the first output is kept
+        if (null != this.dispatchedFiles.putIfAbsent(path, temporaryFile)) {
+            Files.delete(temporaryFile);
+            return;
+        }
+        ServerDispatcher.LOG.debug(String.format("dispatched '%s' into '%s'", path, temporaryFile)); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the file holding the output of the dispatched file
+     * @param path the context relative path of the file, starting with a slash
+     * @return the file holding the output
+     * @throws IOException if the file is not dispatched yet
+     */
+    Path getFile(final String path)
+    throws IOException {
+        final Path dispatchedFile = this.dispatchedFiles.get(path);
+        if (null == dispatchedFile) {
+            throw new IOException(String.format("'%s' is not dispatched yet. It can only be dispatched while serving a request", path)); //$NON-NLS-1$
+        }
+        return dispatchedFile;
+    }
+}
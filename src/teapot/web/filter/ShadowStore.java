@@ -0,0 +1,128 @@
+package teapot.web.filter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * The compiled versions of the static resources, kept in a shadow directory out of the source tree, which is only read. A compiled file is
+ * stored under the context relative path of its source and the key of its compilation (see {@link CompilationCache#getKey}), i.e. the hash
+ * of the content of the source, the compilation level and the compiler versions. A changed source gets a new key and is compiled again, an
+ * unchanged one reuses its compiled file, across restarts too. Compiled files are written under a temporary name and moved in place, so
+ * requests never read a partly written file
+ * @see FileCompiler
+ */
+class ShadowStore {
+    /**
+     * the extension of the compiled files
+     */
+    private static final String               EXTENSION = ".out"; //$NON-NLS-1$
+    /**
+     * the LOG object
+     */
+    private static final Logger               LOG       = Logger.getLogger(ShadowStore.class);
+    /**
+     * map of the context relative paths of the static resources and their last compiled files
+     */
+    private final ConcurrentMap<String, Path> compiledFiles;
+    /**
+     * the shadow directory holding the compiled files
+     */
+    private final Path                        directory;
+
+    /**
+     * Instantiates ShadowStore
+     * @param directory the shadow directory holding the compiled files. It is created if it does not exist
+     * @throws IOException if the directory cannot be created
+     */
+    ShadowStore(final Path directory)
+    throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.compiledFiles = new ConcurrentHashMap<>();
+        ShadowStore.LOG.info(String.format("compiling the static resources into '%s'", directory)); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the files compiled from former versions of a static resource
+     * @param entryDirectory the directory holding the compiled files of the static resource
+     * @param compiledFile the compiled file of the current version
+     * @throws IOException if the directory cannot be listed
+     */
+    private void deleteStale(final Path entryDirectory, final Path compiledFile)
+    throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(entryDirectory, '*' + ShadowStore.EXTENSION)) {
+            for (final Path path : stream) {
+                if (path.equals(compiledFile)) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(path);
+                } catch (final IOException e) {
+                    // a request may still read it. it is deleted with the next version
+                    ShadowStore.LOG.debug(String.format("could not delete '%s'", path), e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    /**
+     * Does an atomic compilation of the static resource into the shadow directory, unless it is compiled already. The compiled file is served
+     * from the path of the static resource, so the resources used by a stylesheet stay where they are
+     * @param filePath the context relative path of the static resource
+     * @param source the static resource
+     * @param compilationLevel the default compilation level
+     * @return the FileType corresponding to the compiled file
+     * @throws IOException if the file reading/ writing fails
+     */
+    FileType compile(final String filePath, final Path source, final CompilationLevel compilationLevel)
+    throws IOException {
+        final FileType fileType = FileType.fromPath(source);
+        if (null == fileType) {
+            ShadowStore.LOG.error("Invalid file requested."); //$NON-NLS-1$
+            throw new FileNotFoundException("Invalid File Name"); //$NON-NLS-1$
+        }
+        final Path entryDirectory = this.directory.resolve(filePath);
+        final Path compiledFile = entryDirectory.resolve(CompilationCache.getKey(fileType, compilationLevel, Collections.singletonList(source))
+            + ShadowStore.EXTENSION);
+        if (Files.isRegularFile(compiledFile)) {
+            ShadowStore.LOG.debug(String.format("'%s' is unchanged since its last compilation", filePath)); //$NON-NLS-1$
+            CompileMetrics.addInputBytes(Files.size(source));
+            CompileMetrics.setCacheHit(true);
+            CompileMetrics.setOutputBytes(Files.size(compiledFile));
+        } else {
+            ShadowStore.LOG.info(String.format("compiling %s in '%s'...", fileType, source)); //$NON-NLS-1$
+            CompileMetrics.setCacheHit(false);
+            Files.createDirectories(entryDirectory);
+            final Path temporaryFile = Files.createTempFile(entryDirectory, null, ".tmp"); //$NON-NLS-1$
+            try {
+                // the compilation cache is not used, the shadow directory is keyed the same
+                FileCompiler.compile(fileType, Collections.singletonList(source), temporaryFile.toFile(), source, compilationLevel, 0, null, null);
+                Files.move(temporaryFile, compiledFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+        this.compiledFiles.put(filePath, compiledFile);
+        this.deleteStale(entryDirectory, compiledFile);
+        return fileType;
+    }
+
+    /**
+     * Returns the last compiled file of a static resource
+     * @param filePath the context relative path of the static resource
+     * @return the compiled file. null if the static resource is not compiled
+     */
+    Path get(final String filePath) {
+        return this.compiledFiles.get(filePath);
+    }
+}
@@ -0,0 +1,170 @@
+package teapot.web.filter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs compilations so that every path is compiled at most once at a time. The first request for a path runs the compilation, all concurrent
+ * requests for the same path wait for it and share its result. Paths compiled permanently are remembered and looked up without any locking.
+ * @see CompilerFilter
+ */
+class SingleFlightCompiler {
+    /**
+     * the LOG object
+     */
+    private static final Logger                               LOG = Logger.getLogger(SingleFlightCompiler.class);
+    /**
+     * map of the context relative path of permanently compiled files and the file type they were compiled to
+     */
+    private final ConcurrentMap<String, FileType>             compiledFiles;
+    /**
+     * map of the context relative path and the compilation currently running for it
+     */
+    private final ConcurrentMap<String, FutureTask<FileType>> inFlight;
+
+    /**
+     * Waits for the compilation task and returns its result, unwrapping the exception thrown by the compilation. A worker of a fork join pool
+     * waits as a managed blocker, so the pool starts a spare worker meanwhile: the compilation may itself wait for builds queued on the same
+     * pool
+     * @param task the compilation task
+     * @return the file type returned by the compilation
+     * @throws IOException if the compilation failed or the wait was interrupted
+     */
+    private static FileType getResult(final FutureTask<FileType> task)
+    throws IOException {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block()
+                throws InterruptedException {
+                    try {
+                        task.get();
+                    } catch (final ExecutionException e) {
+                        // the failure is thrown once the task is done
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return task.isDone();
+                }
+            });
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compilation"); //$NON-NLS-1$
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Instantiates SingleFlightCompiler
+     */
+    SingleFlightCompiler() {
+        this.compiledFiles = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Compiles the path using the compilation passed, unless the path is already compiled permanently or its compilation is already running. In
+     * the later case, the call waits for the running compilation and returns its result.
+     * @param path the context relative path of the file to compile
+     * @param compilation the compilation to run if no compilation is running for the path
+     * @param permanent if true, the path is marked as compiled and will never be compiled again
+     * @return the file type of the compiled file
+     * @throws IOException if the compilation fails
+     */
+    FileType compile(final String path, final Callable<FileType> compilation, final boolean permanent)
+    throws IOException {
+        final FileType compiledType = this.compiledFiles.get(path);
+        if (null != compiledType) {
+            return compiledType;
+        }
+        final FutureTask<FileType> task = new FutureTask<>(new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws Exception {
+                // the path may have been compiled between the lookup and the registration of this task. the task still completes, as other
+                // requests may wait for it already
+                final FileType fileType = SingleFlightCompiler.this.compiledFiles.get(path);
+                if (null != fileType) {
+                    return fileType;
+                }
+                SingleFlightCompiler.LOG.debug(String.format("compiling '%s'", path)); //$NON-NLS-1$
+                return compilation.call();
+            }
+        });
+        FutureTask<FileType> running = this.inFlight.putIfAbsent(path, task);
+        if (null == running) {
+            running = task;
+            try {
+                task.run();
+                // mark the path compiled before the task is released, so that no request can start a second compilation
+                if (permanent && !task.isCancelled()) {
+                    final FileType fileType = SingleFlightCompiler.getResult(task);
+                    this.compiledFiles.put(path, fileType);
+                    return fileType;
+                }
+            } finally {
+                this.inFlight.remove(path, task);
+            }
+        } else {
+            SingleFlightCompiler.LOG.debug(String.format("compilation of '%s' is running. Waiting for it", path)); //$NON-NLS-1$
+        }
+        return SingleFlightCompiler.getResult(running);
+    }
+
+    /**
+     * Returns the paths of all files compiled permanently
+     * @return the paths of all files compiled permanently
+     */
+    Set<String> getCompiledFiles() {
+        return this.compiledFiles.keySet();
+    }
+
+    /**
+     * Returns the file type the path was permanently compiled to
+     * @param path the context relative path of the file
+     * @return the file type of the compiled file. null if the path is not compiled permanently
+     */
+    FileType getFileType(final String path) {
+        return this.compiledFiles.get(path);
+    }
+
+    /**
+     * Forgets that the path is compiled permanently, so that the next compilation of the path runs again. A compilation running for the path is
+     * not affected
+     * @param path the context relative path of the file
+     */
+    void invalidate(final String path) {
+        this.compiledFiles.remove(path);
+    }
+
+    /**
+     * Checks if the path is compiled permanently. The check does not lock
+     * @param path the context relative path of the file
+     * @return true if the path is compiled permanently
+     */
+    boolean isCompiled(final String path) {
+        return this.compiledFiles.containsKey(path);
+    }
+}
@@ -0,0 +1,257 @@
+package teapot.web.filter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches the base directories of the merged files and reports the merged files affected by a change. A modified file affects the merged
+ * files it was last merged into, a created or deleted file affects the merged files searching its directory, as the file patterns may match it.
+ * The merged files depending on an affected file are affected too. Events arriving in quick succession (like an editor saving several files) are
+ * reported together.
+ * @see CompilerFilter
+ */
+class SourceWatcher
+implements Closeable {
+    /**
+     * Receives the merged files affected by a change
+     */
+    static interface Listener {
+        /**
+         * Called on the watcher thread when sources change
+         * @param paths the context relative paths of the affected merged files, in the order they have to be built
+         */
+        void sourcesChanged(List<String> paths);
+    }
+
+    /**
+     * the time in milliseconds to wait for more events before reporting a change
+     */
+    private static final long                   DEBOUNCE_MILLIS = 100;
+    /**
+     * the LOG object
+     */
+    private static final Logger                 LOG             = Logger.getLogger(SourceWatcher.class);
+    /**
+     * This string represents the local path of the context root
+     */
+    private final String                        basePath;
+    /**
+     * the dependency graph of the merged files
+     */
+    private final BuildScheduler                buildScheduler;
+    /**
+     * map of the context relative path of the merged files and their compiler beans
+     */
+    private final Map<String, CompilerBean>     compilerBeanMap;
+    /**
+     * the index of the files in the base directories. Invalidated when a file is created or deleted
+     */
+    private final DirectoryIndex                directoryIndex;
+    /**
+     * the listener notified of the affected merged files
+     */
+    private final Listener                      listener;
+    /**
+     * the merged files and the chunk files. changes to them and to their temporary files are caused by the builds and are ignored
+     */
+    private final Set<Path>                     outputFiles;
+    /**
+     * the thread processing the events
+     */
+    private final Thread                        thread;
+    /**
+     * map of the registered watch keys and the directories they watch
+     */
+    private final ConcurrentMap<WatchKey, Path> watchKeys;
+    /**
+     * the watch service of the file system
+     */
+    private final WatchService                  watchService;
+
+    /**
+     * Instantiates SourceWatcher and registers all directories under the base directories of the merged files. Call {@link #start()} to start
+     * watching
+     * @param basePath the local path of the context root
+     * @param compilerBeanMap map of the context relative path of the merged files and their compiler beans
+     * @param buildScheduler the dependency graph of the merged files
+     * @param directoryIndex the index of the files in the base directories
+     * @param listener the listener notified of the affected merged files
+     * @throws IOException if the directories cannot be registered
+     */
+    SourceWatcher(final String basePath, final Map<String, CompilerBean> compilerBeanMap, final BuildScheduler buildScheduler,
+        final DirectoryIndex directoryIndex, final Listener listener)
+    throws IOException {
+        this.basePath = basePath;
+        this.compilerBeanMap = compilerBeanMap;
+        this.buildScheduler = buildScheduler;
+        this.directoryIndex = directoryIndex;
+        this.listener = listener;
+        this.outputFiles = new HashSet<>();
+        this.watchKeys = new ConcurrentHashMap<>();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        final Set<Path> baseDirectories = new HashSet<>();
+        for (final Map.Entry<String, CompilerBean> entry : compilerBeanMap.entrySet()) {
+            this.outputFiles.add(Paths.get(basePath, entry.getKey()));
+            for (final String chunkFile : entry.getValue().getChunkFiles()) {
+                this.outputFiles.add(Paths.get(basePath, chunkFile));
+            }
+            final Path baseDirectory = Paths.get(basePath, entry.getValue().getBaseDirectory());
+            if (baseDirectories.add(baseDirectory) && Files.isDirectory(baseDirectory)) {
+                this.register(baseDirectory);
+            }
+        }
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SourceWatcher.this.processEvents();
+            }
+        }, "teapot-source-watcher"); //$NON-NLS-1$
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Stops watching and releases the watch service
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close()
+    throws IOException {
+        this.thread.interrupt();
+        this.watchService.close();
+    }
+
+    /**
+     * Adds the merged files affected by an event on the file
+     * @param file the file the event occurred on
+     * @param kind the kind of the event
+     * @param affected the set to add the context relative paths of the affected merged files to
+     */
+    private void collectAffected(final Path file, final WatchEvent.Kind<?> kind, final Set<String> affected) {
+        for (final Map.Entry<String, CompilerBean> entry : this.compilerBeanMap.entrySet()) {
+            final CompilerBean bean = entry.getValue();
+            if (!file.startsWith(Paths.get(this.basePath, bean.getBaseDirectory()))) {
+                continue;
+            }
+            // a modified file only matters if it is merged, a new or deleted file can change the files matched by the patterns
+            if (StandardWatchEventKinds.ENTRY_MODIFY != kind || bean.getInputFiles().contains(file)) {
+                affected.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Checks if the file is written by the builds: a merged file, a chunk file, or one of the temporary files they are written under
+     * @param file the file
+     * @return true if the file is written by the builds
+     */
+    private boolean isOutput(final Path file) {
+        if (this.outputFiles.contains(file)) {
+            return true;
+        }
+        for (final Path outputFile : this.outputFiles) {
+            if (FileCompiler.isTemporaryFile(file, outputFile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for events and notifies the listener of the affected merged files till the watcher is closed
+     */
+    private void processEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey watchKey = this.watchService.take();
+                final Set<String> affected = new HashSet<>();
+                // collect the events till no new event arrives for the debounce time
+                while (null != watchKey) {
+                    final Path directory = this.watchKeys.get(watchKey);
+                    for (final WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (StandardWatchEventKinds.OVERFLOW == event.kind() || null == directory) {
+                            // events are lost. rebuild everything
+                            this.directoryIndex.invalidateAll();
+                            affected.addAll(this.compilerBeanMap.keySet());
+                            continue;
+                        }
+                        final Path file = directory.resolve((Path) event.context());
+                        // the builds write the merged files. their changes would trigger the builds again
+                        if (this.isOutput(file)) {
+                            continue;
+                        }
+                        if (StandardWatchEventKinds.ENTRY_MODIFY != event.kind()) {
+                            this.directoryIndex.invalidate(file);
+                        }
+                        if (StandardWatchEventKinds.ENTRY_CREATE == event.kind() && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                            this.register(file);
+                        }
+                        this.collectAffected(file, event.kind(), affected);
+                    }
+                    if (!watchKey.reset()) {
+                        // the directory is deleted
+                        this.watchKeys.remove(watchKey);
+                    }
+                    watchKey = this.watchService.poll(SourceWatcher.DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!affected.isEmpty()) {
+                    final List<String> paths = this.buildScheduler.getDependents(affected);
+                    SourceWatcher.LOG.info("sources changed. affected files: " + paths); //$NON-NLS-1$
+                    this.listener.sourcesChanged(paths);
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            SourceWatcher.LOG.debug("source watcher stopped"); //$NON-NLS-1$
+        } catch (final IOException e) {
+            SourceWatcher.LOG.error("Error watching sources. Merged files will not be rebuilt on change", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Registers the directory and all directories under it with the watch service
+     * @param directory the directory to register
+     * @throws IOException if the directory cannot be registered
+     */
+    private void register(final Path directory)
+    throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+            throws IOException {
+                final WatchKey watchKey = dir.register(SourceWatcher.this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                SourceWatcher.this.watchKeys.put(watchKey, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Starts watching the directories on a daemon thread
+     */
+    void start() {
+        SourceWatcher.LOG.info(String.format("watching %d directories for changes", Integer.valueOf(this.watchKeys.size()))); //$NON-NLS-1$
+        this.thread.start();
+    }
+}
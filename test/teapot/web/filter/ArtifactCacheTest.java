@@ -0,0 +1,94 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the budget of the artifact cache: the eviction of the least recently used artifacts, and the artifacts larger than the budget
+ * @see ArtifactCache
+ */
+public class ArtifactCacheTest {
+    /**
+     * the temporary directory of the compiled files
+     */
+    private Path directory;
+
+    /**
+     * Creates the temporary directory with the compiled files <i>a.js</i>, <i>b.js</i> and <i>c.js</i> of 8 bytes, and <i>large.js</i>, which
+     * compresses well
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        for (final String name : new String[] { "a", "b", "c" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            TestSupport.write(this.directory.resolve(name + ".js"), "var " + name + ";\n\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        final StringBuilder script = new StringBuilder();
+        for (int index = 0; index < 200; index++) {
+            script.append("var value").append(index).append(" = ").append(index).append(";\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        TestSupport.write(this.directory.resolve("large.js"), script.toString()); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the temporary directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * The least recently used artifact is evicted when the cache grows over its budget
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testLeastRecentlyUsedIsEvicted()
+    throws Exception {
+        final ArtifactCache cache = new ArtifactCache(16, Long.MAX_VALUE, 0);
+        final Artifact a = cache.load("a.js", this.directory.resolve("a.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        cache.load("b.js", this.directory.resolve("b.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        Thread.sleep(1);
+        assertSame(a, cache.get("a.js")); //$NON-NLS-1$
+        cache.load("c.js", this.directory.resolve("c.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(cache.get("b.js")); //$NON-NLS-1$
+        assertSame(a, cache.get("a.js")); //$NON-NLS-1$
+    }
+
+    /**
+     * An artifact larger than the budget is kept with its compressed variants, so it is not read and compressed again on every request. It does
+     * not count against the budget
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testOversizedArtifactIsKept()
+    throws Exception {
+        final ArtifactCache cache = new ArtifactCache(16, Long.MAX_VALUE, 9);
+        final Artifact a = cache.load("a.js", this.directory.resolve("a.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        final Artifact large = cache.load("large.js", this.directory.resolve("large.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(large.isCompressed());
+        assertSame(large, cache.get("large.js")); //$NON-NLS-1$
+        assertSame(a, cache.get("a.js")); //$NON-NLS-1$
+        // once small enough, the artifact moves into the budget
+        TestSupport.write(this.directory.resolve("large.js"), "var l;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final Artifact small = cache.load("large.js", this.directory.resolve("large.js"), FileType.SCRIPT); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNotSame(large, small);
+        assertSame(small, cache.get("large.js")); //$NON-NLS-1$
+        cache.clear();
+        assertNull(cache.get("large.js")); //$NON-NLS-1$
+    }
+}
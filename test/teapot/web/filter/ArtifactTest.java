@@ -0,0 +1,124 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the compressed variants of the artifacts, built once when the compiled file is read
+ * @see Artifact
+ */
+public class ArtifactTest {
+    /**
+     * the compiled file
+     */
+    private Path file;
+
+    /**
+     * Reads the whole stream
+     * @param in the stream to read
+     * @return the bytes read
+     * @throws IOException if reading fails
+     */
+    private static byte[] readAll(final InputStream in)
+    throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the artifact content in the encoding
+     * @param artifact the artifact
+     * @param encoding the encoding
+     * @return the written content
+     * @throws IOException if writing fails
+     */
+    private static byte[] toBytes(final Artifact artifact, final ContentEncoding encoding)
+    throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        artifact.writeTo(out, encoding);
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates the compiled file
+     * @throws IOException if the file cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.file = Files.createTempFile("teapot-artifact", ".js"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Deletes the compiled file
+     * @throws IOException if the file cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * The gzip and deflate variants decompress to the identity content, for heap and memory mapped files
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testCompressedVariants()
+    throws IOException {
+        final StringBuilder script = new StringBuilder();
+        for (int index = 0; index < 2000; index++) {
+            script.append("var value").append(index).append(" = ").append(index).append(";\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        final byte[] identity = script.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(this.file, identity);
+        for (final long mmapThreshold : new long[] { Long.MAX_VALUE, 0 }) {
+            final Artifact artifact = Artifact.fromFile(this.file, FileType.SCRIPT, mmapThreshold, 9);
+            assertTrue(artifact.isCompressed());
+            assertEquals(ContentEncoding.GZIP, artifact.selectEncoding("gzip")); //$NON-NLS-1$
+            assertArrayEquals(identity, ArtifactTest.toBytes(artifact, ContentEncoding.IDENTITY));
+            assertArrayEquals(identity, ArtifactTest.readAll(new GZIPInputStream(new ByteArrayInputStream(ArtifactTest.toBytes(artifact,
+                ContentEncoding.GZIP)))));
+            assertArrayEquals(identity, ArtifactTest.readAll(new InflaterInputStream(new ByteArrayInputStream(ArtifactTest.toBytes(artifact,
+                ContentEncoding.DEFLATE)))));
+            assertTrue(artifact.getLength(ContentEncoding.GZIP) < identity.length);
+        }
+    }
+
+    /**
+     * Tiny files, which compression makes larger, and disabled compression are served in the identity encoding only
+     * @throws IOException if the test fails
+     */
+    @Test
+    public void testIdentityOnly()
+    throws IOException {
+        Files.write(this.file, "a;".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        final Artifact tiny = Artifact.fromFile(this.file, FileType.SCRIPT, Long.MAX_VALUE, 9);
+        assertFalse(tiny.isCompressed());
+        assertEquals(ContentEncoding.IDENTITY, tiny.selectEncoding("gzip, deflate")); //$NON-NLS-1$
+        Files.write(this.file, new byte[4096]);
+        assertFalse(Artifact.fromFile(this.file, FileType.SCRIPT, Long.MAX_VALUE, 0).isCompressed());
+    }
+}
@@ -0,0 +1,179 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the responses written for a compiled script with a gzip variant: full content, conditional requests, HEAD requests and byte ranges
+ * @see ArtifactWriter
+ */
+public class ArtifactWriterTest {
+    /**
+     * the artifact of the compiled script
+     */
+    private Artifact artifact;
+    /**
+     * the content of the compiled script
+     */
+    private byte[]   content;
+    /**
+     * the compiled script
+     */
+    private Path     file;
+
+    /**
+     * Creates the artifact of the compiled script
+     * @throws IOException if the script cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        final StringBuilder script = new StringBuilder();
+        for (int index = 0; index < 100; index++) {
+            script.append("var value").append(index).append(" = ").append(index).append(";\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        this.content = script.toString().getBytes(StandardCharsets.UTF_8);
+        this.file = Files.write(Files.createTempFile("teapot-artifact", ".js"), this.content); //$NON-NLS-1$ //$NON-NLS-2$
+        this.artifact = Artifact.fromFile(this.file, FileType.SCRIPT, Long.MAX_VALUE, 6);
+    }
+
+    /**
+     * Deletes the compiled script
+     * @throws IOException if the script cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    /**
+     * A GET request is answered with the whole content, its exact length and its entity tag. The gzip variant has its own entity tag
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testFullContent()
+    throws Exception {
+        final TestSupport.Response response = this.write("GET"); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertArrayEquals(this.content, response.body.toByteArray());
+        assertEquals(Integer.toString(this.content.length), response.getHeader("Content-Length")); //$NON-NLS-1$
+        assertEquals("bytes", response.getHeader("Accept-Ranges")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("Accept-Encoding", response.getHeader("Vary")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(this.artifact.getETag(ContentEncoding.IDENTITY), response.getHeader("ETag")); //$NON-NLS-1$
+        assertNull(response.getHeader("Content-Encoding")); //$NON-NLS-1$
+        final TestSupport.Response gzip = this.write("GET", "Accept-Encoding", "gzip"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertEquals("gzip", gzip.getHeader("Content-Encoding")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(this.artifact.getETag(ContentEncoding.GZIP), gzip.getHeader("ETag")); //$NON-NLS-1$
+        assertEquals(Long.toString(this.artifact.getLength(ContentEncoding.GZIP)), gzip.getHeader("Content-Length")); //$NON-NLS-1$
+    }
+
+    /**
+     * A HEAD request is answered with the headers of the GET request and no content
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testHead()
+    throws Exception {
+        final TestSupport.Response response = this.write("HEAD"); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertEquals(0, response.body.size());
+        assertEquals(Integer.toString(this.content.length), response.getHeader("Content-Length")); //$NON-NLS-1$
+        assertEquals(this.artifact.getETag(ContentEncoding.IDENTITY), response.getHeader("ETag")); //$NON-NLS-1$
+    }
+
+    /**
+     * A request with a matching entity tag, weak or in a list, or with the wildcard, is answered with the status 304 and no content. An entity
+     * tag of another encoding does not match
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testNotModified()
+    throws Exception {
+        final String eTag = this.artifact.getETag(ContentEncoding.IDENTITY);
+        for (final String ifNoneMatch : new String[] { eTag, "W/" + eTag, "\"other\", " + eTag, "*" }) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            final TestSupport.Response response = this.write("GET", "If-None-Match", ifNoneMatch); //$NON-NLS-1$ //$NON-NLS-2$
+            assertEquals(ifNoneMatch, HttpServletResponse.SC_NOT_MODIFIED, response.status);
+            assertEquals(0, response.body.size());
+            assertNull(response.getHeader("Content-Length")); //$NON-NLS-1$
+        }
+        final TestSupport.Response gzip = this.write("GET", "Accept-Encoding", "gzip", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "If-None-Match", eTag); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, gzip.status);
+    }
+
+    /**
+     * Single byte ranges are answered with the status 206 and the range of the content. Multiple or malformed ranges, and ranges of a
+     * previous content as per the If-Range header, are answered with the whole content
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRange()
+    throws Exception {
+        final int length = this.content.length;
+        final TestSupport.Response range = this.write("GET", "Range", "bytes=10-19"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, range.status);
+        assertArrayEquals(Arrays.copyOfRange(this.content, 10, 20), range.body.toByteArray());
+        assertEquals("bytes 10-19/" + length, range.getHeader("Content-Range")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("10", range.getHeader("Content-Length")); //$NON-NLS-1$ //$NON-NLS-2$
+        final TestSupport.Response suffix = this.write("GET", "Range", "bytes=-5"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        assertArrayEquals(Arrays.copyOfRange(this.content, length - 5, length), suffix.body.toByteArray());
+        final TestSupport.Response open = this.write("GET", "Range", "bytes=100-", "If-Range", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            this.artifact.getETag(ContentEncoding.IDENTITY));
+        assertEquals(String.format("bytes 100-%d/%d", Integer.valueOf(length - 1), Integer.valueOf(length)), //$NON-NLS-1$
+            open.getHeader("Content-Range")); //$NON-NLS-1$
+        assertArrayEquals(Arrays.copyOfRange(this.content, 100, length), open.body.toByteArray());
+        final String[][] ignoredRanges = { { "Range", "bytes=0-1,5-6" }, //$NON-NLS-1$ //$NON-NLS-2$
+            { "Range", "bytes=9-2" }, //$NON-NLS-1$ //$NON-NLS-2$
+            { "Range", "bytes=0-1", "If-Range", "\"previous\"" } }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        for (final String[] headers : ignoredRanges) {
+            final TestSupport.Response response = this.write("GET", headers); //$NON-NLS-1$
+            assertEquals(Arrays.toString(headers), HttpServletResponse.SC_OK, response.status);
+            assertArrayEquals(this.content, response.body.toByteArray());
+            assertNull(response.getHeader("Content-Range")); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Ranges starting after the content are answered with the status 416 and the length of the content
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRangeNotSatisfiable()
+    throws Exception {
+        final String afterContent = String.format("bytes=%d-", Integer.valueOf(this.content.length)); //$NON-NLS-1$
+        for (final String range : new String[] { afterContent, "bytes=-0" }) { //$NON-NLS-1$
+            final TestSupport.Response response = this.write("GET", "Range", range); //$NON-NLS-1$ //$NON-NLS-2$
+            assertEquals(range, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+            assertEquals("bytes */" + this.content.length, response.getHeader("Content-Range")); //$NON-NLS-1$ //$NON-NLS-2$
+            assertEquals(0, response.body.size());
+        }
+    }
+
+    /**
+     * Writes the artifact for the request
+     * @param method the request method
+     * @param headers the request headers, as name and value pairs
+     * @return the response
+     * @throws IOException if writing fails
+     */
+    private TestSupport.Response write(final String method, final String... headers)
+    throws IOException {
+        final TestSupport.Response response = new TestSupport.Response();
+        ArtifactWriter.write(this.artifact, TestSupport.request(method, "script/all.js", headers), response.proxy); //$NON-NLS-1$
+        return response;
+    }
+}
@@ -0,0 +1,246 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests the build of the dependencies on a diamond shaped graph: <i>d.js</i> depends on <i>b.js</i> and <i>c.js</i>, which both depend on
+ * <i>a.js</i>
+ * @see BuildScheduler
+ */
+public class BuildSchedulerTest {
+    /**
+     * the merged files of the diamond, with their dependencies
+     */
+    private static final String              DIAMOND  = "<scripts mergedir=\"script\" basedir=\"script\">" //$NON-NLS-1$
+                                                         + "<to-file><name>a.js</name><include>a/**.js</include></to-file>" //$NON-NLS-1$
+                                                         + "<to-file dependency=\"script/a.js\"><name>b.js</name><include>b/**.js</include></to-file>" //$NON-NLS-1$
+                                                         + "<to-file dependency=\"script/a.js\"><name>c.js</name><include>c/**.js</include></to-file>" //$NON-NLS-1$
+                                                         + "<to-file dependency=\"script/b.js,script/c.js\"><name>d.js</name><include>d/**.js</include>" //$NON-NLS-1$
+                                                         + "</to-file></scripts>"; //$NON-NLS-1$
+    /**
+     * map of the merged files and the number of times they were built
+     */
+    private final Map<String, AtomicInteger> builds   = new ConcurrentHashMap<>();
+    /**
+     * the compiler running every build once at a time
+     */
+    private final SingleFlightCompiler       compiler = new SingleFlightCompiler();
+    /**
+     * the threads sending the requests
+     */
+    private ExecutorService                  requests;
+    /**
+     * the dependency graph of the diamond
+     */
+    private BuildScheduler                   scheduler;
+    /**
+     * the directory of the configuration
+     */
+    private Path                             webRoot;
+
+    /**
+     * Builds a merged file through the single-flight compiler and counts the builds
+     * @param path the context relative path of the merged file
+     * @param work the build itself. can be null
+     * @throws IOException if the build fails
+     */
+    private void build(final String path, final Callable<Void> work)
+    throws IOException {
+        this.compiler.compile(path, new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws Exception {
+                BuildSchedulerTest.this.builds.get(path).incrementAndGet();
+                if (null != work) {
+                    work.call();
+                }
+                return FileType.SCRIPT;
+            }
+        }, true);
+    }
+
+    /**
+     * Creates a builder building the merged files through the single-flight compiler
+     * @param work the work of every build. can be null
+     * @return the builder
+     */
+    private BuildScheduler.Builder builder(final Callable<Void> work) {
+        return new BuildScheduler.Builder() {
+            @Override
+            public void build(final String path)
+            throws IOException {
+                BuildSchedulerTest.this.build(path, work);
+            }
+        };
+    }
+
+    /**
+     * Requests a merged file: builds its dependencies on the pool, then the file itself on the request thread
+     * @param path the context relative path of the merged file
+     * @param pool the pool building the dependencies
+     * @param beforeDependencies run by the request before building the dependencies, once it compiles the file. can be null
+     * @return the future of the request
+     */
+    private Future<Void> request(final String path, final ExecutorService pool, final Callable<Void> beforeDependencies) {
+        return this.requests.submit(new Callable<Void>() {
+            @Override
+            public Void call()
+            throws Exception {
+                BuildSchedulerTest.this.build(path, new Callable<Void>() {
+                    @Override
+                    public Void call()
+                    throws Exception {
+                        if (null != beforeDependencies) {
+                            beforeDependencies.call();
+                        }
+                        BuildSchedulerTest.this.scheduler.buildDependencies(path, BuildSchedulerTest.this.builder(null), pool);
+                        return null;
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Parses the diamond
+     * @throws Exception if the configuration cannot be parsed
+     */
+    @Before
+    public void setUp()
+    throws Exception {
+        this.webRoot = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        this.scheduler = TestSupport.parseConfig(this.webRoot, "", BuildSchedulerTest.DIAMOND).getBuildScheduler(); //$NON-NLS-1$
+        for (final String path : Arrays.asList("script/a.js", "script/b.js", "script/c.js", "script/d.js")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            this.builds.put(path, new AtomicInteger());
+        }
+        this.requests = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Stops the request threads and deletes the configuration
+     * @throws IOException if the configuration cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.requests.shutdownNow();
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * A dependency cycle is rejected when the configuration is parsed
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testCycleIsRejected()
+    throws Exception {
+        try {
+            TestSupport.parseConfig(this.webRoot, "", "<scripts mergedir=\"script\" basedir=\"script\">" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<to-file dependency=\"script/b.js\"><name>a.js</name><include>a/**.js</include></to-file>" //$NON-NLS-1$
+                + "<to-file dependency=\"script/a.js\"><name>b.js</name><include>b/**.js</include></to-file></scripts>"); //$NON-NLS-1$
+            fail("the cycle is not rejected"); //$NON-NLS-1$
+        } catch (final SAXException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cycle")); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * The shared dependency is built once and first, and the independent dependencies are built at the same time
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDiamondBuildsEveryNodeOnce()
+    throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            this.scheduler.buildDependencies("script/d.js", this.builder(new Callable<Void>() { //$NON-NLS-1$
+                @Override
+                public Void call()
+                throws InterruptedException {
+                    final int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    Thread.sleep(200);
+                    running.decrementAndGet();
+                    return null;
+                }
+            }), pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals("script/a.js", this.scheduler.getBuildOrder("script/d.js").get(0)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(1, this.builds.get("script/a.js").get()); //$NON-NLS-1$
+        assertEquals(1, this.builds.get("script/b.js").get()); //$NON-NLS-1$
+        assertEquals(1, this.builds.get("script/c.js").get()); //$NON-NLS-1$
+        assertEquals(0, this.builds.get("script/d.js").get()); //$NON-NLS-1$
+        // a.js runs alone, b.js and c.js together
+        assertEquals(2, maxRunning.get());
+    }
+
+    /**
+     * A request for <i>d.js</i> builds <i>b.js</i> on the pool while a concurrent request compiles <i>b.js</i> itself. The build on the pool
+     * waits for that compilation, which waits for its own build of <i>a.js</i>, queued behind on the same pool of one worker: the pool has to
+     * start a spare worker for the waiting build instead of deadlocking
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testConcurrentRequestDoesNotDeadlock()
+    throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        final CountDownLatch bCompiling = new CountDownLatch(1);
+        final CountDownLatch bReleased = new CountDownLatch(1);
+        try {
+            // the request for b.js compiles it, and builds its dependencies once the request for d.js waits for it on the pool
+            final Future<Void> requestB = this.request("script/b.js", pool, new Callable<Void>() { //$NON-NLS-1$
+                @Override
+                public Void call()
+                throws InterruptedException {
+                    bCompiling.countDown();
+                    bReleased.await();
+                    return null;
+                }
+            });
+            bCompiling.await();
+            final Future<Void> requestD = this.request("script/d.js", pool, null); //$NON-NLS-1$
+            // a.js is built for d.js, then the pool waits for the compilation of b.js
+            while (0 == this.builds.get("script/a.js").get()) { //$NON-NLS-1$
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            bReleased.countDown();
+            requestB.get(10, TimeUnit.SECONDS);
+            requestD.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        for (final Map.Entry<String, AtomicInteger> entry : this.builds.entrySet()) {
+            assertEquals(entry.getKey(), 1, entry.getValue().get());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Tests the keys, the storing and the restoring of the compilation cache
+ * @see CompilationCache
+ */
+public class CompilationCacheTest {
+    /**
+     * the temporary directory of the sources and the cache
+     */
+    private Path directory;
+
+    /**
+     * Creates the temporary directory with two sources
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        TestSupport.write(this.directory.resolve("a.js"), "var a;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.directory.resolve("b.js"), "var b;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Deletes the temporary directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * The key only changes with the content, the order, the file type and the compilation level of the sources, not with their modification
+     * times
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testKey()
+    throws Exception {
+        final Path a = this.directory.resolve("a.js"); //$NON-NLS-1$
+        final Path b = this.directory.resolve("b.js"); //$NON-NLS-1$
+        final List<Path> files = Arrays.asList(a, b);
+        final String key = CompilationCache.getKey(FileType.SCRIPT, CompilationLevel.SIMPLE_OPTIMIZATIONS, files);
+        assertEquals(64, key.length());
+        Files.setLastModifiedTime(a, FileTime.fromMillis(0));
+        assertEquals(key, CompilationCache.getKey(FileType.SCRIPT, CompilationLevel.SIMPLE_OPTIMIZATIONS, files));
+        assertNotEquals(key, CompilationCache.getKey(FileType.SCRIPT, CompilationLevel.ADVANCED_OPTIMIZATIONS, files));
+        assertNotEquals(key, CompilationCache.getKey(FileType.SCRIPT, null, files));
+        assertNotEquals(key, CompilationCache.getKey(FileType.STYLE, CompilationLevel.SIMPLE_OPTIMIZATIONS, files));
+        assertNotEquals(key, CompilationCache.getKey(FileType.SCRIPT, CompilationLevel.SIMPLE_OPTIMIZATIONS, Arrays.asList(b, a)));
+        TestSupport.write(a, "var a = 1;\n"); //$NON-NLS-1$
+        assertNotEquals(key, CompilationCache.getKey(FileType.SCRIPT, CompilationLevel.SIMPLE_OPTIMIZATIONS, files));
+    }
+
+    /**
+     * The length of every file is part of the key, so moving content from one file to the next changes the key
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testKeyKeepsFileBoundaries()
+    throws Exception {
+        final Path a = this.directory.resolve("a.js"); //$NON-NLS-1$
+        final Path b = this.directory.resolve("b.js"); //$NON-NLS-1$
+        final String key = CompilationCache.getKey(FileType.SCRIPT, null, Arrays.asList(a, b));
+        TestSupport.write(a, "var a;\nvar b;\n"); //$NON-NLS-1$
+        TestSupport.write(b, ""); //$NON-NLS-1$
+        assertNotEquals(key, CompilationCache.getKey(FileType.SCRIPT, null, Arrays.asList(a, b)));
+    }
+
+    /**
+     * A stored compilation is restored under its key only, and the least recently used compilations are deleted when the cache is full
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStoreAndRestore()
+    throws Exception {
+        final CompilationCache cache = new CompilationCache(this.directory.resolve("cache"), 10); //$NON-NLS-1$
+        final Path output = this.directory.resolve("all.js"); //$NON-NLS-1$
+        TestSupport.write(output, "var all;\n"); //$NON-NLS-1$
+        cache.store("first", output); //$NON-NLS-1$
+        final Path restored = this.directory.resolve("restored.js"); //$NON-NLS-1$
+        assertFalse(cache.restore("missing", restored)); //$NON-NLS-1$
+        assertFalse(Files.exists(restored));
+        assertTrue(cache.restore("first", restored)); //$NON-NLS-1$
+        assertArrayEquals(Files.readAllBytes(output), Files.readAllBytes(restored));
+        // both files together exceed the size of the cache, the older one is deleted
+        Files.setLastModifiedTime(this.directory.resolve("cache/first.out"), FileTime.fromMillis(0)); //$NON-NLS-1$
+        cache.store("second", output); //$NON-NLS-1$
+        assertFalse(cache.restore("first", restored)); //$NON-NLS-1$
+        assertTrue(cache.restore("second", restored)); //$NON-NLS-1$
+    }
+}
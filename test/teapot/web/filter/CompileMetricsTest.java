@@ -0,0 +1,65 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the compile metrics recorded by the compilations
+ * @see CompileMetrics
+ */
+public class CompileMetricsTest {
+    /**
+     * Two merged files waiting for the compilation of a shared dependency, running on another thread, do not count the wait as their work,
+     * so the total work is the sum of the compilations themselves
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testWaitingForDependencyIsNotWork()
+    throws Exception {
+        final CompileMetrics compileMetrics = new CompileMetrics("/teapot-test"); //$NON-NLS-1$
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Object> dependency = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call()
+                throws Exception {
+                    return compileMetrics.measure("script/base.js", new Callable<Object>() { //$NON-NLS-1$
+                        @Override
+                        public Object call()
+                        throws InterruptedException {
+                            Thread.sleep(300);
+                            CompileMetrics.addCompileTime(TimeUnit.MILLISECONDS.toNanos(300));
+                            return null;
+                        }
+                    });
+                }
+            });
+            for (final String dependent : new String[] { "script/a.js", "script/b.js" }) { //$NON-NLS-1$ //$NON-NLS-2$
+                compileMetrics.measure(dependent, new Callable<Object>() {
+                    @Override
+                    public Object call()
+                    throws Exception {
+                        dependency.get();
+                        CompileMetrics.addCompileTime(TimeUnit.MILLISECONDS.toNanos(10));
+                        return null;
+                    }
+                });
+            }
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(320), compileMetrics.getWorkNanos());
+            // the wall time of the first dependent includes the wait
+            assertTrue(compileMetrics.get("script/a.js").getTotalMillis() >= 250); //$NON-NLS-1$
+            assertEquals(1, compileMetrics.get("script/base.js").getCompileCount()); //$NON-NLS-1$
+        } finally {
+            executor.shutdownNow();
+            compileMetrics.close();
+        }
+    }
+}
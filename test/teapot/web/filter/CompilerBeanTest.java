@@ -0,0 +1,97 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the merge of a merged file while requests read it
+ * @see CompilerBean
+ */
+public class CompilerBeanTest {
+    /**
+     * the web root
+     */
+    private Path webRoot;
+
+    /**
+     * Creates the web root with the sources of <i>script/all.js</i>
+     * @throws IOException if the web root cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.webRoot = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        TestSupport.write(this.webRoot.resolve("script/src/a.js"), "var a;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.webRoot.resolve("script/src/b.js"), "var b;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Deletes the web root
+     * @throws IOException if the web root cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * While the merged file is merged again, it keeps its former content, so a request reading it meanwhile never gets an empty or a truncated
+     * file. The new content replaces it once written
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testMergedFileIsReplacedOnceWritten()
+    throws Exception {
+        final CompilerBean bean = TestSupport.parseConfig(this.webRoot, "", //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file><name>all.js</name><include>src/**.js</include></to-file></scripts>") //$NON-NLS-1$
+            .toCompilerBeanMap().get("script/all.js"); //$NON-NLS-1$
+        final Path mergedFile = this.webRoot.resolve("script/all.js"); //$NON-NLS-1$
+        bean.merge(this.webRoot.toString(), null, null);
+        final String former = new String(Files.readAllBytes(mergedFile), StandardCharsets.UTF_8);
+        assertEquals("var a;\nvar b;\n", former); //$NON-NLS-1$
+        TestSupport.write(this.webRoot.resolve("script/src/b.js"), "var changed;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        // the static merge streams every file to the output while it merges it. read the merged file at every write, like a request would
+        final List<String> read = new ArrayList<>();
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        bean.merge(this.webRoot.toString(), null, new OutputStream() {
+            @Override
+            public void write(final byte[] bytes, final int offset, final int length)
+            throws IOException {
+                streamed.write(bytes, offset, length);
+                read.add(new String(Files.readAllBytes(mergedFile), StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void write(final int b)
+            throws IOException {
+                this.write(new byte[] { (byte) b }, 0, 1);
+            }
+        });
+        assertTrue(read.size() > 1);
+        for (final String content : read) {
+            assertEquals(former, content);
+        }
+        assertEquals("var a;\nvar changed;\n", new String(Files.readAllBytes(mergedFile), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        assertEquals("var a;\nvar changed;\n", new String(streamed.toByteArray(), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        // no temporary file is left
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(mergedFile.getParent(), "*.tmp")) { //$NON-NLS-1$
+            assertFalse(stream.iterator().hasNext());
+        }
+    }
+}
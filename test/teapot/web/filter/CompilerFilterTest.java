@@ -0,0 +1,164 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the first requests of merged files which are not compiled yet: scripts are answered with a draft while they are compiled in the
+ * background, styles are compiled on a compile thread while the request is asynchronous
+ * @see CompilerFilter
+ */
+public class CompilerFilterTest {
+    /**
+     * the time in milliseconds to wait for a compilation
+     */
+    private static final long TIMEOUT = 10000;
+    /**
+     * the filter under test
+     */
+    private CompilerFilter    filter;
+    /**
+     * the web root
+     */
+    private Path              webRoot;
+
+    /**
+     * Creates the web root with <i>script/all.js</i> and <i>style/all.css</i>, and initializes the filter. Watched merged files without a
+     * compilation level are compiled once, with drafts
+     * @throws Exception if the filter cannot be initialized
+     */
+    @Before
+    public void setUp()
+    throws Exception {
+        this.webRoot = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        for (int index = 0; index < 20; index++) {
+            TestSupport.write(this.webRoot.resolve("script/src/file" + index + ".js"), "var file" + index + " = " + index + ";\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        }
+        TestSupport.write(this.webRoot.resolve("style/src/a.css"), ".a { color: red; }\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.filter = TestSupport.initFilter(this.webRoot, "watch=\"true\" disk-cache-size=\"0\"", //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file><name>all.js</name><include>src/**.js</include></to-file></scripts>" //$NON-NLS-1$
+                + "<styles mergedir=\"style\" basedir=\"style\"><to-file><name>all.css</name><include>src/**.css</include></to-file></styles>"); //$NON-NLS-1$
+    }
+
+    /**
+     * Destroys the filter and deletes the web root
+     * @throws IOException if the web root cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.filter.destroy();
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * A style, which gets no draft, is compiled on a compile thread, which completes the asynchronous request
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testAsyncCompilation()
+    throws Exception {
+        final TestSupport.Response response = new TestSupport.Response();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<String> completingThread = new AtomicReference<>();
+        final HttpServletRequest request = TestSupport.request("style/all.css"); //$NON-NLS-1$
+        final AsyncContext asyncContext = TestSupport.proxy(AsyncContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                case "getRequest": //$NON-NLS-1$
+                    return request;
+                case "getResponse": //$NON-NLS-1$
+                    return response.proxy;
+                case "complete": //$NON-NLS-1$
+                    completingThread.set(Thread.currentThread().getName());
+                    completed.countDown();
+                    return null;
+                default:
+                    return TestSupport.defaultValue(method);
+                }
+            }
+        });
+        final HttpServletRequest asyncRequest = TestSupport.proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            throws Throwable {
+                switch (method.getName()) {
+                case "isAsyncSupported": //$NON-NLS-1$
+                    return Boolean.TRUE;
+                case "startAsync": //$NON-NLS-1$
+                    return asyncContext;
+                default:
+                    try {
+                        return method.invoke(request, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        });
+        this.filter.doFilter(asyncRequest, response.proxy, TestSupport.failingChain());
+        assertTrue(completed.await(CompilerFilterTest.TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(completingThread.get(), completingThread.get().startsWith("teapot-compile-")); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertTrue(response.getText(), response.getText().contains(".a")); //$NON-NLS-1$
+    }
+
+    /**
+     * The first request of a script is answered with a draft, the static merge of its files, without compressed variants. The compiled file
+     * replaces the draft once compiled in the background
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDraftIsReplacedByCompiledFile()
+    throws Exception {
+        final String[] headers = { "Accept-Encoding", "gzip" }; //$NON-NLS-1$ //$NON-NLS-2$
+        final TestSupport.Response draft = new TestSupport.Response();
+        this.filter.doFilter(TestSupport.request("GET", "script/all.js", headers), draft.proxy, TestSupport.failingChain()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(HttpServletResponse.SC_OK, draft.status);
+        assertTrue(draft.getText().contains("var file19 = 19;")); //$NON-NLS-1$
+        assertEquals("no-cache", draft.getHeader("Cache-Control")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(draft.getHeader("Content-Encoding")); //$NON-NLS-1$
+        final long deadline = System.currentTimeMillis() + CompilerFilterTest.TIMEOUT;
+        TestSupport.Response compiled;
+        do {
+            Thread.sleep(20);
+            compiled = new TestSupport.Response();
+            this.filter.doFilter(TestSupport.request("GET", "script/all.js", headers), compiled.proxy, TestSupport.failingChain()); //$NON-NLS-1$ //$NON-NLS-2$
+        } while (null == compiled.getHeader("Content-Encoding") && System.currentTimeMillis() < deadline); //$NON-NLS-1$
+        assertEquals("gzip", compiled.getHeader("Content-Encoding")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Files.isRegularFile(this.webRoot.resolve("script/all.js"))); //$NON-NLS-1$
+    }
+
+    /**
+     * A request not supporting asynchronous processing waits for the compilation of a file getting no draft
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testSynchronousCompilation()
+    throws Exception {
+        final TestSupport.Response response = new TestSupport.Response();
+        this.filter.doFilter(TestSupport.request("style/all.css"), response.proxy, TestSupport.failingChain()); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertTrue(response.getText(), response.getText().contains(".a")); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,102 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the directory index on a web root where <i>script/all.js</i> is merged from the files of its own directory
+ * @see DirectoryIndex
+ */
+public class DirectoryIndexTest {
+    /**
+     * the bean of <i>script/all.js</i>
+     */
+    private CompilerBean   bean;
+    /**
+     * the index of the base directory
+     */
+    private DirectoryIndex directoryIndex;
+    /**
+     * the web root
+     */
+    private Path           webRoot;
+
+    /**
+     * Creates the web root
+     * @throws Exception if the web root cannot be created
+     */
+    @Before
+    public void setUp()
+    throws Exception {
+        this.webRoot = Files.createTempDirectory("teapot-test").toRealPath(); //$NON-NLS-1$
+        TestSupport.write(this.webRoot.resolve("script/a.js"), "var a;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.webRoot.resolve("script/lib/b.js"), "var b;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final ConfigHandler configHandler = TestSupport.parseConfig(this.webRoot, "", //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file><name>all.js</name><include>**.js</include></to-file></scripts>"); //$NON-NLS-1$
+        this.bean = configHandler.toCompilerBeanMap().get(Paths.get("script", "all.js").toString()); //$NON-NLS-1$ //$NON-NLS-2$
+        this.directoryIndex = configHandler.getDirectoryIndex();
+    }
+
+    /**
+     * Deletes the web root
+     * @throws IOException if the web root cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * Creating a source invalidates the listing, but only the directory where it is created is read to find out
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testCreatedSourceForcesRescan()
+    throws Exception {
+        this.bean.merge(this.webRoot.toString(), null, null);
+        final List<Path> files = this.directoryIndex.getFiles(this.webRoot.resolve("script")); //$NON-NLS-1$
+        Thread.sleep(1100);
+        TestSupport.write(this.webRoot.resolve("script/lib/c.js"), "var c;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final List<Path> rescanned = this.directoryIndex.getFiles(this.webRoot.resolve("script")); //$NON-NLS-1$
+        assertNotSame(files, rescanned);
+        assertTrue(rescanned.contains(Paths.get("lib", "c.js"))); //$NON-NLS-1$ //$NON-NLS-2$
+        this.bean.merge(this.webRoot.toString(), null, null);
+        assertEquals(3, this.bean.getInputFiles().size());
+    }
+
+    /**
+     * The merged file is not listed, and writing it again does not force the base directory to be walked again, although it changes the
+     * modification time of the directory
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testMergeDoesNotForceRescan()
+    throws Exception {
+        this.bean.merge(this.webRoot.toString(), null, null);
+        final Path directory = this.webRoot.resolve("script"); //$NON-NLS-1$
+        final List<Path> files = this.directoryIndex.getFiles(directory);
+        assertFalse(files.contains(Paths.get("all.js"))); //$NON-NLS-1$
+        assertEquals(2, this.bean.getInputFiles().size());
+        // the file systems with a modification time in seconds have to see the change
+        Thread.sleep(1100);
+        final long lastModified = Files.getLastModifiedTime(directory).toMillis();
+        this.bean.merge(this.webRoot.toString(), null, null);
+        assertTrue(Files.getLastModifiedTime(directory).toMillis() != lastModified);
+        assertSame(files, this.directoryIndex.getFiles(directory));
+        assertEquals(2, this.bean.getInputFiles().size());
+    }
+}
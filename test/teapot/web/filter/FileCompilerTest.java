@@ -0,0 +1,224 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the compilations of the file compiler without compilation level: the static merge of the scripts and the stylesheets, printed without
+ * optimizations
+ * @see FileCompiler
+ */
+public class FileCompilerTest {
+    /**
+     * the temporary directory of the sources and the merged files
+     */
+    private Path directory;
+
+    /**
+     * Lists the names of the entries of a directory
+     * @param directory the directory
+     * @return the sorted names of the entries
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<String> list(final Path directory)
+    throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path entry : stream) {
+                names.add(entry.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Creates the temporary directory
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the temporary directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * The merged file and the files of its chunks are replaced by new files, so a file mapped while they are merged again keeps its content
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testChunksAreReplaced()
+    throws Exception {
+        final Path a = TestSupport.write(this.directory.resolve("src/a.js"), "var a;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final Path b = TestSupport.write(this.directory.resolve("src/b.js"), "var b;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final File mergedFile = this.directory.resolve("all.js").toFile(); //$NON-NLS-1$
+        final List<ScriptChunk> chunks = Collections.singletonList(new ScriptChunk("page", null)); //$NON-NLS-1$
+        final Map<String, List<Path>> chunkFiles = Collections.singletonMap("page", Collections.singletonList(b)); //$NON-NLS-1$
+        FileCompiler.compileChunks(Collections.singletonList(a), mergedFile, chunks, chunkFiles, null);
+        final Path chunkFile = this.directory.resolve("all.page.js"); //$NON-NLS-1$
+        assertEquals("var b;\n", new String(Files.readAllBytes(chunkFile), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        final MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        TestSupport.write(b, "var changed;\n"); //$NON-NLS-1$
+        FileCompiler.compileChunks(Collections.singletonList(a), mergedFile, chunks, chunkFiles, null);
+        assertEquals("var changed;\n", new String(Files.readAllBytes(chunkFile), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        final byte[] bytes = new byte[mapped.remaining()];
+        mapped.get(bytes);
+        assertEquals("var b;\n", new String(bytes, StandardCharsets.UTF_8)); //$NON-NLS-1$
+        // no temporary file is left
+        assertEquals(Arrays.asList("all.js", "all.page.js", "src"), FileCompilerTest.list(this.directory)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    /**
+     * The resources not larger than the threshold are inlined as data uris and not copied, the larger ones are copied
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testSmallStyleResourcesAreInlined()
+    throws Exception {
+        final Path style = TestSupport.write(this.directory.resolve("css/a.css"), //$NON-NLS-1$
+            ".small { background: url(img/small.png); }\n.large { background: url(img/large.png); }\n"); //$NON-NLS-1$
+        Files.createDirectories(this.directory.resolve("css/img")); //$NON-NLS-1$
+        Files.write(this.directory.resolve("css/img/small.png"), new byte[] { 1, 2, 3 }); //$NON-NLS-1$
+        Files.write(this.directory.resolve("css/img/large.png"), new byte[64]); //$NON-NLS-1$
+        final File mergedFile = this.directory.resolve("out/all.css").toFile(); //$NON-NLS-1$
+        Files.createDirectories(mergedFile.toPath().getParent());
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(style), mergedFile, null, 32, null, null);
+        final String css = new String(Files.readAllBytes(mergedFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(css, css.contains("data:image/png;base64,AQID")); //$NON-NLS-1$
+        assertFalse(css, css.contains("img/small.png")); //$NON-NLS-1$
+        assertTrue(css, css.contains("img/large.png")); //$NON-NLS-1$
+        assertFalse(Files.exists(this.directory.resolve("out/img/small.png"))); //$NON-NLS-1$
+        assertTrue(Files.exists(this.directory.resolve("out/img/large.png"))); //$NON-NLS-1$
+        // without threshold every resource is copied
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(style), mergedFile, null, 0, null, null);
+        assertTrue(Files.exists(this.directory.resolve("out/img/small.png"))); //$NON-NLS-1$
+    }
+
+    /**
+     * Stylesheets failing to compile fail the merge, instead of exiting the process
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStyleErrorFailsMerge()
+    throws Exception {
+        final Path style = TestSupport.write(this.directory.resolve("broken.css"), ".a { color: red;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            FileCompiler.compile(FileType.STYLE, Arrays.asList(style), this.directory.resolve("all.css").toFile(), null, 0, null, null); //$NON-NLS-1$
+            fail("the broken stylesheet is compiled"); //$NON-NLS-1$
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The resources of the stylesheets are copied relative to the merged file, every destination once, and only if the copy does not have the same content.
+     * Absolute paths and external urls are not copied
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStyleResourcesAreCopiedOnce()
+    throws Exception {
+        final Path a = TestSupport.write(this.directory.resolve("css/a/a.css"), ".a { background: url(img/x.png); }\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        final Path b = TestSupport.write(this.directory.resolve("css/b/b.css"), //$NON-NLS-1$
+            ".b { background: url('img/x.png?v=1'); }\n.c { background: url(http://example.com/c.png); }\n" //$NON-NLS-1$
+                + ".d { background: url(/d.png); }\n"); //$NON-NLS-1$
+        final Path source = TestSupport.write(this.directory.resolve("css/a/img/x.png"), "first"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.directory.resolve("css/b/img/x.png"), "second"); //$NON-NLS-1$ //$NON-NLS-2$
+        final File mergedFile = this.directory.resolve("out/all.css").toFile(); //$NON-NLS-1$
+        Files.createDirectories(mergedFile.toPath().getParent());
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(a, b), mergedFile, null, 0, null, null);
+        final String css = new String(Files.readAllBytes(mergedFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(css, css.contains("img/x.png")); //$NON-NLS-1$
+        assertTrue(css, css.contains("http://example.com/c.png")); //$NON-NLS-1$
+        // the destination is copied from the first stylesheet using it
+        final Path destination = this.directory.resolve("out/img/x.png"); //$NON-NLS-1$
+        assertEquals("first", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        assertEquals(Arrays.asList("all.css", "img"), FileCompilerTest.list(this.directory.resolve("out"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(a, b), mergedFile, null, 0, null, null);
+        assertEquals("first", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        // a copy with the size and the modification time of the source, but another content, is copied again
+        Files.write(destination, "FIRST".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        Files.setLastModifiedTime(destination, Files.getLastModifiedTime(source));
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(a, b), mergedFile, null, 0, null, null);
+        assertEquals("first", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        // so is a source edited within the modification time granularity
+        final FileTime modified = Files.getLastModifiedTime(source);
+        TestSupport.write(source, "fir5t"); //$NON-NLS-1$
+        Files.setLastModifiedTime(source, modified);
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(a, b), mergedFile, null, 0, null, null);
+        assertEquals("fir5t", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        TestSupport.write(source, "changed"); //$NON-NLS-1$
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 2000));
+        FileCompiler.compile(FileType.STYLE, Arrays.asList(a, b), mergedFile, null, 0, null, null);
+        assertEquals("changed", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        assertFalse(Files.exists(this.directory.resolve("d.png"))); //$NON-NLS-1$
+    }
+
+    /**
+     * The static merge copies the bytes of the files unchanged, whatever their encoding, separates files not ending with a newline, and streams
+     * the same bytes to the output
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStaticMerge()
+    throws Exception {
+        final Path a = this.directory.resolve("a.js"); //$NON-NLS-1$
+        final Path b = this.directory.resolve("b.js"); //$NON-NLS-1$
+        final Path c = this.directory.resolve("c.js"); //$NON-NLS-1$
+        final Path empty = this.directory.resolve("empty.js"); //$NON-NLS-1$
+        // a latin-1 byte which is not valid UTF-8
+        Files.write(a, new byte[] { 'v', 'a', 'r', ' ', 'a', '=', '"', (byte) 0xe9, '"', ';' });
+        Files.write(empty, new byte[0]);
+        TestSupport.write(b, "var b = \"\u00e9\u20ac\";\n"); //$NON-NLS-1$
+        TestSupport.write(c, "var c;"); //$NON-NLS-1$
+        final File mergedFile = this.directory.resolve("all.js").toFile(); //$NON-NLS-1$
+        // the merged file is truncated
+        TestSupport.write(mergedFile.toPath(), "a longer content than the merged one, which must not remain at the end of the file\n"); //$NON-NLS-1$
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FileCompiler.compile(FileType.SCRIPT, Arrays.asList(a, empty, b, c), mergedFile, null, 0, null, output);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(Files.readAllBytes(a));
+        expected.write('\n');
+        expected.write("var b = \"\u00e9\u20ac\";\nvar c;\n".getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(mergedFile.toPath()));
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+        assertEquals(expected.size(), mergedFile.length());
+    }
+}
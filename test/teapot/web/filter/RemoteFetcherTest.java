@@ -0,0 +1,241 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the remote fetcher against a local HTTP server serving <i>/lib.js</i> with an entity tag
+ * @see RemoteFetcher
+ */
+public class RemoteFetcherTest {
+    /**
+     * the body of <i>/lib.js</i>
+     */
+    private static final String BODY          = "var lib;\n"; //$NON-NLS-1$
+    /**
+     * the entity tag of <i>/lib.js</i>
+     */
+    private static final String ETAG          = "\"v1\"";     //$NON-NLS-1$
+    /**
+     * the time in milliseconds every full response is delayed, so concurrent fetches overlap
+     */
+    private volatile long       delay;
+    /**
+     * the temporary directory of the fetched files
+     */
+    private Path                directory;
+    /**
+     * the number of full responses sent by the server
+     */
+    private final AtomicInteger downloads     = new AtomicInteger();
+    /**
+     * the fetcher under test
+     */
+    private RemoteFetcher       remoteFetcher;
+    /**
+     * the number of not modified responses sent by the server
+     */
+    private final AtomicInteger revalidations = new AtomicInteger();
+    /**
+     * the local HTTP server
+     */
+    private HttpServer          server;
+    /**
+     * the url of <i>/lib.js</i>
+     */
+    private URL                 url;
+
+    /**
+     * Counts the temporary files created by the fetches without the remote fetcher
+     * @return the number of temporary files
+     * @throws IOException if the temporary directory cannot be listed
+     */
+    private static int countTemporaryFiles()
+    throws IOException {
+        int count = 0;
+        final Path temporaryDirectory = Paths.get(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(temporaryDirectory, "teapot*.tmp")) { //$NON-NLS-1$
+            for (@SuppressWarnings("unused") final Path file : stream) { //$NON-NLS-1$
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts the server and creates the fetcher
+     * @throws IOException if the server cannot be started
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0); //$NON-NLS-1$
+        this.server.createContext("/lib.js", new HttpHandler() { //$NON-NLS-1$
+            @Override
+            public void handle(final HttpExchange exchange)
+            throws IOException {
+                exchange.getResponseHeaders().set("ETag", RemoteFetcherTest.ETAG); //$NON-NLS-1$
+                if (RemoteFetcherTest.ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) { //$NON-NLS-1$
+                    RemoteFetcherTest.this.revalidations.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                RemoteFetcherTest.this.downloads.incrementAndGet();
+                try {
+                    Thread.sleep(RemoteFetcherTest.this.delay);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                final byte[] body = RemoteFetcherTest.BODY.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        // the concurrent fetches need several server threads
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.url = new URL(String.format("http://127.0.0.1:%d/lib.js", Integer.valueOf(this.server.getAddress().getPort()))); //$NON-NLS-1$
+        this.remoteFetcher = new RemoteFetcher(this.directory.resolve("remote"), 1000, 5000); //$NON-NLS-1$
+    }
+
+    /**
+     * Stops the server and the fetcher and deletes the fetched files
+     * @throws IOException if the fetched files cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.remoteFetcher.close();
+        this.server.stop(0);
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * Concurrent fetches of the same url download it once. The fetches waiting for the download revalidate its result
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testConcurrentFetchesDownloadOnce()
+    throws Exception {
+        this.delay = 300;
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Path>> fetches = new ArrayList<>(threads);
+            for (int index = 0; index < threads; index++) {
+                fetches.add(executor.submit(new Callable<Path>() {
+                    @Override
+                    public Path call()
+                    throws Exception {
+                        start.await();
+                        return RemoteFetcherTest.this.remoteFetcher.fetch(RemoteFetcherTest.this.url);
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<Path> fetch : fetches) {
+                assertEquals(RemoteFetcherTest.BODY, new String(Files.readAllBytes(fetch.get()), StandardCharsets.UTF_8));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, this.downloads.get());
+        assertEquals(threads - 1, this.revalidations.get());
+    }
+
+    /**
+     * The first fetch downloads the url
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDownload()
+    throws Exception {
+        final Path file = this.remoteFetcher.fetch(this.url);
+        assertEquals(RemoteFetcherTest.BODY, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertEquals(1, this.downloads.get());
+        assertEquals(0, this.revalidations.get());
+    }
+
+    /**
+     * The fetches without the remote fetcher download the url into a temporary file, which is deleted once merged
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testLegacyFetchDeletesTemporaryFile()
+    throws Exception {
+        final Path webRoot = this.directory.resolve("web"); //$NON-NLS-1$
+        final ConfigHandler configHandler = TestSupport.parseConfig(webRoot, "", String.format( //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file>" //$NON-NLS-1$
+                + "<name>all.js</name><include protocol=\"HTTP\">%s</include></to-file></scripts>", this.url)); //$NON-NLS-1$
+        final int temporaryFiles = RemoteFetcherTest.countTemporaryFiles();
+        final CompilerBean bean = configHandler.toCompilerBeanMap().get(Paths.get("script", "all.js").toString()); //$NON-NLS-1$ //$NON-NLS-2$
+        bean.merge(webRoot.toString(), null, null);
+        final Path mergedFile = webRoot.resolve("script/all.js"); //$NON-NLS-1$
+        assertEquals(RemoteFetcherTest.BODY, new String(Files.readAllBytes(mergedFile), StandardCharsets.UTF_8));
+        assertEquals(temporaryFiles, RemoteFetcherTest.countTemporaryFiles());
+    }
+
+    /**
+     * A later fetch revalidates the cached file with its entity tag, without downloading it again
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRevalidation()
+    throws Exception {
+        final Path file = this.remoteFetcher.fetch(this.url);
+        assertEquals(file, this.remoteFetcher.fetch(this.url));
+        assertEquals(RemoteFetcherTest.BODY, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        assertEquals(1, this.downloads.get());
+        assertEquals(1, this.revalidations.get());
+    }
+
+    /**
+     * The cached file is used when the server is down, but a url which was never fetched fails
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStaleFallback()
+    throws Exception {
+        final Path file = this.remoteFetcher.fetch(this.url);
+        this.server.stop(0);
+        assertEquals(file, this.remoteFetcher.fetch(this.url));
+        assertEquals(RemoteFetcherTest.BODY, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        try {
+            this.remoteFetcher.fetch(new URL(this.url, "/other.js")); //$NON-NLS-1$
+            fail("a url never fetched has no cached file"); //$NON-NLS-1$
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}
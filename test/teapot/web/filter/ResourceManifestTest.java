@@ -0,0 +1,130 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import teapot.common.utils.Utils;
+
+/**
+ * Tests the load order of the resource manifest and the entity tag it is served with
+ * @see ResourceManifest
+ * @see ManifestServlet
+ */
+public class ResourceManifestTest {
+    /**
+     * the merged files: <i>a.js</i> is loaded after <i>z.js</i> without depending on it
+     */
+    private static final String MERGED_FILES = "<scripts mergedir=\"script\" basedir=\"script\">" //$NON-NLS-1$
+                                                 + "<to-file load-after=\"script/z.js\"><name>a.js</name><include>a/**.js</include></to-file>" //$NON-NLS-1$
+                                                 + "<to-file><name>z.js</name><include>z/**.js</include></to-file></scripts>"; //$NON-NLS-1$
+    /**
+     * the directory of the configuration
+     */
+    private Path                webRoot;
+
+    /**
+     * Creates the directory of the configuration
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.webRoot = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the directory of the configuration
+     * @throws IOException if the directory cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * The entity tag is the SHA-256 hash of the served manifest, and a matching If-None-Match is answered with the status 304
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testETag()
+    throws Exception {
+        final ConfigHandler configHandler = TestSupport.parseConfig(this.webRoot, "", ResourceManifestTest.MERGED_FILES); //$NON-NLS-1$
+        final ResourceManifest resourceManifest = new ResourceManifest(configHandler.toCompilerBeanMap(), new ResourceResolver());
+        final ServletContext servletContext = TestSupport.proxy(ServletContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                return "getAttribute".equals(method.getName()) ? resourceManifest : TestSupport.defaultValue(method); //$NON-NLS-1$
+            }
+        });
+        final ManifestServlet servlet = new ManifestServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        final TestSupport.Response response = new TestSupport.Response();
+        servlet.doGet(TestSupport.request("teapot-manifest.json"), response.proxy); //$NON-NLS-1$
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        final String eTag = '"' + Utils.toHex(MessageDigest.getInstance("SHA-256").digest(response.body.toByteArray())) + '"'; //$NON-NLS-1$
+        assertEquals(eTag, response.getHeader("ETag")); //$NON-NLS-1$
+        final TestSupport.Response notModified = new TestSupport.Response();
+        final String[] headers = { "If-None-Match", eTag }; //$NON-NLS-1$
+        servlet.doGet(TestSupport.request("GET", "teapot-manifest.json", headers), notModified.proxy); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+        assertEquals(0, notModified.body.size());
+    }
+
+    /**
+     * A file is listed after the files it is loaded after, which are not compiled before it
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testLoadAfter()
+    throws Exception {
+        final ConfigHandler configHandler = TestSupport.parseConfig(this.webRoot, "", ResourceManifestTest.MERGED_FILES); //$NON-NLS-1$
+        assertTrue(configHandler.getBuildScheduler().getDependencies("script/a.js").isEmpty()); //$NON-NLS-1$
+        final StringWriter writer = new StringWriter();
+        new ResourceManifest(configHandler.toCompilerBeanMap(), new ResourceResolver()).writeTo(writer);
+        final String manifest = writer.toString();
+        assertTrue(manifest, manifest.indexOf("\"id\":\"script/z.js\"") < manifest.indexOf("\"id\":\"script/a.js\"")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(manifest, manifest.contains("\"id\":\"script/a.js\",\"src\":\"script/a.js\",\"type\":\"application/javascript\"," //$NON-NLS-1$
+            + "\"hash\":null,\"depends-on\":[\"script/z.js\"]")); //$NON-NLS-1$
+    }
+
+    /**
+     * A file loaded after a file which is not configured is rejected when the configuration is parsed
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testUnknownLoadAfterIsRejected()
+    throws Exception {
+        try {
+            TestSupport.parseConfig(this.webRoot, "", "<scripts mergedir=\"script\" basedir=\"script\">" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<to-file load-after=\"script/missing.js\"><name>a.js</name><include>a/**.js</include></to-file></scripts>"); //$NON-NLS-1$
+            fail("the unknown file is not rejected"); //$NON-NLS-1$
+        } catch (final SAXException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not configured")); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the in process dispatch of the files included with the SERVER protocol, with a servlet context forwarding <i>/dwr/engine.js</i> to a
+ * servlet writing UTF-8 text and <i>/missing.js</i> to a servlet responding 404
+ * @see ServerDispatcher
+ */
+public class ServerDispatcherTest {
+    /**
+     * the headers of the request being served, as name and value pairs
+     */
+    private static final String[]     HEADERS  = { "Range", "bytes=0-1", //$NON-NLS-1$ //$NON-NLS-2$
+        "If-None-Match", "\"x\"", //$NON-NLS-1$ //$NON-NLS-2$
+        "Accept-Encoding", "gzip", //$NON-NLS-1$ //$NON-NLS-2$
+        "X-Requested-By", "test" }; //$NON-NLS-1$ //$NON-NLS-2$
+    /**
+     * the temporary directory of the dispatched files
+     */
+    private Path                      directory;
+    /**
+     * the number of forwards
+     */
+    private final AtomicInteger       forwards = new AtomicInteger();
+    /**
+     * the method and the headers of the forwarded requests
+     */
+    private final Map<String, String> received = new ConcurrentHashMap<>();
+    /**
+     * the dispatcher under test
+     */
+    private ServerDispatcher          serverDispatcher;
+
+    /**
+     * Creates the dispatcher
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        final ServletContext servletContext = TestSupport.proxy(ServletContext.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if (!"getRequestDispatcher".equals(method.getName()) || "/unmapped.js".equals(args[0])) { //$NON-NLS-1$ //$NON-NLS-2$
+                    return TestSupport.defaultValue(method);
+                }
+                return ServerDispatcherTest.this.newRequestDispatcher((String) args[0]);
+            }
+        });
+        this.serverDispatcher = new ServerDispatcher(servletContext, this.directory.resolve("server")); //$NON-NLS-1$
+    }
+
+    /**
+     * Deletes the dispatched files
+     * @throws IOException if the files cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.serverDispatcher.close();
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * Creates the request dispatcher of a path. The servlet records the forwarded request and writes the response
+     * @param path the context relative path
+     * @return the request dispatcher
+     */
+    private RequestDispatcher newRequestDispatcher(final String path) {
+        return TestSupport.proxy(RequestDispatcher.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            throws IOException {
+                if (!"forward".equals(method.getName())) { //$NON-NLS-1$
+                    return TestSupport.defaultValue(method);
+                }
+                ServerDispatcherTest.this.forwards.incrementAndGet();
+                final HttpServletRequest request = (HttpServletRequest) args[0];
+                final HttpServletResponse response = (HttpServletResponse) args[1];
+                ServerDispatcherTest.this.received.put("method", request.getMethod()); //$NON-NLS-1$
+                for (int index = 0; index < ServerDispatcherTest.HEADERS.length; index += 2) {
+                    final String header = ServerDispatcherTest.HEADERS[index];
+                    if (null != request.getHeader(header)) {
+                        ServerDispatcherTest.this.received.put(header, request.getHeader(header));
+                    }
+                }
+                if ("/missing.js".equals(path)) { //$NON-NLS-1$
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return null;
+                }
+                response.setContentType("text/javascript; charset=UTF-8"); //$NON-NLS-1$
+                response.setHeader("Cache-Control", "no-cache"); //$NON-NLS-1$ //$NON-NLS-2$
+                response.getWriter().write("var engine = \"\u00e9\";\n"); //$NON-NLS-1$
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The file is forwarded once as a plain GET request, its output is kept in a file, and nothing is written to the response being served
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDispatch()
+    throws Exception {
+        final HttpServletRequest request = TestSupport.request("HEAD", "index.html", ServerDispatcherTest.HEADERS); //$NON-NLS-1$ //$NON-NLS-2$
+        final TestSupport.Response response = new TestSupport.Response();
+        this.serverDispatcher.dispatch("/dwr/engine.js", request, response.proxy); //$NON-NLS-1$
+        this.serverDispatcher.dispatch("/dwr/engine.js", request, response.proxy); //$NON-NLS-1$
+        assertEquals(1, this.forwards.get());
+        assertEquals("GET", this.received.get("method")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("test", this.received.get("X-Requested-By")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertFalse(this.received.containsKey("Range")); //$NON-NLS-1$
+        assertFalse(this.received.containsKey("If-None-Match")); //$NON-NLS-1$
+        assertFalse(this.received.containsKey("Accept-Encoding")); //$NON-NLS-1$
+        final Path file = this.serverDispatcher.getFile("/dwr/engine.js"); //$NON-NLS-1$
+        assertEquals("var engine = \"\u00e9\";\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8)); //$NON-NLS-1$
+        assertEquals(0, response.body.size());
+        assertNull(response.getHeader("Cache-Control")); //$NON-NLS-1$
+        assertNull(response.getHeader("Content-Type")); //$NON-NLS-1$
+        this.serverDispatcher.close();
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * A file which cannot be dispatched fails, and is not kept
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testFailedDispatch()
+    throws Exception {
+        final TestSupport.Response response = new TestSupport.Response();
+        for (final String path : new String[] { "/missing.js", "/unmapped.js" }) { //$NON-NLS-1$ //$NON-NLS-2$
+            try {
+                this.serverDispatcher.dispatch(path, TestSupport.request("index.html"), response.proxy); //$NON-NLS-1$
+                fail(path + " is dispatched"); //$NON-NLS-1$
+            } catch (final IOException e) {
+                assertTrue(e.getMessage().contains(path));
+            }
+            try {
+                this.serverDispatcher.getFile(path);
+                fail(path + " is kept"); //$NON-NLS-1$
+            } catch (final IOException e) {
+                // expected
+            }
+        }
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+    }
+}
@@ -0,0 +1,121 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.javascript.jscomp.CompilationLevel;
+
+/**
+ * Tests the reuse of the compiled files of the shadow directory and the deletion of the files compiled from former versions of a source
+ * @see ShadowStore
+ */
+public class ShadowStoreTest {
+    /**
+     * the temporary directory of the source and the shadow directory
+     */
+    private Path directory;
+    /**
+     * the static resource
+     */
+    private Path source;
+
+    /**
+     * Lists the files of a directory
+     * @param directory the directory
+     * @return the file names, sorted
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<String> list(final Path directory)
+    throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Creates the temporary directory with a style
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp()
+    throws IOException {
+        this.directory = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        this.source = TestSupport.write(this.directory.resolve("web/style/a.css"), ".a { color: red; }\n"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Deletes the temporary directory
+     * @throws IOException if the directory cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        TestSupport.deleteTree(this.directory);
+    }
+
+    /**
+     * A changed source is compiled to a new file, and the files compiled from its former versions are deleted. The source is never written
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testStaleFilesAreDeleted()
+    throws Exception {
+        final ShadowStore shadowStore = new ShadowStore(this.directory.resolve("shadow")); //$NON-NLS-1$
+        assertNull(shadowStore.get("style/a.css")); //$NON-NLS-1$
+        assertEquals(FileType.STYLE, shadowStore.compile("style/a.css", this.source, CompilationLevel.SIMPLE_OPTIMIZATIONS)); //$NON-NLS-1$
+        final Path first = shadowStore.get("style/a.css"); //$NON-NLS-1$
+        assertTrue(Files.isRegularFile(first));
+        // a file compiled by a former run, from a version which is gone
+        final Path former = TestSupport.write(first.resolveSibling("former.out"), ".a{color:blue}"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.source, ".a { color: green; }\n"); //$NON-NLS-1$
+        shadowStore.compile("style/a.css", this.source, CompilationLevel.SIMPLE_OPTIMIZATIONS); //$NON-NLS-1$
+        final Path second = shadowStore.get("style/a.css"); //$NON-NLS-1$
+        assertNotEquals(first, second);
+        assertTrue(new String(Files.readAllBytes(second), StandardCharsets.UTF_8).contains("green")); //$NON-NLS-1$
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(former));
+        // no temporary file is left
+        assertEquals(1, ShadowStoreTest.list(second.getParent()).size());
+        assertEquals(".a { color: green; }\n", new String(Files.readAllBytes(this.source), StandardCharsets.UTF_8)); //$NON-NLS-1$
+    }
+
+    /**
+     * An unchanged source reuses its compiled file, across restarts too
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testUnchangedSourceIsNotCompiledAgain()
+    throws Exception {
+        final ShadowStore shadowStore = new ShadowStore(this.directory.resolve("shadow")); //$NON-NLS-1$
+        shadowStore.compile("style/a.css", this.source, CompilationLevel.SIMPLE_OPTIMIZATIONS); //$NON-NLS-1$
+        final Path compiled = shadowStore.get("style/a.css"); //$NON-NLS-1$
+        // a compilation would overwrite the marker
+        TestSupport.write(compiled, "marker"); //$NON-NLS-1$
+        shadowStore.compile("style/a.css", this.source, CompilationLevel.SIMPLE_OPTIMIZATIONS); //$NON-NLS-1$
+        final ShadowStore restarted = new ShadowStore(this.directory.resolve("shadow")); //$NON-NLS-1$
+        restarted.compile("style/a.css", this.source, CompilationLevel.SIMPLE_OPTIMIZATIONS); //$NON-NLS-1$
+        assertEquals(compiled, restarted.get("style/a.css")); //$NON-NLS-1$
+        assertEquals("marker", new String(Files.readAllBytes(compiled), StandardCharsets.UTF_8)); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,295 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterConfig;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Stress tests of the single-flight compilation: a storm of concurrent requests for the same path compiles it exactly once and every request
+ * gets the result of that compilation
+ * @see SingleFlightCompiler
+ */
+public class SingleFlightCompilerTest {
+    /**
+     * the number of concurrent requests
+     */
+    private static final int THREADS = 64;
+    /**
+     * the threads sending the requests
+     */
+    private ExecutorService  executor = Executors.newFixedThreadPool(SingleFlightCompilerTest.THREADS);
+    /**
+     * the web root of the filter test. null if not created
+     */
+    private Path             webRoot;
+
+    /**
+     * Runs the callable on all request threads at once and returns the futures of the results
+     * @param callable the request
+     * @return the futures of the results
+     * @throws InterruptedException if interrupted while starting the requests
+     */
+    private <T> List<Future<T>> storm(final Callable<T> callable)
+    throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(SingleFlightCompilerTest.THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<T>> futures = new ArrayList<>();
+        for (int index = 0; index < SingleFlightCompilerTest.THREADS; index++) {
+            futures.add(this.executor.submit(new Callable<T>() {
+                @Override
+                public T call()
+                throws Exception {
+                    ready.countDown();
+                    start.await();
+                    return callable.call();
+                }
+            }));
+        }
+        ready.await();
+        start.countDown();
+        return futures;
+    }
+
+    /**
+     * Stops the request threads and deletes the web root
+     * @throws IOException if the web root cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.executor.shutdownNow();
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * A failed compilation is shared by the concurrent requests like a successful one, and the next request compiles again
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testFailureIsSharedAndRetried()
+    throws Exception {
+        final SingleFlightCompiler compiler = new SingleFlightCompiler();
+        final AtomicInteger compilations = new AtomicInteger();
+        final IOException failure = new IOException("compilation failed"); //$NON-NLS-1$
+        final List<Future<IOException>> results = this.storm(new Callable<IOException>() {
+            @Override
+            public IOException call() {
+                try {
+                    compiler.compile("script/all.js", new Callable<FileType>() { //$NON-NLS-1$
+                        @Override
+                        public FileType call()
+                        throws Exception {
+                            compilations.incrementAndGet();
+                            Thread.sleep(200);
+                            throw failure;
+                        }
+                    }, true);
+                    return null;
+                } catch (final IOException e) {
+                    return e;
+                }
+            }
+        });
+        for (final Future<IOException> result : results) {
+            assertSame(failure, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, compilations.get());
+        assertFalse(compiler.isCompiled("script/all.js")); //$NON-NLS-1$
+        compiler.compile("script/all.js", new Callable<FileType>() { //$NON-NLS-1$
+            @Override
+            public FileType call() {
+                compilations.incrementAndGet();
+                return FileType.SCRIPT;
+            }
+        }, true);
+        assertEquals(2, compilations.get());
+    }
+
+    /**
+     * A storm of requests for a merged file through the filter merges it once and serves every request the same content
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testFilterRequestStorm()
+    throws Exception {
+        this.webRoot = Files.createTempDirectory("teapot-test"); //$NON-NLS-1$
+        for (int index = 0; index < 20; index++) {
+            TestSupport.write(this.webRoot.resolve("script/statics/file" + index + ".js"), "var file" + index + " = " + index + ";\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        }
+        // watched merged files without a compilation level are compiled once instead of on every request. without drafts, every request
+        // waits for the compilation
+        final FilterConfig filterConfig = TestSupport.filterConfig(this.webRoot, TestSupport.writeConfig(this.webRoot,
+            "watch=\"true\" fallback=\"false\" disk-cache-size=\"0\"", //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file><name>all.js</name><include>statics/**.js</include></to-file></scripts>") //$NON-NLS-1$
+            .toUri().toString());
+        final CompilerFilter filter = TestSupport.initFilter(filterConfig);
+        try {
+            final List<Future<String>> results = this.storm(new Callable<String>() {
+                @Override
+                public String call()
+                throws Exception {
+                    final TestSupport.Response response = new TestSupport.Response();
+                    filter.doFilter(TestSupport.request("script/all.js"), response.proxy, TestSupport.failingChain()); //$NON-NLS-1$
+                    return response.getText();
+                }
+            });
+            final String content = results.get(0).get(30, TimeUnit.SECONDS);
+            assertTrue(content.contains("var file19 = 19;")); //$NON-NLS-1$
+            for (final Future<String> result : results) {
+                assertEquals(content, result.get(30, TimeUnit.SECONDS));
+            }
+            final CompileMetrics compileMetrics = CompileMetrics.fromServletContext(filterConfig.getServletContext());
+            assertEquals(1, compileMetrics.get("script/all.js").getCompileCount()); //$NON-NLS-1$
+        } finally {
+            filter.destroy();
+        }
+    }
+
+    /**
+     * A request registering its task after the path got compiled still completes the task, which another request may already wait for. The
+     * map of the running compilations is replaced to force the interleaving: request A and B miss the compiled path, request C compiles it,
+     * then A registers its task and B finds it before A removes it
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testLateTaskIsCompleted()
+    throws Exception {
+        final SingleFlightCompiler compiler = new SingleFlightCompiler();
+        final CountDownLatch missed = new CountDownLatch(2);
+        final CountDownLatch compiled = new CountDownLatch(1);
+        final CountDownLatch registered = new CountDownLatch(1);
+        final CountDownLatch joined = new CountDownLatch(1);
+        final ConcurrentHashMap<String, FutureTask<FileType>> inFlight = new ConcurrentHashMap<String, FutureTask<FileType>>() {
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * Waits for a latch, so a request which never gets there fails the test instead of blocking it
+             * @param latch the latch
+             */
+            private void await(final CountDownLatch latch) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public FutureTask<FileType> putIfAbsent(final String key, final FutureTask<FileType> value) {
+                switch (Thread.currentThread().getName()) {
+                case "A": //$NON-NLS-1$
+                    missed.countDown();
+                    this.await(compiled);
+                    final FutureTask<FileType> running = super.putIfAbsent(key, value);
+                    registered.countDown();
+                    return running;
+                case "B": //$NON-NLS-1$
+                    missed.countDown();
+                    this.await(registered);
+                    try {
+                        return super.putIfAbsent(key, value);
+                    } finally {
+                        joined.countDown();
+                    }
+                default:
+                    return super.putIfAbsent(key, value);
+                }
+            }
+
+            @Override
+            public boolean remove(final Object key, final Object value) {
+                if ("A".equals(Thread.currentThread().getName())) { //$NON-NLS-1$
+                    this.await(joined);
+                }
+                return super.remove(key, value);
+            }
+        };
+        final Field field = SingleFlightCompiler.class.getDeclaredField("inFlight"); //$NON-NLS-1$
+        field.setAccessible(true);
+        field.set(compiler, inFlight);
+        final AtomicInteger compilations = new AtomicInteger();
+        final Callable<FileType> compilation = new Callable<FileType>() {
+            @Override
+            public FileType call() {
+                compilations.incrementAndGet();
+                return FileType.SCRIPT;
+            }
+        };
+        final List<FutureTask<FileType>> requests = new ArrayList<>();
+        for (final String name : new String[] { "A", "B" }) { //$NON-NLS-1$ //$NON-NLS-2$
+            final FutureTask<FileType> request = new FutureTask<>(new Callable<FileType>() {
+                @Override
+                public FileType call()
+                throws Exception {
+                    return compiler.compile("script/all.js", compilation, true); //$NON-NLS-1$
+                }
+            });
+            final Thread thread = new Thread(request, name);
+            // a request blocked for good does not keep the test running
+            thread.setDaemon(true);
+            thread.start();
+            requests.add(request);
+        }
+        assertTrue(missed.await(5, TimeUnit.SECONDS));
+        assertSame(FileType.SCRIPT, compiler.compile("script/all.js", compilation, true)); //$NON-NLS-1$
+        compiled.countDown();
+        for (final FutureTask<FileType> request : requests) {
+            assertSame(FileType.SCRIPT, request.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, joined.getCount());
+        assertEquals(1, compilations.get());
+    }
+
+    /**
+     * A storm of requests for the same path compiles it once, and every request gets the result of that compilation
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testRequestStormCompilesOnce()
+    throws Exception {
+        final SingleFlightCompiler compiler = new SingleFlightCompiler();
+        final AtomicInteger compilations = new AtomicInteger();
+        final List<Future<FileType>> results = this.storm(new Callable<FileType>() {
+            @Override
+            public FileType call()
+            throws Exception {
+                return compiler.compile("script/all.js", new Callable<FileType>() { //$NON-NLS-1$
+                    @Override
+                    public FileType call()
+                    throws Exception {
+                        compilations.incrementAndGet();
+                        Thread.sleep(200);
+                        return FileType.SCRIPT;
+                    }
+                }, true);
+            }
+        });
+        for (final Future<FileType> result : results) {
+            assertSame(FileType.SCRIPT, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, compilations.get());
+        assertTrue(compiler.isCompiled("script/all.js")); //$NON-NLS-1$
+    }
+}
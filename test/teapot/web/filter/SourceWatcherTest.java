@@ -0,0 +1,141 @@
+package teapot.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the source watcher on a web root with <i>script/all.js</i>, merged from <i>script/src</i>, and <i>script/page.js</i>, merged from
+ * <i>page</i> and depending on <i>script/all.js</i>
+ * @see SourceWatcher
+ */
+public class SourceWatcherTest {
+    /**
+     * the time in milliseconds to wait for a notification
+     */
+    private static final long                  TIMEOUT = 5000;
+    /**
+     * the configuration of the merged files
+     */
+    private ConfigHandler                      configHandler;
+    /**
+     * the notifications of the listener, in the order they arrived
+     */
+    private final BlockingQueue<List<String>> notifications = new LinkedBlockingQueue<>();
+    /**
+     * the watcher under test
+     */
+    private SourceWatcher                      watcher;
+    /**
+     * the web root
+     */
+    private Path                               webRoot;
+
+    /**
+     * Creates the web root and starts watching it
+     * @throws Exception if the web root cannot be created
+     */
+    @Before
+    public void setUp()
+    throws Exception {
+        this.webRoot = Files.createTempDirectory("teapot-test").toRealPath(); //$NON-NLS-1$
+        TestSupport.write(this.webRoot.resolve("script/src/a.js"), "var a;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.webRoot.resolve("page/p.js"), "var p;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.configHandler = TestSupport.parseConfig(this.webRoot, "", //$NON-NLS-1$
+            "<scripts mergedir=\"script\" basedir=\"script\"><to-file><name>all.js</name><include>src/**.js</include></to-file></scripts>" //$NON-NLS-1$
+                + "<scripts mergedir=\"script\" basedir=\"page\"><to-file dependency=\"script/all.js\"><name>page.js</name>" //$NON-NLS-1$
+                + "<include>**.js</include></to-file></scripts>"); //$NON-NLS-1$
+        this.watcher = new SourceWatcher(this.webRoot.toString(), this.configHandler.toCompilerBeanMap(), this.configHandler
+            .getBuildScheduler(), this.configHandler.getDirectoryIndex(), new SourceWatcher.Listener() {
+            @Override
+            public void sourcesChanged(final List<String> paths) {
+                SourceWatcherTest.this.notifications.add(paths);
+            }
+        });
+        this.watcher.start();
+    }
+
+    /**
+     * Stops watching and deletes the web root
+     * @throws IOException if the web root cannot be deleted
+     */
+    @After
+    public void tearDown()
+    throws IOException {
+        this.watcher.close();
+        TestSupport.deleteTree(this.webRoot);
+    }
+
+    /**
+     * Files created in quick succession are reported in one notification, with the merged files depending on the affected one
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testBurstIsDebounced()
+    throws Exception {
+        for (int index = 0; index < 5; index++) {
+            TestSupport.write(this.webRoot.resolve("script/src/b" + index + ".js"), "var b;\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            Thread.sleep(20);
+        }
+        assertEquals(Arrays.asList("script/all.js", "script/page.js"), //$NON-NLS-1$ //$NON-NLS-2$
+            this.notifications.poll(SourceWatcherTest.TIMEOUT, TimeUnit.MILLISECONDS));
+        assertNull(this.notifications.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A change of the dependent only affects the dependent
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testDependentOnly()
+    throws Exception {
+        TestSupport.write(this.webRoot.resolve("page/q.js"), "var q;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(Arrays.asList("script/page.js"), this.notifications.poll(SourceWatcherTest.TIMEOUT, TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+    }
+
+    /**
+     * Writing the merged files, which are inside a watched directory, is not a change of the sources. Modifying a file which is not merged is
+     * not a change either
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testOutputAndUnmergedFilesAreIgnored()
+    throws Exception {
+        TestSupport.write(this.webRoot.resolve("script/all.js"), "var merged;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.webRoot.resolve("script/all.js"), "var mergedAgain;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        TestSupport.write(this.webRoot.resolve("script/src/a.js"), "var a = 1;\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(this.notifications.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The temporary files the merged files are written under are created and deleted next to them, inside a watched directory. They are no
+     * change of the sources, else every build would trigger the next one
+     * @throws Exception if the test fails
+     */
+    @Test
+    public void testTemporaryOutputFilesAreIgnored()
+    throws Exception {
+        final Path mergedFile = this.webRoot.resolve("script/all.js"); //$NON-NLS-1$
+        for (int index = 0; index < 3; index++) {
+            final Path temporaryFile = FileCompiler.createTemporaryFile(mergedFile.toFile());
+            TestSupport.write(temporaryFile, "var merged" + index + ";\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            Files.move(temporaryFile, mergedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // a failed merge deletes its temporary file
+            Files.delete(FileCompiler.createTemporaryFile(mergedFile.toFile()));
+        }
+        assertNull(this.notifications.poll(500, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,361 @@
+package teapot.web.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.springframework.context.support.GenericApplicationContext;
+
+import teapot.common.utils.Context;
+
+/**
+ * Helpers shared by the tests: temporary web roots, compiler configurations, and minimal servlet objects for driving the
+ * {@link CompilerFilter} without a container.
+ */
+final class TestSupport {
+    /**
+     * A response recording its status, headers and body
+     */
+    static final class Response {
+        /**
+         * the response body
+         */
+        final ByteArrayOutputStream body;
+        /**
+         * the response headers, by case insensitive name. The last value set wins
+         */
+        final Map<String, String>   headers;
+        /**
+         * the response proxy
+         */
+        final HttpServletResponse   proxy;
+        /**
+         * the response status
+         */
+        volatile int                status;
+
+        /**
+         * Instantiates Response
+         */
+        Response() {
+            this.body = new ByteArrayOutputStream();
+            this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            this.status = HttpServletResponse.SC_OK;
+            final ServletOutputStream outputStream = new ServletOutputStream() {
+                @Override
+                public void write(final byte[] bytes, final int offset, final int length) {
+                    Response.this.body.write(bytes, offset, length);
+                }
+
+                @Override
+                public void write(final int b) {
+                    Response.this.body.write(b);
+                }
+            };
+            this.proxy = TestSupport.proxy(HttpServletResponse.class, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    switch (method.getName()) {
+                    case "getOutputStream": //$NON-NLS-1$
+                        return outputStream;
+                    case "setHeader": //$NON-NLS-1$
+                    case "addHeader": //$NON-NLS-1$
+                        synchronized (Response.this.headers) {
+                            Response.this.headers.put((String) args[0], (String) args[1]);
+                        }
+                        return null;
+                    case "setContentType": //$NON-NLS-1$
+                        synchronized (Response.this.headers) {
+                            Response.this.headers.put("Content-Type", (String) args[0]); //$NON-NLS-1$
+                        }
+                        return null;
+                    case "setStatus": //$NON-NLS-1$
+                    case "sendError": //$NON-NLS-1$
+                        Response.this.status = ((Integer) args[0]).intValue();
+                        return null;
+                    default:
+                        return TestSupport.defaultValue(method);
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return the body as UTF-8 text
+         */
+        String getText() {
+            return new String(this.body.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns a response header
+         * @param name the header name
+         * @return the header value. null if the header is not set
+         */
+        String getHeader(final String name) {
+            synchronized (this.headers) {
+                return this.headers.get(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the value a proxy method returns when it is not handled
+     * @param method the method called
+     * @return null, or the default value of the primitive return type
+     */
+    static Object defaultValue(final Method method) {
+        final Class<?> returnType = method.getReturnType();
+        if (boolean.class == returnType) {
+            return Boolean.FALSE;
+        } else if (int.class == returnType) {
+            return Integer.valueOf(0);
+        } else if (long.class == returnType) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the directory tree. Does nothing if the directory does not exist
+     * @param directory the directory to delete
+     * @throws IOException if deleting fails
+     */
+    static void deleteTree(final Path directory)
+    throws IOException {
+        if (null == directory || !Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc)
+            throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+            throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Creates a filter chain which fails the test, as the request has to be served by the filter
+     * @return the filter chain
+     */
+    static FilterChain failingChain() {
+        return TestSupport.proxy(FilterChain.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                throw new IllegalStateException("The request was not served by the compiler filter"); //$NON-NLS-1$
+            }
+        });
+    }
+
+    /**
+     * Creates a filter configuration serving the web root
+     * @param webRoot the local path of the context root
+     * @param compilerConfig the location of the compiler configuration
+     * @return the filter configuration
+     */
+    static FilterConfig filterConfig(final Path webRoot, final String compilerConfig) {
+        final ServletContext servletContext = TestSupport.proxy(ServletContext.class, new InvocationHandler() {
+            /**
+             * the servlet context attributes
+             */
+            private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                case "getRealPath": //$NON-NLS-1$
+                    return webRoot.resolve((String) args[0]).toString();
+                case "getContextPath": //$NON-NLS-1$
+                    return "/teapot"; //$NON-NLS-1$
+                case "getAttribute": //$NON-NLS-1$
+                    return this.attributes.get(args[0]);
+                case "setAttribute": //$NON-NLS-1$
+                    this.attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute": //$NON-NLS-1$
+                    this.attributes.remove(args[0]);
+                    return null;
+                default:
+                    return TestSupport.defaultValue(method);
+                }
+            }
+        });
+        return TestSupport.proxy(FilterConfig.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                switch (method.getName()) {
+                case "getServletContext": //$NON-NLS-1$
+                    return servletContext;
+                case "getInitParameter": //$NON-NLS-1$
+                    return "compilerConfigLocation".equals(args[0]) ? compilerConfig : null; //$NON-NLS-1$
+                default:
+                    return TestSupport.defaultValue(method);
+                }
+            }
+        });
+    }
+
+    /**
+     * Initializes a compiler filter
+     * @param filterConfig the filter configuration
+     * @return the initialized filter
+     * @throws Exception if the filter cannot be initialized
+     */
+    static CompilerFilter initFilter(final FilterConfig filterConfig)
+    throws Exception {
+        new Context().setApplicationContext(new GenericApplicationContext());
+        final CompilerFilter filter = new CompilerFilter();
+        filter.init(filterConfig);
+        return filter;
+    }
+
+    /**
+     * Initializes a compiler filter for the web root
+     * @param webRoot the local path of the context root
+     * @param attributes the attributes of the configuration element
+     * @param elements the scripts, templates and styles elements of the configuration
+     * @return the initialized filter
+     * @throws Exception if the filter cannot be initialized
+     */
+    static CompilerFilter initFilter(final Path webRoot, final String attributes, final String elements)
+    throws Exception {
+        return TestSupport.initFilter(TestSupport.filterConfig(webRoot, TestSupport.writeConfig(webRoot, attributes, elements).toUri().toString()));
+    }
+
+    /**
+     * Parses a compiler configuration
+     * @param webRoot the directory the configuration is written to
+     * @param attributes the attributes of the configuration element
+     * @param elements the scripts, templates and styles elements of the configuration
+     * @return the parsed configuration
+     * @throws Exception if the configuration cannot be parsed
+     */
+    static ConfigHandler parseConfig(final Path webRoot, final String attributes, final String elements)
+    throws Exception {
+        final ConfigHandler configHandler = new ConfigHandler();
+        SAXParserFactory.newInstance().newSAXParser().parse(TestSupport.writeConfig(webRoot, attributes, elements).toFile(),
+            configHandler);
+        return configHandler;
+    }
+
+    /**
+     * Creates a proxy implementing the interface
+     * @param type the interface to implement
+     * @param handler the handler of the method calls
+     * @return the proxy
+     */
+    static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(TestSupport.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Creates a GET request for the context relative path
+     * @param path the context relative path
+     * @param headers the request headers, as name and value pairs
+     * @return the request
+     */
+    static HttpServletRequest request(final String path, final String... headers) {
+        return TestSupport.request("GET", path, headers); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates a request for the context relative path
+     * @param method the request method
+     * @param path the context relative path
+     * @param headers the request headers, as name and value pairs
+     * @return the request
+     */
+    static HttpServletRequest request(final String method, final String path, final String... headers) {
+        final Map<String, String> headerMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int index = 0; index + 1 < headers.length; index += 2) {
+            headerMap.put(headers[index], headers[index + 1]);
+        }
+        return TestSupport.proxy(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method invoked, final Object[] args) {
+                switch (invoked.getName()) {
+                case "getContextPath": //$NON-NLS-1$
+                    return "/teapot"; //$NON-NLS-1$
+                case "getRequestURI": //$NON-NLS-1$
+                    return "/teapot/" + path; //$NON-NLS-1$
+                case "getMethod": //$NON-NLS-1$
+                    return method;
+                case "getServerPort": //$NON-NLS-1$
+                    return Integer.valueOf(8080);
+                case "getHeader": //$NON-NLS-1$
+                    return headerMap.get(args[0]);
+                default:
+                    return TestSupport.defaultValue(invoked);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes a file, creating its directory
+     * @param file the file
+     * @param content the UTF-8 content of the file
+     * @return the file
+     * @throws IOException if writing fails
+     */
+    static Path write(final Path file, final String content)
+    throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a compiler configuration to the web root, next to a copy of the DTD, so the defaults of the DTD apply
+     * @param webRoot the directory the configuration is written to
+     * @param attributes the attributes of the configuration element
+     * @param elements the scripts, templates and styles elements of the configuration
+     * @return the configuration file
+     * @throws IOException if writing fails
+     */
+    static Path writeConfig(final Path webRoot, final String attributes, final String elements)
+    throws IOException {
+        Files.createDirectories(webRoot);
+        Files.copy(Paths.get("src", "teapot", "common", "config", "compiler.dtd"), webRoot.resolve("compiler.dtd"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            StandardCopyOption.REPLACE_EXISTING);
+        return TestSupport.write(webRoot.resolve("compiler.xml"), String.format("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>%n" //$NON-NLS-1$ //$NON-NLS-2$
+            + "<!DOCTYPE compile:configuration SYSTEM \"compiler.dtd\">%n<compile:configuration %s>%n%s%n</compile:configuration>%n", //$NON-NLS-1$
+            attributes, elements));
+    }
+
+    /**
+     * Private constructor for the utility class
+     */
+    private TestSupport() {
+        // no instances
+    }
+}